@@ -3,53 +3,51 @@ package patchpump.minify.maven.common;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
-import java.nio.charset.StandardCharsets;
+import java.io.UncheckedIOException;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
-import javax.script.Bindings;
-import javax.script.Compilable;
-import javax.script.CompiledScript;
-import javax.script.ScriptContext;
-import javax.script.ScriptEngine;
-import javax.script.ScriptEngineManager;
-import javax.script.ScriptException;
-
 /**
- * JavaScriptCompiler backed by the graal.js script engine.
- * 
- * NOTE: not thread-safe as compiler source is only evaluated once and bindings is re-used
- * 
+ * JavaScriptCompiler backed by a pool of graal.js contexts.
+ *
+ * NOTE: thread-safe as every compilation runs in a context of its own, see {@link JavaScriptContextPool}
+ *
  * @author patchpump
  */
 public abstract class AbstractJavaScriptCompiler {
 
-	private static final ScriptEngineManager manager = new ScriptEngineManager();
-	private static final ScriptEngine scriptEngine = manager.getEngineByName("graal.js");
-	private static final Map<String,CompiledScript> scriptCache = new ConcurrentHashMap<>();
+	private static final Map<String,JavaScriptContextPool> poolCache = new ConcurrentHashMap<>();
 
-	protected final CompiledScript script;
-	
-	public AbstractJavaScriptCompiler(String engineFile) throws IOException, ScriptException {
+	protected final JavaScriptContextPool pool;
 
-		CompiledScript compiled = scriptCache.get(engineFile);
-		if (compiled != null) {
-			script = compiled;
-			return;
-		}
+	public AbstractJavaScriptCompiler(String engineFile) throws IOException {
+		pool = getPool(engineFile);
+	}
 
-		try (InputStreamReader inputStreamReader = new InputStreamReader(AbstractJavaScriptCompiler.class.getResourceAsStream(engineFile), StandardCharsets.UTF_8)) {
-			compiled = ((Compilable)scriptEngine).compile(inputStreamReader);
-			Bindings bindings = scriptEngine.getBindings(ScriptContext.ENGINE_SCOPE);
-			compiled.eval(bindings);
-			CompiledScript cached = scriptCache.putIfAbsent(engineFile, compiled);
-			script = cached != null ? cached : compiled;
+	/**
+	 * Gets the context pool shared by all compilers of an engine file.
+	 *
+	 * @param engineFile class path resource with the compiler source
+	 * @return context pool
+	 * @throws IOException when the compiler source cannot be read
+	 */
+	protected static JavaScriptContextPool getPool(String engineFile) throws IOException {
+		try {
+			return poolCache.computeIfAbsent(engineFile, k -> {
+				try {
+					return new JavaScriptContextPool(k);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
 		}
 	}
 
-	protected abstract String compile(InputStreamReader reader) throws IOException, ScriptException, NoSuchMethodException;
+	protected abstract String compile(InputStreamReader reader) throws IOException;
 
-	public void compile(InputStreamReader reader, OutputStreamWriter writer, @SuppressWarnings("unused") JavaScriptErrorReporter javaScriptErrorReporter) throws NoSuchMethodException, IOException, ScriptException {
+	public void compile(InputStreamReader reader, OutputStreamWriter writer, @SuppressWarnings("unused") JavaScriptErrorReporter javaScriptErrorReporter) throws IOException {
 		writer.write(compile(reader));
 	}
 }
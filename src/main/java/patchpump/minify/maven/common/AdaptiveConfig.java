@@ -0,0 +1,58 @@
+package patchpump.minify.maven.common;
+
+/**
+ * Adaptive compression settings, choosing the gzip and zstd settings of each output.
+ *
+ * @author patchpump
+ */
+public class AdaptiveConfig {
+
+	private final int timeBudget;
+	private final int minSize;
+	private final int minSaving;
+
+	/**
+	 * Init AdaptiveConfig values.
+	 *
+	 * @param timeBudget milliseconds after which no further candidate setting is tried for an output
+	 * @param minSize size in bytes below which no compressed variants are written
+	 * @param minSaving percentage of the content size a compressed variant must save to be written
+	 */
+	public AdaptiveConfig(int timeBudget, int minSize, int minSaving) {
+		this.timeBudget = timeBudget;
+		this.minSize = minSize;
+		this.minSaving = minSaving;
+	}
+
+	/**
+	 * Gets the time budget.
+	 *
+	 * @return the time budget in milliseconds
+	 */
+	public int getTimeBudget() {
+		return timeBudget;
+	}
+
+	/**
+	 * Gets the minimum size.
+	 *
+	 * @return the minimum size in bytes
+	 */
+	public int getMinSize() {
+		return minSize;
+	}
+
+	/**
+	 * Gets the minimum saving.
+	 *
+	 * @return the minimum saving in percent
+	 */
+	public int getMinSaving() {
+		return minSaving;
+	}
+
+	@Override
+	public String toString() {
+		return "AdaptiveConfig [timeBudget=" + timeBudget + ", minSize=" + minSize + ", minSaving=" + minSaving + "]";
+	}
+}
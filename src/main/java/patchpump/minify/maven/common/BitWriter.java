@@ -0,0 +1,82 @@
+package patchpump.minify.maven.common;
+
+import java.util.Arrays;
+
+/**
+ * Writer of bit fields, least significant bit first, as used by the deflate format.
+ *
+ * @author patchpump
+ */
+final class BitWriter {
+
+	static final int MAX_CODE_LENGTH = 15;
+
+	private byte[] bytes;
+	private int length;
+	private long accumulator;
+	private int count;
+
+	BitWriter(int capacity) {
+		bytes = new byte[Math.max(16, capacity)];
+	}
+
+	/**
+	 * Writes the low bits of a value.
+	 *
+	 * @param bits number of bits, at most 56
+	 * @param value value
+	 */
+	void write(int bits, long value) {
+
+		accumulator |= value << count;
+		count += bits;
+		while (count >= 8) {
+			if (length == bytes.length)
+				bytes = Arrays.copyOf(bytes, bytes.length * 2);
+			bytes[length++] = (byte)accumulator;
+			accumulator >>>= 8;
+			count -= 8;
+		}
+	}
+
+	/**
+	 * Pads with zero bits up to the next byte boundary.
+	 */
+	void alignToByte() {
+		if (count > 0)
+			write(8 - count, 0);
+	}
+
+	byte[] toByteArray() {
+		alignToByte();
+		return Arrays.copyOf(bytes, length);
+	}
+
+	/**
+	 * Assigns canonical prefix codes to code lengths, bit reversed for writing least significant bit first.
+	 *
+	 * @param depth code length of each symbol, 0 when unused, at most 15
+	 * @return code of each symbol
+	 */
+	static int[] canonicalCodes(int[] depth) {
+
+		int[] lengthCount = new int[MAX_CODE_LENGTH + 1];
+		for (int d : depth)
+			lengthCount[d]++;
+		lengthCount[0] = 0;
+
+		int[] nextCode = new int[MAX_CODE_LENGTH + 2];
+		int code = 0;
+		for (int length = 1; length <= MAX_CODE_LENGTH; length++) {
+			code = (code + lengthCount[length - 1]) << 1;
+			nextCode[length] = code;
+		}
+
+		int[] codes = new int[depth.length];
+		for (int i = 0; i < depth.length; i++) {
+			if (depth[i] > 0)
+				codes[i] = Integer.reverse(nextCode[depth[i]]++) >>> (32 - depth[i]);
+		}
+		return codes;
+	}
+}
@@ -0,0 +1,232 @@
+package patchpump.minify.maven.common;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Thread-safe Maven log that buffers messages until flushed to the underlying log.
+ *
+ * Lets tasks run concurrently while their output is still written to the build log in one piece.
+ *
+ * @author patchpump
+ */
+public class BufferedLog implements Log {
+
+	private enum Level {
+		DEBUG, INFO, WARN, ERROR
+	}
+
+	private static final class Entry {
+
+		final Level level;
+		final CharSequence content;
+		final Throwable error;
+
+		Entry(Level level, CharSequence content, Throwable error) {
+			this.level = level;
+			this.content = content;
+			this.error = error;
+		}
+	}
+
+	/**
+	 * Messages logged by one thread while a section was open.
+	 */
+	public static final class Section {
+
+		private final List<Entry> entries = new ArrayList<>();
+	}
+
+	private final Log delegate;
+	private final List<Entry> entries = new ArrayList<>();
+	private final ThreadLocal<Section> section = new ThreadLocal<>();
+
+	/**
+	 * Buffered log constructor.
+	 *
+	 * @param delegate Maven plugin log the messages are flushed to
+	 */
+	public BufferedLog(Log delegate) {
+		this.delegate = delegate;
+	}
+
+	/**
+	 * Writes all buffered messages to the underlying log in the order they were logged.
+	 */
+	public void flush() {
+
+		List<Entry> flushed;
+		synchronized (entries) {
+			if (entries.isEmpty())
+				return;
+			flushed = new ArrayList<>(entries);
+			entries.clear();
+		}
+
+		synchronized (delegate) {
+			for (Entry entry : flushed)
+				write(entry);
+		}
+	}
+
+	/**
+	 * Starts collecting messages logged by the current thread into given section instead of the buffer. Sections
+	 * let concurrent units of work of a task be appended to the buffer in a deterministic order.
+	 *
+	 * @param open section collecting the messages
+	 */
+	public void beginSection(Section open) {
+		section.set(open);
+	}
+
+	/**
+	 * Stops collecting messages logged by the current thread into its section.
+	 */
+	public void endSection() {
+		section.remove();
+	}
+
+	/**
+	 * Appends the messages of a closed section to the buffer.
+	 *
+	 * @param closed section
+	 */
+	public void append(Section closed) {
+		synchronized (entries) {
+			entries.addAll(closed.entries);
+		}
+	}
+
+	private void write(Entry entry) {
+		switch (entry.level) {
+		case DEBUG:
+			if (entry.content == null)
+				delegate.debug(entry.error);
+			else if (entry.error == null)
+				delegate.debug(entry.content);
+			else
+				delegate.debug(entry.content, entry.error);
+			break;
+		case INFO:
+			if (entry.content == null)
+				delegate.info(entry.error);
+			else if (entry.error == null)
+				delegate.info(entry.content);
+			else
+				delegate.info(entry.content, entry.error);
+			break;
+		case WARN:
+			if (entry.content == null)
+				delegate.warn(entry.error);
+			else if (entry.error == null)
+				delegate.warn(entry.content);
+			else
+				delegate.warn(entry.content, entry.error);
+			break;
+		case ERROR:
+			if (entry.content == null)
+				delegate.error(entry.error);
+			else if (entry.error == null)
+				delegate.error(entry.content);
+			else
+				delegate.error(entry.content, entry.error);
+			break;
+		}
+	}
+
+	private void append(Level level, CharSequence content, Throwable error) {
+		Section current = section.get();
+		if (current != null) {
+			current.entries.add(new Entry(level, content, error));
+			return;
+		}
+		synchronized (entries) {
+			entries.add(new Entry(level, content, error));
+		}
+	}
+
+	@Override
+	public boolean isDebugEnabled() {
+		return delegate.isDebugEnabled();
+	}
+
+	@Override
+	public void debug(CharSequence content) {
+		if (isDebugEnabled())
+			append(Level.DEBUG, content, null);
+	}
+
+	@Override
+	public void debug(CharSequence content, Throwable error) {
+		if (isDebugEnabled())
+			append(Level.DEBUG, content, error);
+	}
+
+	@Override
+	public void debug(Throwable error) {
+		if (isDebugEnabled())
+			append(Level.DEBUG, null, error);
+	}
+
+	@Override
+	public boolean isInfoEnabled() {
+		return delegate.isInfoEnabled();
+	}
+
+	@Override
+	public void info(CharSequence content) {
+		append(Level.INFO, content, null);
+	}
+
+	@Override
+	public void info(CharSequence content, Throwable error) {
+		append(Level.INFO, content, error);
+	}
+
+	@Override
+	public void info(Throwable error) {
+		append(Level.INFO, null, error);
+	}
+
+	@Override
+	public boolean isWarnEnabled() {
+		return delegate.isWarnEnabled();
+	}
+
+	@Override
+	public void warn(CharSequence content) {
+		append(Level.WARN, content, null);
+	}
+
+	@Override
+	public void warn(CharSequence content, Throwable error) {
+		append(Level.WARN, content, error);
+	}
+
+	@Override
+	public void warn(Throwable error) {
+		append(Level.WARN, null, error);
+	}
+
+	@Override
+	public boolean isErrorEnabled() {
+		return delegate.isErrorEnabled();
+	}
+
+	@Override
+	public void error(CharSequence content) {
+		append(Level.ERROR, content, null);
+	}
+
+	@Override
+	public void error(CharSequence content, Throwable error) {
+		append(Level.ERROR, content, error);
+	}
+
+	@Override
+	public void error(Throwable error) {
+		append(Level.ERROR, null, error);
+	}
+}
@@ -18,6 +18,7 @@
  */
 package patchpump.minify.maven.common;
 
+import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 
@@ -41,6 +42,7 @@ public class ClosureConfig {
 	private final Format sourceMapFormat;
 	private final Boolean angularPass;
 	private Map<String, String> warningLevels;
+	private ClosureExterns closureExterns;
 
 	/**
 	 * Init Closure Compiler values.
@@ -102,6 +104,18 @@ public class ClosureConfig {
 		return externs;
 	}
 
+	/**
+	 * Gets the externs with the default externs when used, read once for all bundles.
+	 *
+	 * @return the externs
+	 * @throws IOException when an extern cannot be read
+	 */
+	public synchronized ClosureExterns getClosureExterns() throws IOException {
+		if (closureExterns == null)
+			closureExterns = ClosureExterns.load(externs, useDefaultExterns);
+		return closureExterns;
+	}
+
 	/**
 	 * Gets the useDefaultExterns.
 	 *
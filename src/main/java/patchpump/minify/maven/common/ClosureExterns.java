@@ -0,0 +1,129 @@
+package patchpump.minify.maven.common;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.javascript.jscomp.CommandLineRunner;
+import com.google.javascript.jscomp.SourceFile;
+
+/**
+ * Closure Compiler externs of an execution, read, hashed and deduplicated once and shared by its compilations. The
+ * default externs packed with the Closure Compiler are loaded once per JVM.
+ *
+ * Externs with identical content are only passed once. Every compilation gets its own {@link SourceFile} instances
+ * backed by the loaded code, so no mutable compiler state is shared between concurrent compilations.
+ *
+ * @author patchpump
+ */
+public final class ClosureExterns {
+
+	private static final class Extern {
+
+		final String name;
+		final String code;
+
+		Extern(String name, String code) {
+			this.name = name;
+			this.code = code;
+		}
+	}
+
+	private static List<Extern> defaultExterns;
+
+	private final List<Extern> configured;
+	private final boolean useDefaultExterns;
+	private final String key;
+	private List<Extern> resolved;
+
+	private ClosureExterns(List<Extern> configured, boolean useDefaultExterns, String key) {
+		this.configured = configured;
+		this.useDefaultExterns = useDefaultExterns;
+		this.key = key;
+	}
+
+	/**
+	 * Reads and hashes the configured externs.
+	 *
+	 * @param externs configured externs
+	 * @param useDefaultExterns add the default externs packed with the Closure Compiler
+	 * @return externs of the configuration
+	 * @throws IOException when an extern cannot be read
+	 */
+	public static ClosureExterns load(List<SourceFile> externs, boolean useDefaultExterns) throws IOException {
+
+		List<Extern> configured = new ArrayList<>(externs.size());
+		for (SourceFile extern : externs)
+			configured.add(new Extern(extern.getName(), extern.getCode()));
+
+		MessageDigest digest = sha256();
+		digest.update((byte)(useDefaultExterns ? 1 : 0));
+		for (Extern extern : configured)
+			digest.update(sha256().digest(extern.code.getBytes(StandardCharsets.UTF_8)));
+		return new ClosureExterns(configured, useDefaultExterns, HexFormat.of().formatHex(digest.digest()));
+	}
+
+	/**
+	 * Gets the hash of the configured externs content and of the use of the default externs.
+	 *
+	 * @return key of the externs
+	 */
+	public String getKey() {
+		return key;
+	}
+
+	/**
+	 * Gets the externs for a compilation.
+	 *
+	 * @return deduplicated externs
+	 * @throws IOException when the default externs cannot be read
+	 */
+	public synchronized List<SourceFile> get() throws IOException {
+
+		if (resolved == null) {
+			List<Extern> all = new ArrayList<>(configured);
+			if (useDefaultExterns)
+				all.addAll(getDefaultExterns());
+			resolved = deduplicate(all);
+		}
+
+		List<SourceFile> sourceFiles = new ArrayList<>(resolved.size());
+		for (Extern extern : resolved)
+			sourceFiles.add(SourceFile.fromCode(extern.name, extern.code));
+		return sourceFiles;
+	}
+
+	private static synchronized List<Extern> getDefaultExterns() throws IOException {
+
+		if (defaultExterns == null) {
+			List<Extern> loaded = new ArrayList<>();
+			for (SourceFile extern : CommandLineRunner.getDefaultExterns())
+				loaded.add(new Extern(extern.getName(), extern.getCode()));
+			defaultExterns = Collections.unmodifiableList(loaded);
+		}
+		return defaultExterns;
+	}
+
+	private static List<Extern> deduplicate(List<Extern> externs) {
+
+		Map<String, Extern> unique = new LinkedHashMap<>();
+		for (Extern extern : externs)
+			unique.putIfAbsent(HexFormat.of().formatHex(sha256().digest(extern.code.getBytes(StandardCharsets.UTF_8))), extern);
+		return Collections.unmodifiableList(new ArrayList<>(unique.values()));
+	}
+
+	private static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,492 @@
+package patchpump.minify.maven.common;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Structural optimizer for merged stylesheets, run before the CSS engine.
+ *
+ * The stylesheet is parsed into style rules, conditional group rules and statements kept as they are. In each list of
+ * rules, a declaration is dropped when a later rule with the same selector, or the same rule, repeats it: both have the
+ * same specificity, importance and validity, so the earlier one can never win the cascade. Rules left empty are
+ * dropped, then adjacent style rules with the same selector and adjacent {@code @media}, {@code @supports} or
+ * {@code @container} rules with the same condition are merged, which is the same as writing their contents one after
+ * the other.
+ *
+ * Declarations of a property that differ in their value are all kept, as the earlier ones are commonly fallbacks for
+ * browsers that reject the later ones. Rules with nested rules and other at-rules, such as {@code @keyframes} or
+ * {@code @layer}, are kept as they are. Stylesheets with unbalanced blocks or unterminated strings are returned
+ * unchanged.
+ */
+public final class CssOptimizer {
+
+	private static final Set<String> GROUP_RULES = Set.of("media", "supports", "container");
+
+	private final String css;
+	private int pos;
+
+	public CssOptimizer(String css) {
+		this.css = css;
+	}
+
+	/**
+	 * Optimizes the stylesheet.
+	 *
+	 * @return optimized stylesheet, or the stylesheet as it is when it cannot be parsed safely
+	 */
+	public String optimize() {
+		List<Node> nodes;
+		try {
+			pos = 0;
+			nodes = parse(true);
+		} catch (UnsupportedSyntaxException e) {
+			return css;
+		}
+
+		StringBuilder out = new StringBuilder(css.length());
+		write(optimize(nodes), out);
+		return out.toString();
+	}
+
+	private abstract static class Node {
+	}
+
+	private static final class Rule extends Node {
+
+		final String selector;
+		final List<String> declarations;
+
+		Rule(String selector, List<String> declarations) {
+			this.selector = selector;
+			this.declarations = declarations;
+		}
+	}
+
+	private static final class Group extends Node {
+
+		final String prelude;
+		final List<Node> children;
+
+		Group(String prelude, List<Node> children) {
+			this.prelude = prelude;
+			this.children = children;
+		}
+	}
+
+	private static final class Raw extends Node {
+
+		final String text;
+
+		Raw(String text) {
+			this.text = text;
+		}
+	}
+
+	private static final class UnsupportedSyntaxException extends Exception {
+
+		private static final long serialVersionUID = 1L;
+	}
+
+	// Optimizer
+
+	private static List<Node> optimize(List<Node> nodes) {
+		while (true) {
+			for (int i = 0; i < nodes.size(); i++) {
+				if (nodes.get(i) instanceof Group) {
+					Group group = (Group) nodes.get(i);
+					nodes.set(i, new Group(group.prelude, optimize(group.children)));
+				}
+			}
+			nodes = removeOverridden(nodes);
+			List<Node> merged = mergeAdjacent(nodes);
+			if (merged.size() == nodes.size())
+				return merged;
+			nodes = merged;
+		}
+	}
+
+	/**
+	 * Drops the declarations repeated later in the list by a rule with the same selector, and the rules and groups
+	 * left empty.
+	 */
+	private static List<Node> removeOverridden(List<Node> nodes) {
+		Set<String> later = new HashSet<>();
+		List<Node> kept = new ArrayList<>(nodes.size());
+		for (int i = nodes.size() - 1; i >= 0; i--) {
+			Node node = nodes.get(i);
+			if (node instanceof Rule) {
+				Rule rule = (Rule) node;
+				List<String> declarations = new ArrayList<>(rule.declarations.size());
+				for (int j = rule.declarations.size() - 1; j >= 0; j--) {
+					String declaration = rule.declarations.get(j);
+					if (later.add(rule.selector + '{' + declaration)) {
+						declarations.add(0, declaration);
+					}
+				}
+				if (declarations.isEmpty())
+					continue;
+				node = new Rule(rule.selector, declarations);
+			} else if (node instanceof Group && ((Group) node).children.isEmpty()) {
+				continue;
+			}
+			kept.add(node);
+		}
+
+		List<Node> result = new ArrayList<>(kept.size());
+		for (int i = kept.size() - 1; i >= 0; i--) {
+			result.add(kept.get(i));
+		}
+		return result;
+	}
+
+	/**
+	 * Merges adjacent rules with the same selector and adjacent groups with the same condition.
+	 */
+	private static List<Node> mergeAdjacent(List<Node> nodes) {
+		List<Node> result = new ArrayList<>(nodes.size());
+		for (Node node : nodes) {
+			Node last = result.isEmpty() ? null : result.get(result.size() - 1);
+			if (node instanceof Rule && last instanceof Rule && ((Rule) node).selector.equals(((Rule) last).selector)) {
+				List<String> declarations = new ArrayList<>(((Rule) last).declarations);
+				declarations.addAll(((Rule) node).declarations);
+				result.set(result.size() - 1, new Rule(((Rule) last).selector, declarations));
+			} else if (node instanceof Group && last instanceof Group && ((Group) node).prelude.equals(((Group) last).prelude)) {
+				List<Node> children = new ArrayList<>(((Group) last).children);
+				children.addAll(((Group) node).children);
+				result.set(result.size() - 1, new Group(((Group) last).prelude, children));
+			} else {
+				result.add(node);
+			}
+		}
+		return result;
+	}
+
+	private static void write(List<Node> nodes, StringBuilder out) {
+		for (Node node : nodes) {
+			if (node instanceof Rule) {
+				Rule rule = (Rule) node;
+				out.append(rule.selector).append('{').append(String.join(";", rule.declarations)).append('}');
+			} else if (node instanceof Group) {
+				Group group = (Group) node;
+				out.append(group.prelude).append('{');
+				write(group.children, out);
+				out.append('}');
+			} else {
+				out.append(((Raw) node).text);
+			}
+			out.append('\n');
+		}
+	}
+
+	// Parser
+
+	/**
+	 * Parses the rules of the stylesheet or of a group, up to and including the closing brace of the group.
+	 */
+	private List<Node> parse(boolean topLevel) throws UnsupportedSyntaxException {
+		List<Node> nodes = new ArrayList<>();
+		int n = css.length();
+		while (true) {
+			while (pos < n && isWhitespace(css.charAt(pos))) {
+				pos++;
+			}
+			if (pos == n) {
+				if (!topLevel)
+					throw new UnsupportedSyntaxException();
+				return nodes;
+			}
+
+			char c = css.charAt(pos);
+			if (c == '}') {
+				if (topLevel)
+					throw new UnsupportedSyntaxException();
+				pos++;
+				return nodes;
+			}
+
+			int start = pos;
+			if (c == '/' && css.startsWith("*", pos + 1)) {
+				pos = skipComment(pos);
+				if (css.startsWith("/*!", start)) {
+					nodes.add(new Raw(css.substring(start, pos)));
+				}
+			} else if (c == '@') {
+				int end = find(pos, true);
+				if (end == n || css.charAt(end) == '}')
+					throw new UnsupportedSyntaxException();
+				if (css.charAt(end) == ';') {
+					pos = end + 1;
+					nodes.add(new Raw(css.substring(start, pos)));
+				} else if (GROUP_RULES.contains(atKeyword(start))) {
+					pos = end + 1;
+					nodes.add(new Group(normalize(start, end), parse(false)));
+				} else {
+					pos = closingBrace(end) + 1;
+					nodes.add(new Raw(css.substring(start, pos)));
+				}
+			} else {
+				int end = find(pos, false);
+				if (end == n || css.charAt(end) == '}')
+					throw new UnsupportedSyntaxException();
+				int close = closingBrace(end);
+				pos = close + 1;
+				if (find(end + 1, false) < close) {
+					nodes.add(new Raw(css.substring(start, pos)));
+				} else {
+					nodes.add(new Rule(normalize(start, end), declarations(end + 1, close)));
+				}
+			}
+		}
+	}
+
+	private String atKeyword(int i) {
+		int end = i + 1;
+		while (end < css.length() && (isNameChar(css.charAt(end)) || css.charAt(end) == '\\')) {
+			end++;
+		}
+		return css.substring(i + 1, end).toLowerCase(Locale.ROOT);
+	}
+
+	private List<String> declarations(int start, int end) throws UnsupportedSyntaxException {
+		List<String> declarations = new ArrayList<>();
+		int i = start;
+		while (i < end) {
+			int semicolon = Math.min(find(i, true), end);
+			String declaration = normalize(i, semicolon);
+			if (!declaration.isEmpty()) {
+				declarations.add(declaration(declaration));
+			}
+			i = semicolon + 1;
+		}
+		return declarations;
+	}
+
+	/**
+	 * Writes a declaration without whitespace around its colon and with its property name in lowercase, unless it is a
+	 * custom property or not a plain name.
+	 */
+	private static String declaration(String declaration) {
+		int colon = declaration.indexOf(':');
+		if (colon < 0)
+			return declaration;
+		String name = declaration.substring(0, colon).trim();
+		if (!name.startsWith("--") && isName(name)) {
+			name = name.toLowerCase(Locale.ROOT);
+		}
+		return name + ':' + declaration.substring(colon + 1).trim();
+	}
+
+	private static boolean isName(String s) {
+		for (int i = 0; i < s.length(); i++) {
+			if (!isNameChar(s.charAt(i)))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Finds the left brace of a block, or the semicolon ending a statement when asked, outside parentheses and
+	 * brackets. A right brace there ends the search too, it belongs to an enclosing block.
+	 *
+	 * @return index of the token found, or the length of the stylesheet
+	 */
+	private int find(int i, boolean semicolon) throws UnsupportedSyntaxException {
+		int depth = 0;
+		int n = css.length();
+		while (i < n) {
+			char c = css.charAt(i);
+			switch (c) {
+			case '"':
+			case '\'':
+				i = skipString(i);
+				continue;
+			case '/':
+				if (css.startsWith("*", i + 1)) {
+					i = skipComment(i);
+					continue;
+				}
+				break;
+			case '\\':
+				i += 2;
+				continue;
+			case '(':
+			case '[':
+				depth++;
+				break;
+			case ')':
+			case ']':
+				depth = Math.max(depth - 1, 0);
+				break;
+			case '{':
+			case '}':
+				if (depth > 0)
+					throw new UnsupportedSyntaxException();
+				return i;
+			case ';':
+				if (semicolon && depth == 0)
+					return i;
+				break;
+			default:
+				break;
+			}
+			i++;
+		}
+		return n;
+	}
+
+	/**
+	 * Finds the right brace closing the block opened at given index. Braces inside parentheses or brackets are not
+	 * supported, as they would nest differently.
+	 */
+	private int closingBrace(int open) throws UnsupportedSyntaxException {
+		int braces = 0;
+		int depth = 0;
+		int i = open;
+		int n = css.length();
+		while (i < n) {
+			char c = css.charAt(i);
+			switch (c) {
+			case '"':
+			case '\'':
+				i = skipString(i);
+				continue;
+			case '/':
+				if (css.startsWith("*", i + 1)) {
+					i = skipComment(i);
+					continue;
+				}
+				break;
+			case '\\':
+				i += 2;
+				continue;
+			case '(':
+			case '[':
+				depth++;
+				break;
+			case ')':
+			case ']':
+				depth = Math.max(depth - 1, 0);
+				break;
+			case '{':
+				if (depth > 0)
+					throw new UnsupportedSyntaxException();
+				braces++;
+				break;
+			case '}':
+				if (depth > 0)
+					throw new UnsupportedSyntaxException();
+				if (--braces == 0)
+					return i;
+				break;
+			default:
+				break;
+			}
+			i++;
+		}
+		throw new UnsupportedSyntaxException();
+	}
+
+	/**
+	 * Copies a prelude or declaration with whitespace runs collapsed to a space and trimmed. Comments go, unless they
+	 * are {@code /*!} ones or separate two characters that would otherwise be read together.
+	 */
+	private String normalize(int start, int end) throws UnsupportedSyntaxException {
+		StringBuilder sb = new StringBuilder(end - start);
+		int space = -1;
+		int i = start;
+		while (i < end) {
+			char c = css.charAt(i);
+			if (isWhitespace(c)) {
+				while (i < end && isWhitespace(css.charAt(i))) {
+					i++;
+				}
+				if (sb.length() > 0 && i < end && space != sb.length()) {
+					sb.append(' ');
+					space = sb.length();
+				}
+			} else if (c == '"' || c == '\'') {
+				int close = skipString(i);
+				sb.append(css, i, close);
+				i = close;
+			} else if (c == '/' && css.startsWith("*", i + 1)) {
+				int close = skipComment(i);
+				if (css.startsWith("/*!", i)) {
+					sb.append(css, i, close);
+				} else if (sb.length() > 0 && close < end && space != sb.length() && !isWhitespace(css.charAt(close))) {
+					sb.append("/**/");
+				}
+				i = close;
+			} else if (c == '\\') {
+				i = copyEscape(i, end, sb);
+			} else {
+				sb.append(c);
+				i++;
+			}
+		}
+		if (space == sb.length()) {
+			sb.setLength(space - 1);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Copies an escape, with the whitespace that ends a hex escape.
+	 */
+	private int copyEscape(int i, int end, StringBuilder sb) {
+		int escape = i++;
+		if (i < end && isHexDigit(css.charAt(i))) {
+			int max = Math.min(i + 6, end);
+			while (i < max && isHexDigit(css.charAt(i))) {
+				i++;
+			}
+			if (i < end && css.charAt(i) == '\r' && i + 1 < end && css.charAt(i + 1) == '\n') {
+				i += 2;
+			} else if (i < end && isWhitespace(css.charAt(i))) {
+				i++;
+			}
+		} else if (i < end) {
+			i++;
+		}
+		sb.append(css, escape, i);
+		return i;
+	}
+
+	/**
+	 * Skips a string. Strings ended by a newline or by the end of the stylesheet are not supported.
+	 *
+	 * @return index after the closing quote
+	 */
+	private int skipString(int i) throws UnsupportedSyntaxException {
+		char quote = css.charAt(i++);
+		int n = css.length();
+		while (i < n) {
+			char c = css.charAt(i);
+			if (c == quote)
+				return i + 1;
+			if (c == '\n' || c == '\r' || c == '\f')
+				throw new UnsupportedSyntaxException();
+			i += (c == '\\') ? 2 : 1;
+		}
+		throw new UnsupportedSyntaxException();
+	}
+
+	private int skipComment(int i) {
+		int close = css.indexOf("*/", i + 2);
+		return (close < 0) ? css.length() : close + 2;
+	}
+
+	private static boolean isWhitespace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+	}
+
+	private static boolean isHexDigit(char c) {
+		return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+	}
+
+	private static boolean isNameChar(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_' || c == '-' || c >= 0x80;
+	}
+}
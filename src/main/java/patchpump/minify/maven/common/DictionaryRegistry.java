@@ -0,0 +1,304 @@
+package patchpump.minify.maven.common;
+
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.aayushatharva.brotli4j.encoder.Encoder;
+import com.aayushatharva.brotli4j.encoder.PreparedDictionary;
+import com.github.luben.zstd.ZstdDictCompress;
+
+/**
+ * Zstd dictionaries loaded once per dictionary file and level, holding the raw dictionary, its SHA-256 and the native
+ * zstd and brotli compression dictionaries, each created on first use.
+ *
+ * At most a fixed number of dictionaries is kept, least recently used first out, and a dictionary file modified since
+ * it was loaded is loaded again. Native memory of a dropped dictionary is freed once no stream uses it any more, and
+ * of all dictionaries when the registry is closed.
+ *
+ * @author patchpump
+ */
+public class DictionaryRegistry implements AutoCloseable {
+
+	/**
+	 * Dictionary acquired from the registry, to be released once the streams using it are closed.
+	 */
+	public final class Dictionary {
+
+		private final long lastModified;
+		private final byte[] raw;
+		private final byte[] sha256;
+		private final int level;
+		private ZstdDictCompress compress;
+		private PreparedDictionary brotli;
+
+		private int references;
+		private boolean dropped;
+
+		private Dictionary(long lastModified, byte[] raw, int level) throws IOException {
+			this.lastModified = lastModified;
+			this.raw = raw;
+			this.sha256 = sha256(raw);
+			this.level = level;
+		}
+
+		/**
+		 * Gets the raw dictionary.
+		 *
+		 * @return dictionary content without the zstd dictionary magic number
+		 */
+		public byte[] getRaw() {
+			return raw;
+		}
+
+		/**
+		 * Gets the SHA-256 of the raw dictionary, as written in the DCZ header.
+		 *
+		 * @return hash bytes
+		 */
+		public byte[] getSha256() {
+			return sha256;
+		}
+
+		/**
+		 * Gets the native compression dictionary, valid until released.
+		 *
+		 * @return compression dictionary
+		 */
+		public ZstdDictCompress getCompress() {
+			synchronized (DictionaryRegistry.this) {
+				if (compress == null)
+					compress = new ZstdDictCompress(raw, level);
+				return compress;
+			}
+		}
+
+		/**
+		 * Gets the native brotli dictionary, the raw dictionary prepared for the encoder, valid until released.
+		 *
+		 * @return prepared dictionary
+		 */
+		public PreparedDictionary getBrotli() {
+			synchronized (DictionaryRegistry.this) {
+				if (brotli == null) {
+					// the encoder reads the raw dictionary from native memory for as long as it is prepared
+					ByteBuffer data = ByteBuffer.allocateDirect(raw.length);
+					data.put(raw).flip();
+					brotli = Encoder.prepareDictionary(data, 0);
+				}
+				return brotli;
+			}
+		}
+
+		/**
+		 * Wraps a stream compressing with this dictionary so that the dictionary is released when the stream is
+		 * closed.
+		 *
+		 * @param stream compressing stream
+		 * @return stream releasing the dictionary on close
+		 */
+		public OutputStream releaseOnClose(OutputStream stream) {
+			return new ReleasingOutputStream(stream);
+		}
+
+		/**
+		 * Stream releasing the dictionary once closed or aborted.
+		 */
+		private final class ReleasingOutputStream extends FilterOutputStream implements FanOutOutputStream.Abortable {
+
+			private boolean closed;
+
+			ReleasingOutputStream(OutputStream out) {
+				super(out);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				out.write(b, off, len);
+			}
+
+			@Override
+			public void close() throws IOException {
+				if (closed)
+					return;
+				closed = true;
+				// not flushed before closing, as flushing ends the current zstd block early
+				try {
+					out.close();
+				} finally {
+					release();
+				}
+			}
+
+			@Override
+			public void abort() throws IOException {
+				if (closed)
+					return;
+				closed = true;
+				try {
+					if (out instanceof FanOutOutputStream.Abortable)
+						((FanOutOutputStream.Abortable)out).abort();
+					else
+						out.close();
+				} finally {
+					release();
+				}
+			}
+		}
+
+		/**
+		 * Releases the dictionary.
+		 */
+		public void release() {
+			synchronized (DictionaryRegistry.this) {
+				references--;
+				if (dropped && references == 0)
+					free();
+			}
+		}
+
+		private void drop() {
+			dropped = true;
+			if (references == 0)
+				free();
+		}
+
+		private void free() {
+			if (compress != null)
+				compress.close();
+			// the prepared brotli dictionary is freed once unreachable
+			brotli = null;
+		}
+	}
+
+	private final int maxDictionaries;
+	private final Map<String, Dictionary> dictionaries = new LinkedHashMap<>(16, 0.75f, true);
+	private boolean closed;
+
+	/**
+	 * Registry constructor.
+	 *
+	 * @param maxDictionaries maximum number of dictionaries kept loaded
+	 */
+	public DictionaryRegistry(int maxDictionaries) {
+		this.maxDictionaries = Math.max(1, maxDictionaries);
+	}
+
+	/**
+	 * Acquires the dictionary of a file for a compression level, loading it when the file is not loaded yet or was
+	 * modified since. Must be released after use.
+	 *
+	 * @param file dictionary file
+	 * @param level zstd level
+	 * @return dictionary
+	 * @throws IOException when the dictionary cannot be read
+	 */
+	public synchronized Dictionary acquire(File file, int level) throws IOException {
+
+		if (closed)
+			throw new IllegalStateException("dictionary registry closed");
+
+		String key = file.getAbsolutePath() + ":" + level;
+		long lastModified = file.lastModified();
+		Dictionary dictionary = dictionaries.get(key);
+		if (dictionary == null || dictionary.lastModified != lastModified) {
+			if (dictionary != null) {
+				dictionaries.remove(key);
+				dictionary.drop();
+			}
+			dictionary = new Dictionary(lastModified, toRawDictionary(Files.readAllBytes(file.toPath())), level);
+			dictionaries.put(key, dictionary);
+			evict();
+		}
+		dictionary.references++;
+		return dictionary;
+	}
+
+	/**
+	 * Gets the SHA-256 of the raw dictionary of a file.
+	 *
+	 * @param file dictionary file
+	 * @param level zstd level the dictionary is used at
+	 * @return hex hash
+	 * @throws IOException when the dictionary cannot be read
+	 */
+	public String hash(File file, int level) throws IOException {
+
+		Dictionary dictionary = acquire(file, level);
+		try {
+			return HexFormat.of().formatHex(dictionary.sha256);
+		} finally {
+			dictionary.release();
+		}
+	}
+
+	/**
+	 * Gets the number of loaded dictionaries.
+	 *
+	 * @return dictionaries
+	 */
+	public synchronized int size() {
+		return dictionaries.size();
+	}
+
+	/**
+	 * Drops all dictionaries. Native memory of dictionaries still in use is freed once they are released.
+	 */
+	@Override
+	public synchronized void close() {
+
+		closed = true;
+		for (Dictionary dictionary : dictionaries.values())
+			dictionary.drop();
+		dictionaries.clear();
+	}
+
+	private void evict() {
+
+		Iterator<Dictionary> eldest = dictionaries.values().iterator();
+		while (dictionaries.size() > maxDictionaries && eldest.hasNext()) {
+			Dictionary dictionary = eldest.next();
+			eldest.remove();
+			dictionary.drop();
+		}
+	}
+
+	/**
+	 * Strip dictionary magic if present to make it "raw" needed for dicts generated with zstd --train CLI.
+	 * 
+	 * https://github.com/facebook/zstd/issues/4389
+	 *  
+	 * @param dict dictionary
+	 * @return raw dictionary
+	 */
+	public static byte[] toRawDictionary(byte[] dict) {
+
+		return dict.length >= 4 && (dict[0] & 0xFF) == 0x37 && (dict[1] & 0xFF) == 0xA4 && (dict[2] & 0xFF) == 0x30 && (dict[3] & 0xFF) == 0xEC
+			? Arrays.copyOfRange(dict, 4, dict.length) : dict;
+	}
+
+	/**
+	 * Gets the SHA-256 of a raw dictionary.
+	 *
+	 * @param raw raw dictionary
+	 * @return hash bytes
+	 * @throws IOException when SHA-256 is not available
+	 */
+	public static byte[] sha256(byte[] raw) throws IOException {
+		try {
+			return MessageDigest.getInstance("SHA-256").digest(raw);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+	}
+}
@@ -0,0 +1,852 @@
+package patchpump.minify.maven.common;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+/**
+ * Deflate encoder trading time for ratio in the manner of Zopfli, for content compressed once and served many times.
+ *
+ * All matches of each position are searched once and the content is split into blocks where its statistics change.
+ * Each block is then parsed repeatedly as a shortest path through the content, symbol costs being taken from the
+ * statistics of the previous parse, and the cheapest parse is written with optimal length limited prefix codes. The
+ * output is a standard deflate stream.
+ *
+ * @author patchpump
+ */
+public final class ExhaustiveDeflater {
+
+	/**
+	 * Version of the encoder, to be changed whenever its output for the same content changes, as outputs are cached.
+	 */
+	public static final int VERSION = 1;
+
+	private static final int WINDOW_SIZE = 32768;
+	private static final int MIN_MATCH = 3;
+	private static final int MAX_MATCH = 258;
+	private static final int HASH_BITS = 15;
+	private static final int MAX_CHAIN = 2048;
+	private static final int MAX_BLOCKS = 15;
+	private static final int MIN_SPLIT_SYMBOLS = 10;
+	private static final int SPLIT_SAMPLES = 9;
+	private static final int MAX_STORED_LENGTH = 65535;
+
+	private static final int LITERAL_ALPHABET_SIZE = 286;
+	private static final int DISTANCE_ALPHABET_SIZE = 30;
+	private static final int CODE_LENGTH_ALPHABET_SIZE = 19;
+	private static final int END_OF_BLOCK = 256;
+	private static final int MAX_CODE_LENGTH = 15;
+	private static final int MAX_CODE_LENGTH_CODE_LENGTH = 7;
+
+	private static final int[] LENGTH_BASE = { 3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31, 35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195,
+		227, 258 };
+	private static final int[] LENGTH_EXTRA = { 0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2, 3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0 };
+	private static final int[] DISTANCE_BASE = { 1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193, 257, 385, 513, 769, 1025, 1537, 2049, 3073,
+		4097, 6145, 8193, 12289, 16385, 24577 };
+	private static final int[] DISTANCE_EXTRA = { 0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6, 7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13 };
+	private static final int[] CODE_LENGTH_ORDER = { 16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15 };
+
+	private static final int[] LENGTH_SYMBOL = new int[MAX_MATCH + 1];
+	private static final int[] FIXED_LITERAL_LENGTHS = new int[288];
+	private static final int[] FIXED_DISTANCE_LENGTHS = new int[32];
+
+	static {
+		for (int symbol = 0; symbol < LENGTH_BASE.length; symbol++) {
+			for (int length = LENGTH_BASE[symbol]; length < LENGTH_BASE[symbol] + (1 << LENGTH_EXTRA[symbol]) && length <= MAX_MATCH; length++)
+				LENGTH_SYMBOL[length] = symbol;
+		}
+		Arrays.fill(FIXED_LITERAL_LENGTHS, 0, 144, 8);
+		Arrays.fill(FIXED_LITERAL_LENGTHS, 144, 256, 9);
+		Arrays.fill(FIXED_LITERAL_LENGTHS, 256, 280, 7);
+		Arrays.fill(FIXED_LITERAL_LENGTHS, 280, 288, 8);
+		Arrays.fill(FIXED_DISTANCE_LENGTHS, 5);
+	}
+
+	private final byte[] data;
+	private final int iterations;
+
+	// matches of each position, by increasing length and distance, each with the smallest distance reaching it
+	private int[] matchStart;
+	private int[] matchLength = new int[1024];
+	private int[] matchDistance = new int[1024];
+
+	private ExhaustiveDeflater(byte[] data, int iterations) {
+		this.data = data;
+		this.iterations = Math.max(1, iterations);
+	}
+
+	/**
+	 * Compresses content into a gzip member.
+	 *
+	 * @param content content
+	 * @param iterations number of parses of each block, more iterations are slower and rarely worse
+	 * @return gzip file content
+	 */
+	public static byte[] gzip(byte[] content, int iterations) {
+
+		byte[] deflated = deflate(content, iterations);
+		CRC32 crc = new CRC32();
+		crc.update(content);
+
+		byte[] gzip = new byte[10 + deflated.length + 8];
+		gzip[0] = (byte)0x1f;
+		gzip[1] = (byte)0x8b;
+		gzip[2] = 8;
+		// maximum compression flag
+		gzip[8] = 2;
+		gzip[9] = (byte)0xff;
+		System.arraycopy(deflated, 0, gzip, 10, deflated.length);
+		writeInt(gzip, 10 + deflated.length, (int)crc.getValue());
+		writeInt(gzip, 14 + deflated.length, content.length);
+		return gzip;
+	}
+
+	/**
+	 * Compresses content into a raw deflate stream.
+	 *
+	 * @param content content
+	 * @param iterations number of parses of each block, more iterations are slower and rarely worse
+	 * @return deflate stream
+	 */
+	public static byte[] deflate(byte[] content, int iterations) {
+		return new ExhaustiveDeflater(content, iterations).deflate();
+	}
+
+	private static void writeInt(byte[] bytes, int offset, int value) {
+		bytes[offset] = (byte)value;
+		bytes[offset + 1] = (byte)(value >>> 8);
+		bytes[offset + 2] = (byte)(value >>> 16);
+		bytes[offset + 3] = (byte)(value >>> 24);
+	}
+
+	private byte[] deflate() {
+
+		BitWriter bits = new BitWriter(data.length / 3 + 64);
+		if (data.length == 0) {
+			writeBlock(bits, new Symbols(), 0, 0, true);
+			return bits.toByteArray();
+		}
+
+		findMatches();
+		Symbols greedy = greedyParse(0, data.length);
+		int[] splits = split(greedy);
+
+		for (int i = 0; i + 1 < splits.length; i++) {
+			Symbols best = optimize(splits[i], splits[i + 1]);
+			writeBlock(bits, best, splits[i], splits[i + 1], i + 2 == splits.length);
+		}
+		return bits.toByteArray();
+	}
+
+	/**
+	 * Finds for each position the smallest distance of each match length, walking hash chains of three byte sequences.
+	 */
+	private void findMatches() {
+
+		int n = data.length;
+		int[] head = new int[1 << HASH_BITS];
+		int[] chain = new int[n];
+		Arrays.fill(head, -1);
+		matchStart = new int[n + 1];
+
+		int count = 0;
+		for (int i = 0; i < n; i++) {
+			matchStart[i] = count;
+			if (i + MIN_MATCH > n)
+				continue;
+
+			int hash = ((data[i] & 0xFF) << 10 ^ (data[i + 1] & 0xFF) << 5 ^ (data[i + 2] & 0xFF)) & ((1 << HASH_BITS) - 1);
+			int maxLength = Math.min(MAX_MATCH, n - i);
+			int best = MIN_MATCH - 1;
+			int hits = 0;
+			for (int p = head[hash]; p >= 0 && i - p <= WINDOW_SIZE && hits < MAX_CHAIN; p = chain[p], hits++) {
+				if (data[p + best] != data[i + best])
+					continue;
+				int length = 0;
+				while (length < maxLength && data[p + length] == data[i + length])
+					length++;
+				if (length > best) {
+					if (count == matchLength.length) {
+						matchLength = Arrays.copyOf(matchLength, count * 2);
+						matchDistance = Arrays.copyOf(matchDistance, count * 2);
+					}
+					matchLength[count] = length;
+					matchDistance[count++] = i - p;
+					best = length;
+					if (length == maxLength)
+						break;
+				}
+			}
+			chain[i] = head[hash];
+			head[hash] = i;
+		}
+		matchStart[n] = count;
+	}
+
+	/**
+	 * Parses a range taking the longest match, unless the next position has a longer one.
+	 */
+	private Symbols greedyParse(int from, int to) {
+
+		Symbols symbols = new Symbols();
+		int i = from;
+		while (i < to) {
+			long match = longestMatch(i, to);
+			int length = (int)(match >>> 32);
+			if (length >= MIN_MATCH && i + 1 < to && (int)(longestMatch(i + 1, to) >>> 32) > length)
+				length = 0;
+			if (length >= MIN_MATCH) {
+				symbols.add(length, (int)match);
+				i += length;
+			} else {
+				symbols.add(data[i] & 0xFF, 0);
+				i++;
+			}
+		}
+		return symbols;
+	}
+
+	private long longestMatch(int position, int limit) {
+
+		int end = matchStart[position + 1];
+		if (end == matchStart[position])
+			return 0;
+		int length = Math.min(matchLength[end - 1], limit - position);
+		for (int k = matchStart[position]; k < end; k++) {
+			if (matchLength[k] >= length)
+				return ((long)length << 32) | matchDistance[k];
+		}
+		return 0;
+	}
+
+	/**
+	 * Splits the content into blocks where splitting lowers the estimated cost of the greedy parse.
+	 *
+	 * @return block boundaries, starting with 0 and ending with the content length
+	 */
+	private int[] split(Symbols greedy) {
+
+		List<int[]> ranges = new ArrayList<>();
+		List<int[]> done = new ArrayList<>();
+		ranges.add(new int[] { 0, greedy.size });
+
+		while (!ranges.isEmpty() && ranges.size() + done.size() < MAX_BLOCKS) {
+			ranges.sort(Comparator.comparingInt(range -> range[0] - range[1]));
+			int[] range = ranges.remove(0);
+			int start = range[0];
+			int end = range[1];
+			if (end - start < MIN_SPLIT_SYMBOLS) {
+				done.add(range);
+				continue;
+			}
+
+			int point = bestSplit(greedy, start, end);
+			if (point <= start + 1 || point >= end || cost(greedy, start, point) + cost(greedy, point, end) >= cost(greedy, start, end)) {
+				done.add(range);
+				continue;
+			}
+			ranges.add(new int[] { start, point });
+			ranges.add(new int[] { point, end });
+		}
+		done.addAll(ranges);
+		done.sort(Comparator.comparingInt(range -> range[0]));
+
+		int[] positions = new int[greedy.size + 1];
+		for (int i = 0; i < greedy.size; i++)
+			positions[i + 1] = positions[i] + ((greedy.distance[i] == 0) ? 1 : greedy.length[i]);
+
+		int[] splits = new int[done.size() + 1];
+		for (int i = 0; i < done.size(); i++)
+			splits[i] = positions[done.get(i)[0]];
+		splits[done.size()] = data.length;
+		return splits;
+	}
+
+	/**
+	 * Finds the split point of a symbol range minimizing the cost of both parts, narrowing down around the best of
+	 * evenly spaced samples.
+	 */
+	private int bestSplit(Symbols symbols, int start, int end) {
+
+		int low = start + 1;
+		int high = end;
+		while (high - low > SPLIT_SAMPLES) {
+			int step = (high - low) / (SPLIT_SAMPLES + 1);
+			int bestSample = 1;
+			double bestCost = Double.MAX_VALUE;
+			for (int k = 1; k <= SPLIT_SAMPLES; k++) {
+				int point = low + k * step;
+				double cost = cost(symbols, start, point) + cost(symbols, point, end);
+				if (cost < bestCost) {
+					bestCost = cost;
+					bestSample = k;
+				}
+			}
+			low = low + (bestSample - 1) * step;
+			high = low + 2 * step;
+		}
+
+		int best = low;
+		double bestCost = Double.MAX_VALUE;
+		for (int point = low; point < high; point++) {
+			double cost = cost(symbols, start, point) + cost(symbols, point, end);
+			if (cost < bestCost) {
+				bestCost = cost;
+				best = point;
+			}
+		}
+		return best;
+	}
+
+	private static double cost(Symbols symbols, int start, int end) {
+
+		int[] literals = new int[LITERAL_ALPHABET_SIZE];
+		int[] distances = new int[DISTANCE_ALPHABET_SIZE];
+		long extra = symbols.histogram(start, end, literals, distances);
+		return dynamicBlockBits(literals, distances, extra);
+	}
+
+	/**
+	 * Parses a block repeatedly, each time with the symbol statistics of the previous parse, perturbing the statistics
+	 * when the cost stops improving.
+	 *
+	 * @return cheapest parse
+	 */
+	private Symbols optimize(int from, int to) {
+
+		Random random = new Random(0);
+		Statistics statistics = new Statistics(greedyParse(from, to));
+		Statistics bestStatistics = statistics;
+		Symbols best = null;
+		double bestCost = Double.MAX_VALUE;
+		double lastCost = 0;
+		boolean perturbed = false;
+
+		for (int i = 0; i < iterations; i++) {
+			Symbols symbols = optimalParse(from, to, new CostModel(statistics));
+			Statistics current = new Statistics(symbols);
+			double cost = dynamicBlockBits(current.literals, current.distances, current.extra);
+			if (cost < bestCost) {
+				best = symbols;
+				bestCost = cost;
+				bestStatistics = current;
+			}
+
+			// once perturbed, the previous statistics are kept in part, converging slower but better
+			statistics = (perturbed) ? current.blend(statistics) : current;
+			if (i > 5 && cost == lastCost) {
+				statistics = bestStatistics.randomize(random);
+				perturbed = true;
+			}
+			lastCost = cost;
+		}
+		return best;
+	}
+
+	/**
+	 * Finds the cheapest parse of a range under a cost model, as the shortest path through its positions.
+	 */
+	private Symbols optimalParse(int from, int to, CostModel model) {
+
+		int size = to - from;
+		double[] costs = new double[size + 1];
+		int[] lengths = new int[size + 1];
+		int[] distances = new int[size + 1];
+		Arrays.fill(costs, Double.MAX_VALUE);
+		costs[0] = 0;
+
+		for (int j = 0; j < size; j++) {
+			int i = from + j;
+			double cost = costs[j];
+
+			double literal = cost + model.literal[data[i] & 0xFF];
+			if (literal < costs[j + 1]) {
+				costs[j + 1] = literal;
+				lengths[j + 1] = 1;
+				distances[j + 1] = 0;
+			}
+
+			int limit = size - j;
+			int shorter = MIN_MATCH - 1;
+			for (int k = matchStart[i]; k < matchStart[i + 1] && shorter < limit; k++) {
+				int longer = Math.min(matchLength[k], limit);
+				double distance = cost + model.distanceCost(matchDistance[k]);
+				for (int length = shorter + 1; length <= longer; length++) {
+					double match = distance + model.length[length];
+					if (match < costs[j + length]) {
+						costs[j + length] = match;
+						lengths[j + length] = length;
+						distances[j + length] = matchDistance[k];
+					}
+				}
+				shorter = longer;
+			}
+		}
+
+		int count = 0;
+		for (int j = size; j > 0; j -= lengths[j])
+			count++;
+		int[] pathLengths = new int[count];
+		int[] pathDistances = new int[count];
+		for (int j = size; j > 0; j -= lengths[j]) {
+			count--;
+			pathLengths[count] = lengths[j];
+			pathDistances[count] = distances[j];
+		}
+
+		Symbols symbols = new Symbols();
+		int position = from;
+		for (int k = 0; k < pathLengths.length; k++) {
+			if (pathDistances[k] == 0)
+				symbols.add(data[position] & 0xFF, 0);
+			else
+				symbols.add(pathLengths[k], pathDistances[k]);
+			position += pathLengths[k];
+		}
+		return symbols;
+	}
+
+	/**
+	 * Writes a block as stored, fixed or dynamic, whichever is the smallest.
+	 */
+	private void writeBlock(BitWriter bits, Symbols symbols, int from, int to, boolean last) {
+
+		int[] literals = new int[LITERAL_ALPHABET_SIZE];
+		int[] distances = new int[DISTANCE_ALPHABET_SIZE];
+		long extra = symbols.histogram(0, symbols.size, literals, distances);
+
+		double dynamicBits = dynamicBlockBits(literals, distances, extra);
+		double fixedBits = 3 + extra;
+		for (int i = 0; i < literals.length; i++)
+			fixedBits += (double)literals[i] * FIXED_LITERAL_LENGTHS[i];
+		for (int i = 0; i < distances.length; i++)
+			fixedBits += (double)distances[i] * FIXED_DISTANCE_LENGTHS[i];
+		int storedBlocks = Math.max(1, (to - from + MAX_STORED_LENGTH - 1) / MAX_STORED_LENGTH);
+		double storedBits = storedBlocks * 40.0 + 8.0 * (to - from);
+
+		if (storedBits < fixedBits && storedBits < dynamicBits) {
+			int position = from;
+			for (int block = 0; block < storedBlocks; block++) {
+				int length = Math.min(MAX_STORED_LENGTH, to - position);
+				bits.write(1, (last && block + 1 == storedBlocks) ? 1 : 0);
+				bits.write(2, 0);
+				bits.alignToByte();
+				bits.write(16, length);
+				bits.write(16, ~length & 0xFFFF);
+				for (int i = 0; i < length; i++)
+					bits.write(8, data[position + i] & 0xFF);
+				position += length;
+			}
+			return;
+		}
+
+		bits.write(1, (last) ? 1 : 0);
+		int[] literalLengths;
+		int[] distanceLengths;
+		if (fixedBits <= dynamicBits) {
+			bits.write(2, 1);
+			literalLengths = FIXED_LITERAL_LENGTHS;
+			distanceLengths = FIXED_DISTANCE_LENGTHS;
+		} else {
+			bits.write(2, 2);
+			literalLengths = literalLengths(literals);
+			distanceLengths = distanceLengths(distances);
+			writeTree(bits, literalLengths, distanceLengths);
+		}
+
+		int[] literalCodes = BitWriter.canonicalCodes(literalLengths);
+		int[] distanceCodes = BitWriter.canonicalCodes(distanceLengths);
+		for (int i = 0; i < symbols.size; i++) {
+			int distance = symbols.distance[i];
+			if (distance == 0) {
+				bits.write(literalLengths[symbols.length[i]], literalCodes[symbols.length[i]]);
+				continue;
+			}
+			int length = symbols.length[i];
+			int lengthSymbol = LENGTH_SYMBOL[length];
+			bits.write(literalLengths[257 + lengthSymbol], literalCodes[257 + lengthSymbol]);
+			bits.write(LENGTH_EXTRA[lengthSymbol], length - LENGTH_BASE[lengthSymbol]);
+			int distanceSymbol = distanceSymbol(distance);
+			bits.write(distanceLengths[distanceSymbol], distanceCodes[distanceSymbol]);
+			bits.write(DISTANCE_EXTRA[distanceSymbol], distance - DISTANCE_BASE[distanceSymbol]);
+		}
+		bits.write(literalLengths[END_OF_BLOCK], literalCodes[END_OF_BLOCK]);
+	}
+
+	private static double dynamicBlockBits(int[] literals, int[] distances, long extra) {
+
+		int[] literalLengths = literalLengths(literals);
+		int[] distanceLengths = distanceLengths(distances);
+		double bits = 3 + extra + writeTree(null, literalLengths, distanceLengths);
+		for (int i = 0; i < literals.length; i++)
+			bits += (double)literals[i] * literalLengths[i];
+		for (int i = 0; i < distances.length; i++)
+			bits += (double)distances[i] * distanceLengths[i];
+		return bits;
+	}
+
+	private static int[] literalLengths(int[] literals) {
+		return completeCode(codeLengths(literals, MAX_CODE_LENGTH));
+	}
+
+	// some decoders reject distance codes with fewer than two symbols
+	private static int[] distanceLengths(int[] distances) {
+		return completeCode(codeLengths(distances, MAX_CODE_LENGTH));
+	}
+
+	/**
+	 * Gives a second symbol a code when only one symbol is used, as a prefix code needs two.
+	 */
+	private static int[] completeCode(int[] lengths) {
+
+		int used = 0;
+		int symbol = -1;
+		for (int i = 0; i < lengths.length; i++) {
+			if (lengths[i] > 0) {
+				used++;
+				symbol = i;
+			}
+		}
+		if (used == 0) {
+			lengths[0] = 1;
+			lengths[1] = 1;
+		} else if (used == 1) {
+			lengths[(symbol == 0) ? 1 : 0] = 1;
+		}
+		return lengths;
+	}
+
+	/**
+	 * Writes the code lengths of a dynamic block with the run length encoding variant that is the smallest, or only
+	 * counts its bits when the writer is {@code null}.
+	 *
+	 * @return number of bits
+	 */
+	private static int writeTree(BitWriter bits, int[] literalLengths, int[] distanceLengths) {
+
+		int bestVariant = 0;
+		int bestBits = Integer.MAX_VALUE;
+		for (int variant = 0; variant < 8; variant++) {
+			int size = encodeTree(null, literalLengths, distanceLengths, variant);
+			if (size < bestBits) {
+				bestBits = size;
+				bestVariant = variant;
+			}
+		}
+		if (bits != null)
+			encodeTree(bits, literalLengths, distanceLengths, bestVariant);
+		return bestBits;
+	}
+
+	/**
+	 * Encodes code lengths with the repeat codes enabled by a variant, bit 0 for repeating the previous length, bit 1
+	 * for short and bit 2 for long runs of zeros.
+	 */
+	private static int encodeTree(BitWriter bits, int[] literalLengths, int[] distanceLengths, int variant) {
+
+		boolean use16 = (variant & 1) != 0;
+		boolean use17 = (variant & 2) != 0;
+		boolean use18 = (variant & 4) != 0;
+
+		int literalCount = LITERAL_ALPHABET_SIZE;
+		while (literalCount > 257 && literalLengths[literalCount - 1] == 0)
+			literalCount--;
+		int distanceCount = DISTANCE_ALPHABET_SIZE;
+		while (distanceCount > 1 && distanceLengths[distanceCount - 1] == 0)
+			distanceCount--;
+
+		int total = literalCount + distanceCount;
+		int[] lengths = new int[total];
+		System.arraycopy(literalLengths, 0, lengths, 0, literalCount);
+		System.arraycopy(distanceLengths, 0, lengths, literalCount, distanceCount);
+
+		int[] tokens = new int[total];
+		int[] extras = new int[total];
+		int tokenCount = 0;
+		for (int i = 0; i < total;) {
+			int symbol = lengths[i];
+			int count = 1;
+			if (use16 || (symbol == 0 && (use17 || use18))) {
+				while (i + count < total && lengths[i + count] == symbol)
+					count++;
+			}
+			i += count;
+
+			if (symbol == 0 && count >= 3) {
+				while (use18 && count >= 11) {
+					int run = Math.min(count, 138);
+					tokens[tokenCount] = 18;
+					extras[tokenCount++] = run - 11;
+					count -= run;
+				}
+				while (use17 && count >= 3) {
+					int run = Math.min(count, 10);
+					tokens[tokenCount] = 17;
+					extras[tokenCount++] = run - 3;
+					count -= run;
+				}
+			}
+			if (use16 && count >= 4) {
+				tokens[tokenCount++] = symbol;
+				count--;
+				while (count >= 3) {
+					int run = Math.min(count, 6);
+					tokens[tokenCount] = 16;
+					extras[tokenCount++] = run - 3;
+					count -= run;
+				}
+			}
+			while (count-- > 0)
+				tokens[tokenCount++] = symbol;
+		}
+
+		int[] histogram = new int[CODE_LENGTH_ALPHABET_SIZE];
+		for (int i = 0; i < tokenCount; i++)
+			histogram[tokens[i]]++;
+		int[] codeLengthLengths = completeCode(codeLengths(histogram, MAX_CODE_LENGTH_CODE_LENGTH));
+
+		int codeLengthCount = CODE_LENGTH_ALPHABET_SIZE;
+		while (codeLengthCount > 4 && codeLengthLengths[CODE_LENGTH_ORDER[codeLengthCount - 1]] == 0)
+			codeLengthCount--;
+
+		int size = 14 + 3 * codeLengthCount;
+		for (int i = 0; i < tokenCount; i++)
+			size += codeLengthLengths[tokens[i]] + repeatExtraBits(tokens[i]);
+		if (bits == null)
+			return size;
+
+		bits.write(5, literalCount - 257);
+		bits.write(5, distanceCount - 1);
+		bits.write(4, codeLengthCount - 4);
+		for (int i = 0; i < codeLengthCount; i++)
+			bits.write(3, codeLengthLengths[CODE_LENGTH_ORDER[i]]);
+		int[] codes = BitWriter.canonicalCodes(codeLengthLengths);
+		for (int i = 0; i < tokenCount; i++) {
+			bits.write(codeLengthLengths[tokens[i]], codes[tokens[i]]);
+			bits.write(repeatExtraBits(tokens[i]), extras[i]);
+		}
+		return size;
+	}
+
+	private static int repeatExtraBits(int token) {
+		return (token == 16) ? 2 : (token == 17) ? 3 : (token == 18) ? 7 : 0;
+	}
+
+	/**
+	 * Computes optimal code lengths limited to a maximum length, with the package-merge algorithm.
+	 *
+	 * @param frequencies symbol frequencies
+	 * @param maxLength maximum code length
+	 * @return code length of each symbol, 0 for unused symbols
+	 */
+	static int[] codeLengths(int[] frequencies, int maxLength) {
+
+		int[] lengths = new int[frequencies.length];
+		int leaves = 0;
+		long[] sorted = new long[frequencies.length];
+		for (int i = 0; i < frequencies.length; i++) {
+			if (frequencies[i] > 0)
+				sorted[leaves++] = (long)frequencies[i] << 32 | i;
+		}
+		if (leaves <= 1) {
+			if (leaves == 1)
+				lengths[(int)sorted[0]] = 1;
+			return lengths;
+		}
+		Arrays.sort(sorted, 0, leaves);
+
+		// nodes are leaves holding a symbol or packages of two nodes of the previous list
+		int capacity = leaves + maxLength * 2 * leaves;
+		long[] weight = new long[capacity];
+		int[] left = new int[capacity];
+		int[] right = new int[capacity];
+		int nodes = leaves;
+		for (int i = 0; i < leaves; i++) {
+			weight[i] = sorted[i] >>> 32;
+			left[i] = -1;
+		}
+
+		int[] list = new int[leaves];
+		for (int i = 0; i < leaves; i++)
+			list[i] = i;
+		for (int level = 1; level < maxLength; level++) {
+			int packages = list.length / 2;
+			int[] merged = new int[leaves + packages];
+			int leaf = 0;
+			int pack = 0;
+			int firstPackage = nodes;
+			for (int p = 0; p < packages; p++) {
+				weight[nodes] = weight[list[2 * p]] + weight[list[2 * p + 1]];
+				left[nodes] = list[2 * p];
+				right[nodes++] = list[2 * p + 1];
+			}
+			for (int m = 0; m < merged.length; m++) {
+				if (pack >= packages || (leaf < leaves && weight[leaf] <= weight[firstPackage + pack]))
+					merged[m] = leaf++;
+				else
+					merged[m] = firstPackage + pack++;
+			}
+			list = merged;
+		}
+
+		int[] stack = new int[capacity];
+		for (int i = 0; i < 2 * leaves - 2; i++) {
+			int top = 0;
+			stack[top++] = list[i];
+			while (top > 0) {
+				int node = stack[--top];
+				if (left[node] < 0) {
+					lengths[(int)sorted[node]]++;
+				} else {
+					stack[top++] = left[node];
+					stack[top++] = right[node];
+				}
+			}
+		}
+		return lengths;
+	}
+
+	private static int distanceSymbol(int distance) {
+
+		if (distance <= 4)
+			return distance - 1;
+		int log = 31 - Integer.numberOfLeadingZeros(distance - 1);
+		return 2 * log + (((distance - 1) >> (log - 1)) & 1);
+	}
+
+	/**
+	 * Literals and length and distance pairs of a parse, a distance of 0 marking a literal.
+	 */
+	private static final class Symbols {
+
+		int[] length = new int[256];
+		int[] distance = new int[256];
+		int size;
+
+		void add(int lengthOrLiteral, int distanceValue) {
+
+			if (size == length.length) {
+				length = Arrays.copyOf(length, size * 2);
+				distance = Arrays.copyOf(distance, size * 2);
+			}
+			length[size] = lengthOrLiteral;
+			distance[size++] = distanceValue;
+		}
+
+		/**
+		 * Counts the symbols of a range, with the end of block symbol.
+		 *
+		 * @return number of extra bits
+		 */
+		long histogram(int start, int end, int[] literals, int[] distances) {
+
+			long extra = 0;
+			for (int i = start; i < end; i++) {
+				if (distance[i] == 0) {
+					literals[length[i]]++;
+				} else {
+					int lengthSymbol = LENGTH_SYMBOL[length[i]];
+					int distanceSymbol = distanceSymbol(distance[i]);
+					literals[257 + lengthSymbol]++;
+					distances[distanceSymbol]++;
+					extra += LENGTH_EXTRA[lengthSymbol] + DISTANCE_EXTRA[distanceSymbol];
+				}
+			}
+			literals[END_OF_BLOCK]++;
+			return extra;
+		}
+	}
+
+	/**
+	 * Symbol frequencies of a parse.
+	 */
+	private static final class Statistics {
+
+		final int[] literals;
+		final int[] distances;
+		final long extra;
+
+		Statistics(Symbols symbols) {
+			literals = new int[LITERAL_ALPHABET_SIZE];
+			distances = new int[DISTANCE_ALPHABET_SIZE];
+			extra = symbols.histogram(0, symbols.size, literals, distances);
+		}
+
+		private Statistics(int[] literals, int[] distances) {
+			this.literals = literals;
+			this.distances = distances;
+			this.extra = 0;
+		}
+
+		Statistics blend(Statistics previous) {
+
+			int[] blendedLiterals = new int[literals.length];
+			int[] blendedDistances = new int[distances.length];
+			for (int i = 0; i < literals.length; i++)
+				blendedLiterals[i] = literals[i] + previous.literals[i] / 2;
+			for (int i = 0; i < distances.length; i++)
+				blendedDistances[i] = distances[i] + previous.distances[i] / 2;
+			blendedLiterals[END_OF_BLOCK] = 1;
+			return new Statistics(blendedLiterals, blendedDistances);
+		}
+
+		Statistics randomize(Random random) {
+
+			int[] randomLiterals = literals.clone();
+			int[] randomDistances = distances.clone();
+			for (int i = 0; i < randomLiterals.length; i++) {
+				if (random.nextInt(3) == 0)
+					randomLiterals[i] = literals[random.nextInt(literals.length)];
+			}
+			for (int i = 0; i < randomDistances.length; i++) {
+				if (random.nextInt(3) == 0)
+					randomDistances[i] = distances[random.nextInt(distances.length)];
+			}
+			randomLiterals[END_OF_BLOCK] = 1;
+			return new Statistics(randomLiterals, randomDistances);
+		}
+	}
+
+	/**
+	 * Symbol costs in bits, from the entropy of symbol frequencies.
+	 */
+	private static final class CostModel {
+
+		final double[] literal = new double[LITERAL_ALPHABET_SIZE];
+		final double[] length = new double[MAX_MATCH + 1];
+		final double[] distance = new double[DISTANCE_ALPHABET_SIZE];
+
+		CostModel(Statistics statistics) {
+
+			entropy(statistics.literals, literal);
+			entropy(statistics.distances, distance);
+			for (int l = MIN_MATCH; l <= MAX_MATCH; l++) {
+				int symbol = LENGTH_SYMBOL[l];
+				length[l] = literal[257 + symbol] + LENGTH_EXTRA[symbol];
+			}
+			for (int d = 0; d < distance.length; d++)
+				distance[d] += DISTANCE_EXTRA[d];
+		}
+
+		double distanceCost(int value) {
+			return distance[distanceSymbol(value)];
+		}
+
+		private static void entropy(int[] frequencies, double[] costs) {
+
+			long sum = 0;
+			for (int frequency : frequencies)
+				sum += frequency;
+			double log2Sum = (sum == 0) ? log2(frequencies.length) : log2(sum);
+			for (int i = 0; i < frequencies.length; i++)
+				costs[i] = (frequencies[i] == 0) ? log2Sum : log2Sum - log2(frequencies[i]);
+		}
+
+		private static double log2(double value) {
+			return Math.log(value) / Math.log(2);
+		}
+	}
+}
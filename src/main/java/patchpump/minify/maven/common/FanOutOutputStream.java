@@ -0,0 +1,108 @@
+package patchpump.minify.maven.common;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Output stream writing the same bytes to several streams, for example a file and its compressed variants.
+ *
+ * @author patchpump
+ */
+public class FanOutOutputStream extends OutputStream {
+
+	/**
+	 * Stream completing its output on close, which can be closed without completing it instead.
+	 */
+	public interface Abortable {
+
+		/**
+		 * Closes the stream without completing its output, which is left incomplete.
+		 *
+		 * @throws IOException when the target stream fails
+		 */
+		void abort() throws IOException;
+	}
+
+	private final List<OutputStream> streams = new ArrayList<>();
+	private boolean closed;
+
+	/**
+	 * Adds a stream. Streams are written and closed in the order they are added.
+	 *
+	 * @param stream target stream
+	 */
+	public void add(OutputStream stream) {
+		streams.add(stream);
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		for (OutputStream stream : streams)
+			stream.write(b);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		for (OutputStream stream : streams)
+			stream.write(b, off, len);
+	}
+
+	/**
+	 * Does nothing, the streams are completed on close. Flushing a compressing stream would end its current block
+	 * early and make the output larger.
+	 */
+	@Override
+	public void flush() {
+	}
+
+	/**
+	 * Closes all streams, also when closing one of them fails. Closing again has no effect.
+	 *
+	 * @throws IOException the first failure, with later ones suppressed
+	 */
+	@Override
+	public void close() throws IOException {
+
+		if (closed)
+			return;
+		closed = true;
+
+		IOException failure = null;
+		for (OutputStream stream : streams) {
+			try {
+				stream.close();
+			} catch (IOException e) {
+				if (failure == null)
+					failure = e;
+				else
+					failure.addSuppressed(e);
+			}
+		}
+		if (failure != null)
+			throw failure;
+	}
+
+	/**
+	 * Closes all streams after a failure, aborting the {@link Abortable} ones so that no work is spent completing
+	 * outputs that are deleted. Failures are ignored. Closing or aborting again has no effect.
+	 */
+	public void abort() {
+
+		if (closed)
+			return;
+		closed = true;
+
+		for (OutputStream stream : streams) {
+			try {
+				if (stream instanceof Abortable)
+					((Abortable)stream).abort();
+				else
+					stream.close();
+			} catch (IOException | RuntimeException e) {
+				// the outputs are incomplete and deleted anyway
+			}
+		}
+	}
+}
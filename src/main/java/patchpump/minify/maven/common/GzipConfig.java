@@ -0,0 +1,92 @@
+package patchpump.minify.maven.common;
+
+import java.util.zip.Deflater;
+
+/**
+ * Gzip settings applied to the gz outputs.
+ *
+ * @author patchpump
+ */
+public class GzipConfig {
+
+	public enum Strategy {
+
+		DEFAULT(Deflater.DEFAULT_STRATEGY), FILTERED(Deflater.FILTERED), HUFFMAN_ONLY(Deflater.HUFFMAN_ONLY);
+
+		private final int value;
+
+		Strategy(int value) {
+			this.value = value;
+		}
+	}
+
+	private final int level;
+	private final Strategy strategy;
+	private final int zopfliIterations;
+
+	/**
+	 * Init GzipConfig values.
+	 *
+	 * @param level deflate level from 0 to 9, -1 for the default level
+	 * @param strategy deflate strategy
+	 * @param zopfliIterations iterations of the exhaustive deflate encoder, 0 for the deflater
+	 */
+	public GzipConfig(int level, Strategy strategy, int zopfliIterations) {
+		this.level = level;
+		this.strategy = strategy;
+		this.zopfliIterations = zopfliIterations;
+	}
+
+	/**
+	 * Gets the level.
+	 *
+	 * @return the level
+	 */
+	public int getLevel() {
+		return level;
+	}
+
+	/**
+	 * Gets the strategy.
+	 *
+	 * @return the strategy
+	 */
+	public Strategy getStrategy() {
+		return strategy;
+	}
+
+	/**
+	 * Gets the iterations of the exhaustive deflate encoder.
+	 *
+	 * @return the iterations, 0 when the deflater is used
+	 */
+	public int getZopfliIterations() {
+		return zopfliIterations;
+	}
+
+	/**
+	 * Tells if all settings are deflate defaults.
+	 *
+	 * @return {@code true} when nothing is configured
+	 */
+	public boolean isDefault() {
+		return level == Deflater.DEFAULT_COMPRESSION && strategy == Strategy.DEFAULT && zopfliIterations == 0;
+	}
+
+	/**
+	 * Applies the settings to a deflater.
+	 *
+	 * @param deflater deflater
+	 * @return the deflater
+	 */
+	public Deflater configure(Deflater deflater) {
+		deflater.setLevel(level);
+		deflater.setStrategy(strategy.value);
+		return deflater;
+	}
+
+	@Override
+	public String toString() {
+		return "GzipConfig [level=" + level + ", strategy=" + strategy + ", zopfliIterations=" + zopfliIterations + "]";
+	}
+}
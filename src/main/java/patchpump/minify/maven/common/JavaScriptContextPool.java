@@ -0,0 +1,131 @@
+package patchpump.minify.maven.common;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.Engine;
+import org.graalvm.polyglot.Source;
+
+/**
+ * Pool of independent graal.js contexts with the compiler source evaluated.
+ *
+ * All contexts share one polyglot engine so that the parsed and JIT-compiled compiler code is reused. A context is
+ * used by one thread at a time, concurrent compilations use different contexts.
+ *
+ * @author patchpump
+ */
+public class JavaScriptContextPool {
+
+	private static final String LANGUAGE = "js";
+
+	private static final class SharedEngine {
+		static final Engine engine = Engine.create(LANGUAGE);
+	}
+
+	private final Source source;
+	private final Deque<Context> idle = new ArrayDeque<>();
+
+	private int created;
+	private int size = 1;
+
+	/**
+	 * Pool constructor.
+	 *
+	 * @param engineFile class path resource with the compiler source
+	 * @throws IOException when the compiler source cannot be read
+	 */
+	public JavaScriptContextPool(String engineFile) throws IOException {
+		try (InputStreamReader inputStreamReader = new InputStreamReader(JavaScriptContextPool.class.getResourceAsStream(engineFile), StandardCharsets.UTF_8)) {
+			source = Source.newBuilder(LANGUAGE, inputStreamReader, engineFile).build();
+		}
+	}
+
+	/**
+	 * Sets the maximum number of contexts. The pool never shrinks.
+	 *
+	 * @param size maximum number of contexts
+	 */
+	public synchronized void setSize(int size) {
+		if (size > this.size) {
+			this.size = size;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Gets the maximum number of contexts.
+	 *
+	 * @return maximum number of contexts
+	 */
+	public synchronized int getSize() {
+		return size;
+	}
+
+	/**
+	 * Takes an idle context, creates a new one if the pool is not full or waits for a context to be released or
+	 * discarded.
+	 *
+	 * @return context for exclusive use until released
+	 * @throws IOException when interrupted while waiting
+	 */
+	public Context acquire() throws IOException {
+
+		synchronized (this) {
+			while (idle.isEmpty() && created >= size) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("interrupted while waiting for a JavaScript context");
+				}
+			}
+			if (!idle.isEmpty())
+				return idle.poll();
+			created++;
+		}
+
+		// created outside the lock, the other threads keep taking released contexts meanwhile
+		Context context = null;
+		try {
+			context = Context.newBuilder(LANGUAGE).engine(SharedEngine.engine).build();
+			context.eval(source);
+			return context;
+		} catch (RuntimeException e) {
+			if (context != null)
+				context.close();
+			removed();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns a context to the pool.
+	 *
+	 * @param context acquired context
+	 */
+	public synchronized void release(Context context) {
+		idle.add(context);
+		notifyAll();
+	}
+
+	/**
+	 * Closes a context left in an unusable state instead of returning it to the pool.
+	 *
+	 * @param context acquired context
+	 */
+	public void discard(Context context) {
+		removed();
+		context.close();
+	}
+
+	// frees the place of a context, a thread waiting while the pool was full creates one instead
+	private synchronized void removed() {
+		created--;
+		notifyAll();
+	}
+}
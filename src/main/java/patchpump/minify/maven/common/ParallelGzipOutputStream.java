@@ -0,0 +1,173 @@
+package patchpump.minify.maven.common;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Output stream writing a single gzip member whose content is deflated in blocks compressed concurrently, the way
+ * pigz does. Each block is primed with the 32 KB of content preceding it as preset dictionary, so that matches still
+ * reach back across block boundaries, and ends on a byte boundary with a sync flush so that the blocks join into one
+ * deflate stream any gzip decoder reads.
+ *
+ * @author patchpump
+ */
+public class ParallelGzipOutputStream extends OutputStream {
+
+	public static final int BLOCK_SIZE = 128 * 1024;
+
+	private static final int DICTIONARY_SIZE = 32 * 1024;
+	private static final byte[] HEADER = { (byte)0x1f, (byte)0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte)0xff };
+
+	private final OutputStream out;
+	private final GzipConfig config;
+	private final Executor executor;
+	private final int maxPending;
+	private final Deque<CompletableFuture<byte[]>> pending = new ArrayDeque<>();
+	private final CRC32 crc = new CRC32();
+
+	private byte[] block = new byte[BLOCK_SIZE];
+	private int blockLength;
+	private byte[] dictionary;
+	private long length;
+	private boolean closed;
+
+	/**
+	 * Stream constructor.
+	 *
+	 * @param out target stream, closed with this stream
+	 * @param config deflate settings
+	 * @param executor executor compressing the blocks, must not wait for the caller
+	 * @param maxPending maximum number of blocks held in memory before waiting for the oldest one
+	 * @throws IOException when the header cannot be written
+	 */
+	public ParallelGzipOutputStream(OutputStream out, GzipConfig config, Executor executor, int maxPending) throws IOException {
+		this.out = out;
+		this.config = config;
+		this.executor = executor;
+		this.maxPending = Math.max(1, maxPending);
+		out.write(HEADER);
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte)b }, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+
+		if (closed)
+			throw new IOException("stream closed");
+
+		crc.update(b, off, len);
+		length += len;
+		while (len > 0) {
+			int n = Math.min(len, block.length - blockLength);
+			System.arraycopy(b, off, block, blockLength, n);
+			blockLength += n;
+			off += n;
+			len -= n;
+			if (blockLength == block.length)
+				submit(false);
+		}
+	}
+
+	/**
+	 * Does nothing, blocks are written as they complete and on close.
+	 */
+	@Override
+	public void flush() {
+	}
+
+	/**
+	 * Compresses the last block, writes all blocks and the trailer, and closes the target stream. Closing again has no
+	 * effect.
+	 *
+	 * @throws IOException when a block fails or the target stream fails
+	 */
+	@Override
+	public void close() throws IOException {
+
+		if (closed)
+			return;
+		closed = true;
+
+		try {
+			submit(true);
+			while (!pending.isEmpty())
+				writeOldest();
+			writeInt((int)crc.getValue());
+			writeInt((int)length);
+		} finally {
+			for (CompletableFuture<byte[]> future : pending)
+				future.cancel(false);
+			out.close();
+		}
+	}
+
+	private void submit(boolean last) throws IOException {
+
+		byte[] content = (blockLength == block.length) ? block : Arrays.copyOf(block, blockLength);
+		byte[] preset = dictionary;
+		if (!last) {
+			dictionary = Arrays.copyOfRange(block, block.length - DICTIONARY_SIZE, block.length);
+			block = new byte[BLOCK_SIZE];
+			blockLength = 0;
+		}
+
+		pending.add(CompletableFuture.supplyAsync(() -> deflate(content, preset, last), executor));
+		while (pending.size() > maxPending)
+			writeOldest();
+	}
+
+	private byte[] deflate(byte[] content, byte[] preset, boolean last) {
+
+		Deflater deflater = config.configure(new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+		try {
+			if (preset != null)
+				deflater.setDictionary(preset);
+			deflater.setInput(content);
+			if (last)
+				deflater.finish();
+
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream(content.length / 3 + 64);
+			byte[] buffer = new byte[16 * 1024];
+			while (true) {
+				int n = deflater.deflate(buffer, 0, buffer.length, (last) ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+				compressed.write(buffer, 0, n);
+				// a changed level or strategy is applied by the first call, which may return before deflating
+				if ((last) ? deflater.finished() : n < buffer.length && deflater.needsInput())
+					return compressed.toByteArray();
+			}
+		} finally {
+			deflater.end();
+		}
+	}
+
+	private void writeOldest() throws IOException {
+		try {
+			out.write(pending.removeFirst().get());
+		} catch (ExecutionException e) {
+			throw new IOException("gzip block compression failed", e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while compressing gzip blocks", e);
+		}
+	}
+
+	private void writeInt(int value) throws IOException {
+		out.write(value);
+		out.write(value >>> 8);
+		out.write(value >>> 16);
+		out.write(value >>> 24);
+	}
+}
@@ -6,190 +6,352 @@ import java.io.Writer;
 
 /**
  * Replacement for YU CssCompressor which is inherently fragile.
- * 
+ *
  * Strips whitespace and comments with an honest attempt to not break things.
+ *
+ * The input is minified in one pass from reader to writer by a state machine with one character of lookahead, so
+ * memory use does not grow with the size of the stylesheet. Only the whitespace between {@code url} and its
+ * parenthesis and after the parenthesis is held until the kind of url is known.
+ *
+ * Between state changes, runs of characters that cannot change the state are found with a lookup table over the input
+ * buffer and copied to the output buffer, or skipped inside comments, in bulk.
  */
 public final class SafeCssCompressor {
 
-	private final String css;
+	private static final int BUFFER_SIZE = 8192;
+	private static final int NONE = -2;
+	private static final String URL = "url";
 
-	public SafeCssCompressor(Reader in) throws IOException {
-		this.css = readFully(in);
-	}
+	private static final boolean[] DEFAULT_SPECIAL = special(" \n\r\t\f/\"'uU");
+	private static final boolean[] STRING_SPECIAL = special(" \\\"'");
+	private static final boolean[] URL_SPECIAL = special(" \\\"')");
 
-	public void compress(Writer out) throws IOException {
-		out.write(minify(css));
+	private enum State {
+		DEFAULT, COMMENT, STRING, URL_PREFIX, URL_OPEN, URL_UNQUOTED
 	}
 
-	private static String readFully(Reader in) throws IOException {
-		StringBuilder sb = new StringBuilder(16 * 1024);
-		char[] buf = new char[8192];
-		int n;
-		while ((n = in.read(buf)) != -1) {
-			sb.append(buf, 0, n);
-		}
-		return sb.toString();
+	private final Reader in;
+	private final char[] input = new char[BUFFER_SIZE];
+	private int inputPos;
+	private int inputLimit;
+	private int peeked = NONE;
+	private int previous = -1;
+	private int current = -1;
+
+	private Writer out;
+	private final char[] output = new char[BUFFER_SIZE];
+	private int outputPos;
+
+	private State state = State.DEFAULT;
+	private char stringQuote;
+	private boolean stringEscaped;
+	private boolean stringInUrl;
+	private boolean urlEscaped;
+	private final StringBuilder held = new StringBuilder();
+
+	private boolean pendingSpace;
+	private boolean written;
+	private char lastOut;
+	private int trailingSpaces;
+
+	public SafeCssCompressor(Reader in) {
+		this.in = in;
 	}
 
-	private static String minify(String input) {
-		StringBuilder out = new StringBuilder(input.length());
+	public void compress(Writer out) throws IOException {
+		this.out = out;
 
-		boolean inString = false;
-		char stringQuote = 0;
-		boolean stringEscaped = false;
+		int c;
+		while ((c = next()) != -1) {
+			process((char) c);
+			processRun();
+		}
 
-		boolean inComment = false;
+		switch (state) {
+		case URL_PREFIX:
+			releaseUrlPrefix();
+			break;
+		case URL_OPEN:
+			emitHeld();
+			break;
+		default:
+			break;
+		}
 
-		boolean inUrlUnquoted = false;
-		boolean urlEscaped = false;
+		if (outputPos > 0) {
+			out.write(output, 0, outputPos);
+			outputPos = 0;
+		}
+	}
 
-		boolean pendingSpace = false;
-		char lastOut = 0;
+	private void process(char c) throws IOException {
+		switch (state) {
+		case COMMENT:
+			if (c == '*' && peek() == '/') {
+				next();
+				state = State.DEFAULT;
+			}
+			return;
 
-		final int len = input.length();
+		case STRING:
+			emit(c);
+			if (stringEscaped) {
+				stringEscaped = false;
+			} else if (c == '\\') {
+				stringEscaped = true;
+			} else if (c == stringQuote) {
+				state = (stringInUrl) ? State.URL_UNQUOTED : State.DEFAULT;
+			}
+			return;
 
-		for (int i = 0; i < len; i++) {
-			char c = input.charAt(i);
+		case URL_UNQUOTED:
+			if (c == '"' || c == '\'') {
+				startString(c, true);
+				return;
+			}
+			emit(c);
+			if (urlEscaped) {
+				urlEscaped = false;
+			} else if (c == '\\') {
+				urlEscaped = true;
+			} else if (c == ')') {
+				state = State.DEFAULT;
+			}
+			return;
 
-			if (!inString && !inUrlUnquoted && i + 1 < len) {
-				char next = input.charAt(i + 1);
+		case URL_PREFIX:
+			processUrlPrefix(c);
+			return;
 
-				if (!inComment && c == '/' && next == '*') {
-					inComment = true;
-					pendingSpace = true;
-					i++;
-					continue;
-				}
+		case URL_OPEN:
+			processUrlOpen(c);
+			return;
 
-				if (inComment && c == '*' && next == '/') {
-					inComment = false;
-					i++;
-					continue;
-				}
-			}
+		default:
+			break;
+		}
 
-			if (inComment) {
-				continue;
-			}
+		if (c == '/' && peek() == '*') {
+			next();
+			state = State.COMMENT;
+			pendingSpace = true;
+			return;
+		}
 
-			if (!inString && (c == '"' || c == '\'')) {
-				flushPendingSpace(out, pendingSpace, lastOut, c);
-				pendingSpace = false;
+		if (c == '"' || c == '\'') {
+			startString(c, false);
+			return;
+		}
 
-				out.append(c);
-				lastOut = c;
+		if (isAsciiCaseInsensitive(c, 'u') && !isIdentCharAscii(previous)) {
+			held.append(c);
+			state = State.URL_PREFIX;
+			return;
+		}
 
-				inString = true;
-				stringQuote = c;
-				stringEscaped = false;
-				continue;
-			}
+		if (isWhitespace(c)) {
+			pendingSpace = true;
+			return;
+		}
 
-			if (inString) {
-				out.append(c);
-				lastOut = c;
+		emitToken(c);
+	}
 
-				if (stringEscaped) {
-					stringEscaped = false;
-					continue;
-				}
+	/**
+	 * Processes the run of buffered input characters that cannot change the current state, so that they are copied or
+	 * skipped without going through {@link #process(char)} one by one.
+	 */
+	private void processRun() throws IOException {
+		if (peeked != NONE || inputPos == inputLimit)
+			return;
 
-				if (c == '\\') {
-					stringEscaped = true;
-					continue;
-				}
+		int end = inputPos;
+		switch (state) {
+		case DEFAULT:
+			while (end < inputLimit && isOrdinary(input[end], (end > inputPos) ? input[end - 1] : current)) {
+				end++;
+			}
+			if (end > inputPos) {
+				emitToken(input[inputPos]);
+				copyRun(end);
+			}
+			return;
 
-				if (c == stringQuote) {
-					inString = false;
-				}
-				continue;
+		case STRING:
+			if (stringEscaped)
+				return;
+			end = scan(STRING_SPECIAL);
+			if (end > inputPos) {
+				emit(input[inputPos]);
+				copyRun(end);
 			}
+			return;
 
-			if (!inUrlUnquoted && looksLikeUrlFunctionStart(input, i)) {
-				flushPendingSpace(out, pendingSpace, lastOut, input.charAt(i));
-				pendingSpace = false;
-
-				out.append(input.charAt(i));
-				out.append(input.charAt(i + 1));
-				out.append(input.charAt(i + 2));
-				lastOut = input.charAt(i + 2);
-				i += 3;
-
-				while (i < len && isWhitespace(input.charAt(i))) {
-					out.append(input.charAt(i));
-					lastOut = input.charAt(i);
-					i++;
-				}
-				if (i < len && input.charAt(i) == '(') {
-					out.append('(');
-					lastOut = '(';
-				} else {
-					i--;
-					continue;
-				}
-
-				int j = i + 1;
-				while (j < len && isWhitespace(input.charAt(j))) {
-					j++;
-				}
-				if (j < len) {
-					char q = input.charAt(j);
-					if (q == '"' || q == '\'') {
-						continue;
-					}
-				}
-
-				inUrlUnquoted = true;
-				urlEscaped = false;
-				continue;
+		case URL_UNQUOTED:
+			if (urlEscaped)
+				return;
+			end = scan(URL_SPECIAL);
+			if (end > inputPos) {
+				emit(input[inputPos]);
+				copyRun(end);
 			}
+			return;
+
+		case COMMENT:
+			while (end < inputLimit && input[end] != '*') {
+				end++;
+			}
+			if (end > inputPos) {
+				advance(end);
+			}
+			return;
+
+		default:
+			return;
+		}
+	}
+
+	/**
+	 * Tells if a character has no meaning of its own in the default state. A {@code u} only starts a url function
+	 * when it does not continue an identifier.
+	 */
+	private static boolean isOrdinary(char c, int previous) {
+		if (c >= DEFAULT_SPECIAL.length)
+			return true;
+		if (!DEFAULT_SPECIAL[c])
+			return true;
+		return (c == 'u' || c == 'U') && isIdentCharAscii(previous);
+	}
 
-			if (inUrlUnquoted) {
-				out.append(c);
-				lastOut = c;
+	private int scan(boolean[] special) {
+		int end = inputPos;
+		while (end < inputLimit) {
+			char c = input[end];
+			if (c < special.length && special[c])
+				break;
+			end++;
+		}
+		return end;
+	}
 
-				if (urlEscaped) {
-					urlEscaped = false;
-					continue;
-				}
+	/**
+	 * Copies the rest of a run whose first character has been written. The run holds no spaces, so none are counted.
+	 */
+	private void copyRun(int end) throws IOException {
+		int from = inputPos + 1;
+		while (from < end) {
+			if (outputPos == output.length) {
+				out.write(output, 0, outputPos);
+				outputPos = 0;
+			}
+			int n = Math.min(end - from, output.length - outputPos);
+			System.arraycopy(input, from, output, outputPos, n);
+			outputPos += n;
+			from += n;
+		}
+		lastOut = input[end - 1];
+		advance(end);
+	}
 
-				if (c == '\\') {
-					urlEscaped = true;
-					continue;
-				}
+	private void advance(int end) {
+		previous = (end - inputPos > 1) ? input[end - 2] : current;
+		current = input[end - 1];
+		inputPos = end;
+	}
 
-				if (c == ')') {
-					inUrlUnquoted = false;
-				}
-				continue;
+	/**
+	 * Matches the {@code url} name and the whitespace before its parenthesis. The url function starts, with the held
+	 * characters written as they are, once the parenthesis is seen; anything else releases them as ordinary input.
+	 */
+	private void processUrlPrefix(char c) throws IOException {
+		int n = held.length();
+		if (n < URL.length() && isAsciiCaseInsensitive(c, URL.charAt(n))) {
+			held.append(c);
+			return;
+		}
+		if (n >= URL.length() && isWhitespace(c)) {
+			held.append(c);
+			return;
+		}
+		if (n >= URL.length() && c == '(') {
+			emitToken(held.charAt(0));
+			for (int i = 1; i < n; i++) {
+				emit(held.charAt(i));
 			}
+			emit(c);
+			held.setLength(0);
+			state = State.URL_OPEN;
+			return;
+		}
 
-			if (isWhitespace(c)) {
+		releaseUrlPrefix();
+		state = State.DEFAULT;
+		process(c);
+	}
+
+	/**
+	 * Holds the whitespace after the parenthesis of a url function until the first other character tells whether the
+	 * url is quoted, and so whether the whitespace is part of an unquoted url.
+	 */
+	private void processUrlOpen(char c) throws IOException {
+		if (isWhitespace(c)) {
+			held.append(c);
+			return;
+		}
+		if (c == '"' || c == '\'') {
+			if (held.length() > 0) {
 				pendingSpace = true;
-				continue;
 			}
+			held.setLength(0);
+			state = State.DEFAULT;
+		} else {
+			emitHeld();
+			state = State.URL_UNQUOTED;
+			urlEscaped = false;
+		}
+		process(c);
+	}
 
-			flushPendingSpace(out, pendingSpace, lastOut, c);
-			pendingSpace = false;
+	/**
+	 * Starts a quoted string. A quote inside an unquoted url also starts a string, which returns to the url when it
+	 * ends, as the quote would otherwise end neither.
+	 */
+	private void startString(char quote, boolean inUrl) throws IOException {
+		emitToken(quote);
+		state = State.STRING;
+		stringQuote = quote;
+		stringEscaped = false;
+		stringInUrl = inUrl;
+	}
 
-			if (isUniversallySafePunctuation(c)) {
-				out.append(c);
-				lastOut = c;
-				continue;
-			}
+	private void releaseUrlPrefix() throws IOException {
+		int n = held.length();
+		for (int i = 0; i < Math.min(n, URL.length()); i++) {
+			emitToken(held.charAt(i));
+		}
+		if (n > URL.length()) {
+			pendingSpace = true;
+		}
+		held.setLength(0);
+	}
 
-			out.append(c);
-			lastOut = c;
+	private void emitHeld() throws IOException {
+		for (int i = 0; i < held.length(); i++) {
+			emit(held.charAt(i));
 		}
+		held.setLength(0);
+	}
 
-		rtrimSpaces(out);
-		return out.toString();
+	private void emitToken(char c) throws IOException {
+		flushPendingSpace(c);
+		pendingSpace = false;
+		emit(c);
 	}
 
-	private static void flushPendingSpace(StringBuilder out, boolean pendingSpace, char lastOut, char nextToken) {
+	private void flushPendingSpace(char nextToken) throws IOException {
 		if (!pendingSpace)
 			return;
-		if (out.length() == 0)
+		if (!written)
 			return;
 
 		if (lastOut == '{' || lastOut == ';' || lastOut == ',')
@@ -198,44 +360,83 @@ public final class SafeCssCompressor {
 			return;
 
 		if (lastOut != ' ') {
-			out.append(' ');
+			emit(' ');
 		}
 	}
 
-	private static void rtrimSpaces(StringBuilder sb) {
-		int n = sb.length();
-		while (n > 0 && sb.charAt(n - 1) == ' ') {
-			n--;
+	/**
+	 * Writes a character of minified output. Spaces are counted rather than written until a later character follows
+	 * them, so that trailing spaces are dropped at the end of the output.
+	 */
+	private void emit(char c) throws IOException {
+		written = true;
+		lastOut = c;
+		if (c == ' ') {
+			trailingSpaces++;
+			return;
+		}
+		for (; trailingSpaces > 0; trailingSpaces--) {
+			write(' ');
 		}
-		sb.setLength(n);
+		write(c);
 	}
 
-	private static boolean isWhitespace(char c) {
-		return c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == '\f';
+	private void write(char c) throws IOException {
+		if (outputPos == output.length) {
+			out.write(output, 0, outputPos);
+			outputPos = 0;
+		}
+		output[outputPos++] = c;
 	}
 
-	private static boolean isUniversallySafePunctuation(char c) {
-		return c == '{' || c == '}' || c == ';' || c == ',';
+	private int next() throws IOException {
+		int c;
+		if (peeked != NONE) {
+			c = peeked;
+			peeked = NONE;
+		} else {
+			c = read();
+		}
+		previous = current;
+		current = c;
+		return c;
 	}
 
-	private static boolean looksLikeUrlFunctionStart(String s, int i) {
-		if (i > 0 && isIdentCharAscii(s.charAt(i - 1))) {
-			return false;
-		}
-		if (i + 3 >= s.length()) {
-			return false;
+	private int peek() throws IOException {
+		if (peeked == NONE) {
+			peeked = read();
 		}
-		if (!isAsciiCaseInsensitive(s.charAt(i), 'u') || !isAsciiCaseInsensitive(s.charAt(i + 1), 'r') || !isAsciiCaseInsensitive(s.charAt(i + 2), 'l')) {
-			return false;
+		return peeked;
+	}
+
+	private int read() throws IOException {
+		if (inputPos == inputLimit) {
+			int n;
+			do {
+				n = in.read(input);
+			} while (n == 0);
+			if (n < 0) {
+				return -1;
+			}
+			inputPos = 0;
+			inputLimit = n;
 		}
-		int j = i + 3;
-		while (j < s.length() && isWhitespace(s.charAt(j))) {
-			j++;
+		return input[inputPos++];
+	}
+
+	private static boolean[] special(String chars) {
+		boolean[] special = new boolean[128];
+		for (int i = 0; i < chars.length(); i++) {
+			special[chars.charAt(i)] = true;
 		}
-		return j < s.length() && s.charAt(j) == '(';
+		return special;
+	}
+
+	private static boolean isWhitespace(char c) {
+		return c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == '\f';
 	}
 
-	private static boolean isIdentCharAscii(char c) {
+	private static boolean isIdentCharAscii(int c) {
 		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_' || c == '-';
 	}
 
@@ -2,33 +2,76 @@ package patchpump.minify.maven.common;
 
 import java.io.IOException;
 import java.io.InputStreamReader;
-
-import javax.script.Bindings;
-import javax.script.ScriptContext;
-import javax.script.ScriptEngine;
-import javax.script.ScriptException;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.commons.io.IOUtils;
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.PolyglotException;
+import org.graalvm.polyglot.Value;
 
 /**
  * terser compiler.
- * 
+ *
  * @author patchpump
  */
 public class TerserCompiler extends AbstractJavaScriptCompiler {
 
-	public TerserCompiler() throws IOException, ScriptException {
-		super("/META-INF/terser/bundle.min.js");
+	private static final String ENGINE_FILE = "/META-INF/terser/bundle.min.js";
+	private static final String WARM_UP_SOURCE = "function warmUp(a, b) { var sum = a + b; return sum; }";
+
+	public TerserCompiler() throws IOException {
+		super(ENGINE_FILE);
+	}
+
+	/**
+	 * Configures the context pool shared by all terser compilers.
+	 *
+	 * @param poolSize maximum number of contexts compiling concurrently
+	 * @param warmUp create all contexts up front and run a minification in each
+	 * @throws IOException when the compiler cannot be loaded or warmed up
+	 */
+	public static void configure(int poolSize, boolean warmUp) throws IOException {
+
+		JavaScriptContextPool pool = getPool(ENGINE_FILE);
+		pool.setSize(poolSize);
+		if (!warmUp)
+			return;
+
+		List<Context> contexts = new ArrayList<>();
+		try {
+			for (int i = pool.getSize(); i > 0; i--) {
+				Context context = pool.acquire();
+				contexts.add(context);
+				minify(context, WARM_UP_SOURCE);
+			}
+		} finally {
+			for (Context context : contexts)
+				pool.release(context);
+		}
 	}
-	
+
 	@Override
-	public String compile(InputStreamReader reader) throws IOException, ScriptException, NoSuchMethodException {
+	public String compile(InputStreamReader reader) throws IOException {
 		String source = IOUtils.toString(reader);
-		synchronized(script) {
-			ScriptEngine engine = script.getEngine();
-			Bindings bindings = engine.getBindings(ScriptContext.ENGINE_SCOPE);
-			bindings.put("input", source);
-			return (String)engine.eval("minifymth()", bindings);
+		Context context = pool.acquire();
+		boolean usable = true;
+		try {
+			return minify(context, source);
+		} catch (PolyglotException e) {
+			usable = !e.isInternalError() && !e.isCancelled() && !e.isExit();
+			throw e;
+		} finally {
+			if (usable)
+				pool.release(context);
+			else
+				pool.discard(context);
 		}
 	}
+
+	private static String minify(Context context, String source) {
+		Value bindings = context.getBindings("js");
+		bindings.putMember("input", source);
+		return bindings.getMember("minifymth").execute().asString();
+	}
 }
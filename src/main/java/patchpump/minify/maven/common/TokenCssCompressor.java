@@ -0,0 +1,1004 @@
+package patchpump.minify.maven.common;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * CSS compressor working on the tokens of CSS Syntax Level 3.
+ *
+ * The stylesheet is tokenized in one pass, as a browser does, and the minified output is written from the tokens, so
+ * strings, urls, escapes and comments are never mistaken for each other and nothing is substituted by placeholders.
+ * Whitespace is kept only where it separates tokens or is a descendant combinator, and comments other than
+ * {@code /*!} ones are dropped, as are the last semicolon of each block and empty style rules. In declaration values,
+ * numbers and hex colors are shortened and lengths of zero lose their unit, except inside functions such as
+ * {@code calc()}, in {@code flex}, and in descriptors such as those of {@code @property}. Custom property values are
+ * kept as they are apart from their whitespace.
+ */
+public final class TokenCssCompressor {
+
+	private static final int WHITESPACE = 0;
+	private static final int COMMENT = 1;
+	private static final int PRESERVED_COMMENT = 2;
+	private static final int IDENT = 3;
+	private static final int FUNCTION = 4;
+	private static final int AT_KEYWORD = 5;
+	private static final int HASH = 6;
+	private static final int STRING = 7;
+	private static final int BAD_STRING = 8;
+	private static final int URL = 9;
+	private static final int BAD_URL = 10;
+	private static final int DELIM = 11;
+	private static final int NUMBER = 12;
+	private static final int PERCENTAGE = 13;
+	private static final int DIMENSION = 14;
+	private static final int CDO = 15;
+	private static final int CDC = 16;
+	private static final int COLON = 17;
+	private static final int SEMICOLON = 18;
+	private static final int COMMA = 19;
+	private static final int LEFT_BRACKET = 20;
+	private static final int RIGHT_BRACKET = 21;
+	private static final int LEFT_PAREN = 22;
+	private static final int RIGHT_PAREN = 23;
+	private static final int LEFT_BRACE = 24;
+	private static final int RIGHT_BRACE = 25;
+	private static final int UNICODE_RANGE = 26;
+
+	private enum Context {
+		SELECTOR, AT_PRELUDE, VALUE, CUSTOM_VALUE
+	}
+
+	private static final Set<String> GROUP_RULES = Set.of("media", "supports", "container", "layer", "scope", "document", "-moz-document",
+		"starting-style");
+	private static final Set<String> REMOVABLE_WHEN_EMPTY = Set.of("media", "supports", "container");
+	private static final Set<String> LENGTH_UNITS = Set.of("px", "em", "rem", "ex", "ch", "vw", "vh", "vmin", "vmax", "cm", "mm", "in", "pt", "pc");
+	private static final Set<String> NONE_AS_ZERO = Set.of("border", "border-top", "border-right", "border-bottom", "border-left", "outline");
+	private static final Set<String> ZEROS_AS_ZERO = Set.of("margin", "padding", "border-width", "border-radius", "inset", "scroll-margin",
+		"scroll-padding");
+	private static final Set<String> UNITLESS_ZERO_AMBIGUOUS = Set.of("flex", "-webkit-flex", "-ms-flex", "flex-basis", "-webkit-flex-basis");
+	private static final Map<String, String> COLOR_NAMES = Map.of("#f00", "red", "#000080", "navy", "#808080", "gray", "#808000", "olive",
+		"#800080", "purple", "#c0c0c0", "silver", "#008080", "teal", "#ffa500", "orange", "#800000", "maroon");
+
+	private final Reader in;
+	private String css;
+
+	private int count;
+	private int[] types = new int[1024];
+	private int[] starts = new int[1024];
+	private int[] ends = new int[1024];
+	private int[] aux = new int[1024];
+	private int[] aux2 = new int[1024];
+	private int urlEnd;
+
+	private StringBuilder out;
+	private int pos;
+	private boolean pendingSemicolon;
+	private int lastType;
+	private char lastDelim;
+	private boolean lastRewritten;
+
+	public TokenCssCompressor(Reader in) {
+		this.in = in;
+	}
+
+	public void compress(Writer writer) throws IOException {
+		StringBuilder sb = new StringBuilder(16 * 1024);
+		char[] buf = new char[8192];
+		int n;
+		while ((n = in.read(buf)) != -1) {
+			sb.append(buf, 0, n);
+		}
+		css = sb.toString();
+
+		tokenize();
+
+		out = new StringBuilder(css.length() / 2 + 16);
+		statements(true, false);
+		flushSemicolon();
+		writer.append(out);
+	}
+
+	// Tokenizer, see https://www.w3.org/TR/css-syntax-3/#tokenization
+
+	private void tokenize() {
+		int n = css.length();
+		int i = 0;
+		while (i < n) {
+			int start = i;
+			char c = css.charAt(i);
+			int type;
+			int a = 0;
+			int b = 0;
+
+			if (isWhitespace(c)) {
+				while (isWhitespace(at(i))) {
+					i++;
+				}
+				type = WHITESPACE;
+			} else if (c == '/' && at(i + 1) == '*') {
+				int close = css.indexOf("*/", i + 2);
+				i = (close < 0) ? n : close + 2;
+				type = (at(start + 2) == '!') ? PRESERVED_COMMENT : COMMENT;
+			} else if (c == '"' || c == '\'') {
+				type = STRING;
+				i++;
+				while (i < n) {
+					char s = css.charAt(i);
+					if (s == c) {
+						i++;
+						break;
+					}
+					if (isNewline(s)) {
+						type = BAD_STRING;
+						break;
+					}
+					if (s == '\\') {
+						if (isNewline(at(i + 1))) {
+							i += (at(i + 1) == '\r' && at(i + 2) == '\n') ? 3 : 2;
+						} else {
+							i = consumeEscape(i + 1);
+						}
+					} else {
+						i++;
+					}
+				}
+			} else if (c == '#') {
+				if (isNameChar(at(i + 1)) || isValidEscape(i + 1)) {
+					i = consumeName(i + 1);
+					type = HASH;
+				} else {
+					i++;
+					type = DELIM;
+				}
+			} else if (c == '(' || c == ')' || c == '[' || c == ']' || c == '{' || c == '}' || c == ',' || c == ':' || c == ';') {
+				i++;
+				type = punctuation(c);
+			} else if ((c == '+' || c == '.' || c == '-' || isDigit(c)) && startsNumber(i)) {
+				i = consumeNumber(i);
+				a = i;
+				if (startsIdent(i)) {
+					i = consumeName(i);
+					type = DIMENSION;
+				} else if (at(i) == '%') {
+					i++;
+					type = PERCENTAGE;
+				} else {
+					type = NUMBER;
+				}
+			} else if (c == '-' && at(i + 1) == '-' && at(i + 2) == '>') {
+				i += 3;
+				type = CDC;
+			} else if (c == '<' && css.startsWith("!--", i + 1)) {
+				i += 4;
+				type = CDO;
+			} else if (c == '@' && startsIdent(i + 1)) {
+				i = consumeName(i + 1);
+				type = AT_KEYWORD;
+			} else if ((c == 'u' || c == 'U') && at(i + 1) == '+' && (isHexDigit(at(i + 2)) || at(i + 2) == '?')) {
+				i = consumeUnicodeRange(i + 2);
+				type = UNICODE_RANGE;
+			} else if (startsIdent(i)) {
+				i = consumeName(i);
+				type = IDENT;
+				if (at(i) == '(') {
+					i++;
+					type = FUNCTION;
+					if (i - start == 4 && css.regionMatches(true, start, "url", 0, 3)) {
+						int j = i;
+						while (isWhitespace(at(j))) {
+							j++;
+						}
+						if (at(j) != '"' && at(j) != '\'') {
+							a = j;
+							i = consumeUrl(j);
+							type = (i < 0) ? BAD_URL : URL;
+							if (i < 0) {
+								i = -i;
+							} else {
+								b = urlEnd;
+							}
+						}
+					}
+				}
+			} else {
+				i++;
+				type = DELIM;
+			}
+
+			add(type, start, i, a, b);
+		}
+	}
+
+	/**
+	 * Consumes the rest of an unquoted url.
+	 *
+	 * @return end of the url token, negated for a bad url
+	 */
+	private int consumeUrl(int i) {
+		while (true) {
+			int c = at(i);
+			if (c == -1) {
+				urlEnd = i;
+				return i;
+			}
+			if (c == ')') {
+				urlEnd = i;
+				return i + 1;
+			}
+			if (isWhitespace(c)) {
+				urlEnd = i;
+				while (isWhitespace(at(i))) {
+					i++;
+				}
+				if (at(i) == ')')
+					return i + 1;
+				if (at(i) == -1)
+					return i;
+				return -consumeBadUrl(i);
+			}
+			if (c == '"' || c == '\'' || c == '(' || isNonPrintable(c))
+				return -consumeBadUrl(i);
+			if (c == '\\') {
+				if (!isValidEscape(i))
+					return -consumeBadUrl(i);
+				i = consumeEscape(i + 1);
+			} else {
+				i++;
+			}
+		}
+	}
+
+	private int consumeBadUrl(int i) {
+		while (true) {
+			int c = at(i);
+			if (c == -1)
+				return i;
+			if (c == ')')
+				return i + 1;
+			if (isValidEscape(i)) {
+				i = consumeEscape(i + 1);
+			} else {
+				i++;
+			}
+		}
+	}
+
+	/**
+	 * Consumes a unicode range after its {@code U+}, as tokenized by CSS Syntax Level 3 before the unicode-range
+	 * token was dropped from it: up to six hex digits or question marks, or two runs of hex digits around a dash.
+	 */
+	private int consumeUnicodeRange(int i) {
+		int max = i + 6;
+		while (i < max && isHexDigit(at(i))) {
+			i++;
+		}
+		boolean wildcard = false;
+		while (i < max && at(i) == '?') {
+			i++;
+			wildcard = true;
+		}
+		if (!wildcard && at(i) == '-' && isHexDigit(at(i + 1))) {
+			i++;
+			max = i + 6;
+			while (i < max && isHexDigit(at(i))) {
+				i++;
+			}
+		}
+		return i;
+	}
+
+	private int consumeNumber(int i) {
+		if (at(i) == '+' || at(i) == '-')
+			i++;
+		while (isDigit(at(i))) {
+			i++;
+		}
+		if (at(i) == '.' && isDigit(at(i + 1))) {
+			i += 2;
+			while (isDigit(at(i))) {
+				i++;
+			}
+		}
+		if (at(i) == 'e' || at(i) == 'E') {
+			if (isDigit(at(i + 1))) {
+				i += 2;
+			} else if ((at(i + 1) == '+' || at(i + 1) == '-') && isDigit(at(i + 2))) {
+				i += 3;
+			} else {
+				return i;
+			}
+			while (isDigit(at(i))) {
+				i++;
+			}
+		}
+		return i;
+	}
+
+	private int consumeName(int i) {
+		while (true) {
+			int c = at(i);
+			if (isNameChar(c)) {
+				i++;
+			} else if (isValidEscape(i)) {
+				i = consumeEscape(i + 1);
+			} else {
+				return i;
+			}
+		}
+	}
+
+	/**
+	 * Consumes an escaped code point after its backslash, including the whitespace ending a hex escape.
+	 */
+	private int consumeEscape(int i) {
+		if (at(i) == -1)
+			return i;
+		if (!isHexDigit(at(i)))
+			return i + 1;
+		int max = i + 6;
+		while (i < max && isHexDigit(at(i))) {
+			i++;
+		}
+		if (at(i) == '\r' && at(i + 1) == '\n')
+			return i + 2;
+		if (isWhitespace(at(i)))
+			return i + 1;
+		return i;
+	}
+
+	private boolean isValidEscape(int i) {
+		return at(i) == '\\' && !isNewline(at(i + 1));
+	}
+
+	private boolean startsIdent(int i) {
+		int c = at(i);
+		if (c == '-') {
+			int next = at(i + 1);
+			return isNameStart(next) || next == '-' || isValidEscape(i + 1);
+		}
+		if (isNameStart(c))
+			return true;
+		return c == '\\' && isValidEscape(i);
+	}
+
+	private boolean startsNumber(int i) {
+		int c = at(i);
+		if (c == '+' || c == '-') {
+			return isDigit(at(i + 1)) || (at(i + 1) == '.' && isDigit(at(i + 2)));
+		}
+		if (c == '.')
+			return isDigit(at(i + 1));
+		return isDigit(c);
+	}
+
+	private int at(int i) {
+		return (i < css.length()) ? css.charAt(i) : -1;
+	}
+
+	private void add(int type, int start, int end, int a, int b) {
+		if (count == types.length) {
+			int size = count * 2;
+			types = Arrays.copyOf(types, size);
+			starts = Arrays.copyOf(starts, size);
+			ends = Arrays.copyOf(ends, size);
+			aux = Arrays.copyOf(aux, size);
+			aux2 = Arrays.copyOf(aux2, size);
+		}
+		types[count] = type;
+		starts[count] = start;
+		ends[count] = end;
+		aux[count] = a;
+		aux2[count] = b;
+		count++;
+	}
+
+	// Minifier, following the structure of https://www.w3.org/TR/css-syntax-3/#parsing
+
+	/**
+	 * Minifies the statements of the stylesheet or of a block, up to the closing brace of the block.
+	 *
+	 * @param topLevel {@code true} for the statements of the stylesheet
+	 * @param style {@code true} when declarations are those of style rules
+	 */
+	private void statements(boolean topLevel, boolean style) {
+		while (pos < count) {
+			int type = types[pos];
+			if (type == WHITESPACE || type == COMMENT || type == SEMICOLON || (topLevel && (type == CDO || type == CDC))) {
+				pos++;
+			} else if (type == PRESERVED_COMMENT) {
+				flushSemicolon();
+				out.append(css, starts[pos], ends[pos]);
+				pos++;
+			} else if (type == RIGHT_BRACE && !topLevel) {
+				return;
+			} else if (type == AT_KEYWORD) {
+				atRule(topLevel, style);
+			} else if (topLevel || isRule(pos)) {
+				qualifiedRule();
+			} else {
+				declaration(style);
+			}
+		}
+	}
+
+	/**
+	 * Tells if the statement starting at given token in a block is a nested rule rather than a declaration.
+	 */
+	private boolean isRule(int i) {
+		if (isCustomProperty(i))
+			return false;
+		int depth = 0;
+		for (; i < count; i++) {
+			switch (types[i]) {
+			case FUNCTION:
+			case LEFT_PAREN:
+			case LEFT_BRACKET:
+				depth++;
+				break;
+			case RIGHT_PAREN:
+			case RIGHT_BRACKET:
+				depth = Math.max(depth - 1, 0);
+				break;
+			case LEFT_BRACE:
+				if (depth == 0)
+					return true;
+				break;
+			case SEMICOLON:
+			case RIGHT_BRACE:
+				if (depth == 0)
+					return false;
+				break;
+			default:
+				break;
+			}
+		}
+		return false;
+	}
+
+	private void qualifiedRule() {
+		int mark = out.length();
+		boolean semicolon = pendingSemicolon;
+		flushSemicolon();
+
+		int end = find(pos, false, false);
+		emitTokens(pos, end, Context.SELECTOR, false, false);
+		pos = end;
+		if (pos == count)
+			return;
+
+		block(true, mark, semicolon, true);
+	}
+
+	private void atRule(boolean topLevel, boolean style) {
+		int mark = out.length();
+		boolean semicolon = pendingSemicolon;
+		flushSemicolon();
+
+		String name = css.substring(starts[pos] + 1, ends[pos]).toLowerCase(Locale.ROOT);
+		int end = find(pos + 1, true, !topLevel);
+		emitTokens(pos, end, Context.AT_PRELUDE, false, false);
+		pos = end;
+		if (pos == count)
+			return;
+
+		switch (types[pos]) {
+		case SEMICOLON:
+			pos++;
+			pendingSemicolon = true;
+			break;
+		case LEFT_BRACE:
+			if (GROUP_RULES.contains(name)) {
+				block(style, mark, semicolon, REMOVABLE_WHEN_EMPTY.contains(name));
+			} else {
+				block(false, mark, semicolon, false);
+			}
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * Minifies the block at the current token, removing the whole rule from the output mark when the block is empty and
+	 * that is allowed.
+	 */
+	private void block(boolean style, int mark, boolean semicolon, boolean removableWhenEmpty) {
+		out.append('{');
+		int bodyStart = out.length();
+		pos++;
+		statements(false, style);
+		pendingSemicolon = false;
+		if (pos < count)
+			pos++;
+
+		if (removableWhenEmpty && out.length() == bodyStart) {
+			out.setLength(mark);
+			pendingSemicolon = semicolon;
+		} else {
+			out.append('}');
+		}
+	}
+
+	private void declaration(boolean style) {
+		flushSemicolon();
+
+		boolean custom = isCustomProperty(pos);
+		int end = find(pos, true, true, custom);
+		int colon = skipWhitespace(pos + 1, end);
+		if (types[pos] == IDENT && colon < end && types[colon] == COLON) {
+			String name = css.substring(starts[pos], ends[pos]).toLowerCase(Locale.ROOT);
+			emitTokens(pos, colon + 1, Context.VALUE, false, false);
+			int value = out.length();
+			if (custom) {
+				// zero lengths keep their unit, the value may end up in calc()
+				emitTokens(colon + 1, end, Context.CUSTOM_VALUE, true, false);
+			} else {
+				emitTokens(colon + 1, end, Context.VALUE, true, style && !UNITLESS_ZERO_AMBIGUOUS.contains(name));
+				if (style)
+					shortenValue(name, value);
+			}
+		} else {
+			emitTokens(pos, end, Context.VALUE, false, false);
+		}
+
+		pos = end;
+		if (pos < count && types[pos] == SEMICOLON) {
+			pos++;
+			pendingSemicolon = true;
+		}
+	}
+
+	/**
+	 * Shortens a whole value written from given output index: {@code none} borders and outlines are {@code 0}, and
+	 * repeated zeros of box shorthands are one zero.
+	 */
+	private void shortenValue(String name, int value) {
+		int end = out.indexOf("!", value);
+		if (end < 0)
+			end = out.length();
+		if (NONE_AS_ZERO.contains(name)) {
+			if (end - value == 4 && out.substring(value, end).equalsIgnoreCase("none"))
+				out.replace(value, end, "0");
+		} else if (ZEROS_AS_ZERO.contains(name)) {
+			int n = end - value;
+			if (n >= 3 && n <= 7 && n % 2 == 1) {
+				for (int i = value; i < end; i++) {
+					if (out.charAt(i) != (((i - value) % 2 == 0) ? '0' : ' '))
+						return;
+				}
+				out.replace(value, end, "0");
+			}
+		}
+	}
+
+	private boolean isCustomProperty(int i) {
+		return types[i] == IDENT && css.startsWith("--", starts[i]);
+	}
+
+	private int find(int i, boolean semicolon, boolean rightBrace) {
+		return find(i, semicolon, rightBrace, false);
+	}
+
+	/**
+	 * Finds the token ending a prelude or a declaration, at the top nesting level: a left brace, or else a semicolon
+	 * or right brace when asked. Blocks in braces are nested in custom property values.
+	 *
+	 * @return index of the ending token, or the token count at the end of the stylesheet
+	 */
+	private int find(int i, boolean semicolon, boolean rightBrace, boolean braces) {
+		int depth = 0;
+		for (; i < count; i++) {
+			switch (types[i]) {
+			case FUNCTION:
+			case LEFT_PAREN:
+			case LEFT_BRACKET:
+				depth++;
+				break;
+			case RIGHT_PAREN:
+			case RIGHT_BRACKET:
+				depth = Math.max(depth - 1, 0);
+				break;
+			case LEFT_BRACE:
+				if (braces) {
+					depth++;
+				} else if (depth == 0) {
+					return i;
+				}
+				break;
+			case RIGHT_BRACE:
+				if (braces && depth > 0) {
+					depth--;
+				} else if (rightBrace && depth == 0) {
+					return i;
+				}
+				break;
+			case SEMICOLON:
+				if (semicolon && depth == 0)
+					return i;
+				break;
+			default:
+				break;
+			}
+		}
+		return count;
+	}
+
+	private int skipWhitespace(int i, int end) {
+		while (i < end && (types[i] == WHITESPACE || types[i] == COMMENT || types[i] == PRESERVED_COMMENT)) {
+			i++;
+		}
+		return i;
+	}
+
+	private void flushSemicolon() {
+		if (pendingSemicolon) {
+			out.append(';');
+			pendingSemicolon = false;
+		}
+	}
+
+	/**
+	 * Writes a run of tokens, keeping only the whitespace that the context needs.
+	 *
+	 * @param from first token
+	 * @param to end token, exclusive
+	 * @param context kind of token run
+	 * @param rewrite shorten numbers and colors
+	 * @param stripZeros drop the unit of zero lengths outside functions
+	 */
+	private void emitTokens(int from, int to, Context context, boolean rewrite, boolean stripZeros) {
+		boolean space = false;
+		boolean comment = false;
+		boolean first = true;
+		int depth = 0;
+		lastType = -1;
+
+		for (int t = from; t < to; t++) {
+			int type = types[t];
+			if (type == WHITESPACE) {
+				space = true;
+				continue;
+			}
+			if (type == COMMENT || type == PRESERVED_COMMENT) {
+				comment = true;
+				continue;
+			}
+
+			String text = null;
+			int emitted = type;
+			int last = t;
+			if (rewrite) {
+				switch (type) {
+				case NUMBER:
+					text = formatNumber(starts[t], ends[t], true);
+					break;
+				case PERCENTAGE:
+					text = formatNumber(starts[t], aux[t], false) + '%';
+					break;
+				case DIMENSION:
+					text = formatNumber(starts[t], aux[t], false);
+					if (stripZeros && depth == 0 && isZero(text) && LENGTH_UNITS.contains(css.substring(aux[t], ends[t]).toLowerCase(Locale.ROOT))) {
+						text = "0";
+						emitted = NUMBER;
+					} else {
+						text = text + css.substring(aux[t], ends[t]);
+					}
+					break;
+				case HASH:
+					if (!(lastType == DELIM && lastDelim == '=')) {
+						text = formatColor(css.substring(starts[t] + 1, ends[t]), context != Context.CUSTOM_VALUE);
+						emitted = (text.charAt(0) == '#') ? HASH : IDENT;
+					}
+					break;
+				case FUNCTION:
+					last = rgbEnd(t, to);
+					if (last > t) {
+						text = formatColor(rgbHex(t, last), context != Context.CUSTOM_VALUE);
+						emitted = (text.charAt(0) == '#') ? HASH : IDENT;
+					}
+					break;
+				default:
+					break;
+				}
+			}
+
+			char delim = (type == DELIM) ? css.charAt(starts[t]) : 0;
+			boolean rewritten = text != null && !(text.length() == ends[last] - starts[t] && css.startsWith(text, starts[t]));
+			if (!first)
+				separate(space, comment, rewritten, emitted, delim, context);
+
+			if (text != null) {
+				out.append(text);
+			} else if (type == URL) {
+				out.append(css, starts[t], starts[t] + 4).append(css, aux[t], aux2[t]);
+				if (css.charAt(ends[t] - 1) == ')')
+					out.append(')');
+			} else {
+				out.append(css, starts[t], ends[t]);
+			}
+			if (type == BAD_STRING) {
+				// the newline ends the bad string, it must not run on into the next tokens
+				out.append('\n');
+			}
+
+			if (last > t) {
+				t = last;
+			} else if (type == FUNCTION || type == LEFT_PAREN) {
+				depth++;
+			} else if (type == RIGHT_PAREN && depth > 0) {
+				depth--;
+			}
+
+			lastType = emitted;
+			lastDelim = delim;
+			lastRewritten = rewritten;
+			first = false;
+			space = false;
+			comment = false;
+		}
+	}
+
+	/**
+	 * Writes what separates the last token written from the next one, which had whitespace or comments between them
+	 * or is no longer written as in the source. Tokens next to each other in the source and written as they are read
+	 * the same again.
+	 */
+	private void separate(boolean space, boolean comment, boolean rewritten, int type, char delim, Context context) {
+		if (lastType == BAD_STRING)
+			return;
+
+		boolean merge = wouldMerge(lastType, lastDelim, type, delim);
+		if (!space && !comment) {
+			if (merge && (rewritten || lastRewritten))
+				out.append(' ');
+		} else if (!space) {
+			if (merge)
+				out.append((context == Context.SELECTOR || context == Context.CUSTOM_VALUE) ? "/**/" : " ");
+		} else if (merge || needsSpace(context, lastType, lastDelim, type, delim)) {
+			out.append(' ');
+		}
+	}
+
+	/**
+	 * Tells if two tokens written next to each other would be read as other tokens, per the serialization rules of
+	 * CSS Syntax Level 3.
+	 */
+	private static boolean wouldMerge(int a, char aDelim, int b, char bDelim) {
+		boolean word = b == IDENT || b == FUNCTION || b == URL || b == BAD_URL || b == UNICODE_RANGE;
+		boolean numeric = b == NUMBER || b == PERCENTAGE || b == DIMENSION;
+		switch (a) {
+		case IDENT:
+			return word || numeric || bDelim == '-' || b == CDC || b == LEFT_PAREN;
+		case UNICODE_RANGE:
+			return word || numeric || bDelim == '-' || bDelim == '?' || b == CDC;
+		case AT_KEYWORD:
+		case HASH:
+		case DIMENSION:
+			return word || numeric || bDelim == '-' || b == CDC;
+		case NUMBER:
+			return word || numeric || bDelim == '%';
+		case DELIM:
+			switch (aDelim) {
+			case '#':
+			case '-':
+				return word || numeric || bDelim == '-';
+			case '@':
+				return word || bDelim == '-' || b == CDC;
+			case '.':
+			case '+':
+				return numeric;
+			case '/':
+				return bDelim == '*';
+			default:
+				return false;
+			}
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Tells if whitespace between two tokens that would not merge is significant in the context.
+	 */
+	private static boolean needsSpace(Context context, int a, char aDelim, int b, char bDelim) {
+		if (a == LEFT_BRACE || a == RIGHT_BRACE || a == SEMICOLON || b == LEFT_BRACE || b == RIGHT_BRACE || b == SEMICOLON)
+			return false;
+		if (a == COMMA || a == FUNCTION || a == LEFT_PAREN || b == COMMA || b == RIGHT_PAREN)
+			return false;
+
+		switch (context) {
+		case SELECTOR:
+			// whitespace is the descendant combinator, except next to other combinators and inside brackets
+			return !(a == LEFT_BRACKET || b == RIGHT_BRACKET || isCombinator(aDelim) || isCombinator(bDelim) || aDelim == '='
+				|| bDelim == '=');
+		case AT_PRELUDE:
+			if (a == AT_KEYWORD)
+				return b != LEFT_PAREN;
+			return !(a == COLON || b == COLON || aDelim == '/' || bDelim == '/');
+		case CUSTOM_VALUE:
+			// values of custom properties are kept as written, apart from whitespace in lists and functions
+			return true;
+		default:
+			return !(a == COLON || b == COLON || aDelim == '/' || bDelim == '/' || aDelim == '!' || bDelim == '!');
+		}
+	}
+
+	private static boolean isCombinator(char delim) {
+		return delim == '>' || delim == '+' || delim == '~';
+	}
+
+	/**
+	 * Shortens a number: leading zeros and trailing fraction zeros go, a number keeps a fraction so that it is not
+	 * read as an integer, and numbers with an exponent are kept as they are.
+	 */
+	private String formatNumber(int start, int end, boolean keepFraction) {
+		String raw = css.substring(start, end);
+		if (raw.indexOf('e') >= 0 || raw.indexOf('E') >= 0)
+			return raw;
+
+		int i = 0;
+		String sign = "";
+		if (raw.charAt(0) == '+' || raw.charAt(0) == '-') {
+			sign = raw.substring(0, 1);
+			i = 1;
+		}
+
+		int dot = raw.indexOf('.');
+		int intEnd = (dot < 0) ? raw.length() : dot;
+		while (i < intEnd - 1 && raw.charAt(i) == '0') {
+			i++;
+		}
+		String integer = raw.substring(i, intEnd);
+		if (dot < 0)
+			return sign + integer;
+
+		int fractionEnd = raw.length();
+		while (fractionEnd > dot + 1 && raw.charAt(fractionEnd - 1) == '0') {
+			fractionEnd--;
+		}
+		String fraction = raw.substring(dot + 1, fractionEnd);
+		if (integer.equals("0"))
+			integer = "";
+
+		if (fraction.isEmpty()) {
+			if (keepFraction)
+				return sign + integer + ".0";
+			return sign + (integer.isEmpty() ? "0" : integer);
+		}
+		return sign + integer + '.' + fraction;
+	}
+
+	private static boolean isZero(String number) {
+		return number.equals("0") || number.equals("-0") || number.equals("+0");
+	}
+
+	/**
+	 * Lowercases a hex color and shortens it to three or four digits, or to a color name when that is shorter and
+	 * allowed.
+	 */
+	private static String formatColor(String hex, boolean names) {
+		int length = hex.length();
+		if (length != 3 && length != 4 && length != 6 && length != 8)
+			return '#' + hex;
+		for (int i = 0; i < length; i++) {
+			if (!isHexDigit(hex.charAt(i)))
+				return '#' + hex;
+		}
+
+		hex = hex.toLowerCase(Locale.ROOT);
+		if (length >= 6) {
+			boolean pairs = true;
+			for (int i = 0; i < length; i += 2) {
+				pairs &= hex.charAt(i) == hex.charAt(i + 1);
+			}
+			if (pairs) {
+				StringBuilder sb = new StringBuilder(length / 2);
+				for (int i = 0; i < length; i += 2) {
+					sb.append(hex.charAt(i));
+				}
+				hex = sb.toString();
+			}
+		}
+
+		String color = '#' + hex;
+		return names ? COLOR_NAMES.getOrDefault(color, color) : color;
+	}
+
+	/**
+	 * Finds the closing parenthesis of an {@code rgb()} function of three integers from 0 to 255 separated by commas.
+	 *
+	 * @return index of the closing parenthesis, or the function token index when it is not such a function
+	 */
+	private int rgbEnd(int t, int to) {
+		if (ends[t] - starts[t] != 4 || !css.regionMatches(true, starts[t], "rgb(", 0, 4))
+			return t;
+		int i = t + 1;
+		for (int component = 0; component < 3; component++) {
+			i = skipWhitespace(i, to);
+			if (i == to || types[i] != NUMBER || !isByte(starts[i], ends[i]))
+				return t;
+			i = skipWhitespace(i + 1, to);
+			if (i == to || types[i] != ((component < 2) ? COMMA : RIGHT_PAREN))
+				return t;
+			i++;
+		}
+		return i - 1;
+	}
+
+	private String rgbHex(int t, int close) {
+		StringBuilder hex = new StringBuilder(6);
+		for (int i = t + 1; i < close; i++) {
+			if (types[i] == NUMBER) {
+				int value = Integer.parseInt(css, starts[i], ends[i], 10);
+				hex.append(Character.forDigit(value >> 4, 16)).append(Character.forDigit(value & 15, 16));
+			}
+		}
+		return hex.toString();
+	}
+
+	private boolean isByte(int start, int end) {
+		if (end - start > 3)
+			return false;
+		for (int i = start; i < end; i++) {
+			if (!isDigit(css.charAt(i)))
+				return false;
+		}
+		return Integer.parseInt(css, start, end, 10) <= 255;
+	}
+
+	private static int punctuation(char c) {
+		switch (c) {
+		case '(':
+			return LEFT_PAREN;
+		case ')':
+			return RIGHT_PAREN;
+		case '[':
+			return LEFT_BRACKET;
+		case ']':
+			return RIGHT_BRACKET;
+		case '{':
+			return LEFT_BRACE;
+		case '}':
+			return RIGHT_BRACE;
+		case ',':
+			return COMMA;
+		case ':':
+			return COLON;
+		default:
+			return SEMICOLON;
+		}
+	}
+
+	private static boolean isWhitespace(int c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+	}
+
+	private static boolean isNewline(int c) {
+		return c == '\n' || c == '\r' || c == '\f';
+	}
+
+	private static boolean isDigit(int c) {
+		return c >= '0' && c <= '9';
+	}
+
+	private static boolean isHexDigit(int c) {
+		return isDigit(c) || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+	}
+
+	private static boolean isNameStart(int c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || c >= 0x80;
+	}
+
+	private static boolean isNameChar(int c) {
+		return isNameStart(c) || isDigit(c) || c == '-';
+	}
+
+	private static boolean isNonPrintable(int c) {
+		return (c >= 0 && c <= 8) || c == 0x0b || (c >= 0x0e && c <= 0x1f) || c == 0x7f;
+	}
+}
@@ -8,7 +8,7 @@
  * Copyright (c) 2013 Yahoo! Inc.  All rights reserved.
  * The copyrights embodied in the content of this file are licensed
  * by Yahoo! Inc. under the BSD (revised) open source license.
- * 
+ *
  * https://raw.githubusercontent.com/yui/yuicompressor/f141b3412ab93407d858ddc5aa046bba85ef46fc/src/com/yahoo/platform/yui/compressor/CssCompressor.java
  */
 package patchpump.minify.maven.common;
@@ -19,36 +19,93 @@ import java.io.Writer;
 import java.util.regex.Pattern;
 import java.util.regex.Matcher;
 import java.util.ArrayList;
+import java.util.List;
 
 public class YuiCssCompressor {
 
-	private StringBuffer srcsb = new StringBuffer();
+	private static final String COMMENT_PLACEHOLDER = "___YUICSSMIN_PRESERVE_CANDIDATE_COMMENT_";
+	private static final String TOKEN_PLACEHOLDER = "___YUICSSMIN_PRESERVED_TOKEN_";
+	private static final String PLACEHOLDER_END = "___";
+
+	// Placeholders are replaced in one pass unless the source itself contains placeholder-like text, which the
+	// replacements done one placeholder at a time would treat differently
+	private static final String PLACEHOLDER_MARKER = "___YUI";
+
+	private static final Pattern COMMENT_PLACEHOLDERS = Pattern.compile(Pattern.quote(COMMENT_PLACEHOLDER) + "(\\d+)___");
+	private static final Pattern TOKEN_PLACEHOLDERS = Pattern.compile(Pattern.quote(TOKEN_PLACEHOLDER) + "(\\d+)___");
+
+	private static final Pattern DATA_URL = Pattern.compile("(?i)url\\(\\s*([\"']?)data\\:");
+	private static final Pattern CALC = Pattern.compile("(?i)calc\\(\\s*([\"']?)");
+	private static final Pattern MATRIX = Pattern.compile("(?i)progid:DXImageTransform.Microsoft.Matrix\\s*([\"']?)");
+	private static final Pattern STRINGS = Pattern.compile("(\"([^\\\\\"]|\\\\.|\\\\)*\")|(\'([^\\\\\']|\\\\.|\\\\)*\')");
+	private static final Pattern ALPHA_OPACITY = Pattern.compile("(?i)progid:DXImageTransform.Microsoft.Alpha\\(Opacity=");
+	private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+	private static final Pattern PSEUDO_CLASS_SELECTORS = Pattern.compile("(^|\\})((^|([^\\{:])+):)+([^\\{]*\\{)");
+	private static final Pattern SPACES_BEFORE = Pattern.compile("\\s+([!{};:>+\\(\\)\\],])");
+	private static final Pattern IMPORTANT = Pattern.compile("!important");
+	private static final Pattern PSEUDO_CLASS_COLON = Pattern.compile("___YUICSSMIN_PSEUDOCLASSCOLON___");
+	private static final Pattern FIRST_LINE_LETTER = Pattern.compile("(?i):first\\-(line|letter)(\\{|,)");
+	private static final Pattern COMMENT_END_SPACE = Pattern.compile("\\*/ ");
+	private static final Pattern CHARSET = Pattern.compile("(?i)^(.*)(@charset)( \"[^\"]*\";)");
+	private static final Pattern CHARSETS = Pattern.compile("(?i)^((\\s*)(@charset)( [^;]+;\\s*))+");
+	private static final Pattern DIRECTIVES = Pattern.compile("(?i)@(font-face|import|(?:-(?:atsc|khtml|moz|ms|o|wap|webkit)-)?keyframe|media|page|namespace)");
+	private static final Pattern PSEUDO_ELEMENTS = Pattern.compile("(?i):(active|after|before|checked|disabled|empty|enabled|first-(?:child|of-type)|focus|hover|last-(?:child|of-type)|link|only-(?:child|of-type)|root|:selection|target|visited)");
+	private static final Pattern PSEUDO_FUNCTIONS = Pattern.compile("(?i):(lang|not|nth-child|nth-last-child|nth-last-of-type|nth-of-type|(?:-(?:moz|webkit)-)?any)\\(");
+	private static final Pattern VALUE_FUNCTIONS = Pattern.compile("(?i)([:,\\( ]\\s*)(attr|color-stop|from|rgba|to|url|(?:-(?:atsc|khtml|moz|ms|o|wap|webkit)-)?(?:calc|max|min|(?:repeating-)?(?:linear|radial)-gradient)|-webkit-gradient)");
+	private static final Pattern AND = Pattern.compile("(?i)\\band\\(");
+	private static final Pattern SPACES_AFTER = Pattern.compile("([!{}:;>+\\(\\[,])\\s+");
+	private static final Pattern SEMICOLONS_BEFORE_END = Pattern.compile(";+}");
+	private static final Pattern ZERO_UNITS = Pattern.compile("(?i)(^|: ?)((?:[0-9a-z-.]+ )*?)?(?:0?\\.)?0(?:px|em|%|in|cm|mm|pc|pt|ex|m?s|k?hz)");
+	private static final Pattern ZERO_UNITS_IN_GROUPS = Pattern.compile("(?i)\\( ?((?:[0-9a-z-.]+[ ,])*)?(?:0?\\.)?0(?:px|em|%|in|cm|mm|pc|pt|ex|m?s|k?hz)");
+	private static final Pattern ZERO_FRACTION = Pattern.compile("([0-9])\\.0(px|em|%|in|cm|mm|pc|pt|ex|m?s|k?hz| |;)");
+	private static final Pattern FOUR_ZEROS = Pattern.compile(":0 0 0 0(;|})");
+	private static final Pattern THREE_ZEROS = Pattern.compile(":0 0 0(;|})");
+	private static final Pattern TWO_ZEROS = Pattern.compile("(?<!flex):0 0(;|})");
+	private static final Pattern ZERO_POSITION = Pattern.compile("(?i)(background-position|webkit-mask-position|transform-origin|webkit-transform-origin|moz-transform-origin|o-transform-origin|ms-transform-origin):0(;|})");
+	private static final Pattern LEADING_ZERO = Pattern.compile("(:|\\s)0+\\.(\\d+)");
+	private static final Pattern RGB = Pattern.compile("rgb\\s*\\(\\s*([0-9,\\s]+)\\s*\\)");
+	private static final Pattern HEX_COLOR = Pattern.compile("(\\=\\s*?[\"']?)?" + "#([0-9a-fA-F])([0-9a-fA-F])([0-9a-fA-F])([0-9a-fA-F])([0-9a-fA-F])([0-9a-fA-F])" + "(:?\\}|[^0-9a-fA-F{][^{]*?\\})");
+	private static final Pattern COLOR_KEYWORDS = Pattern.compile("(:|\\s)(#f00|#000080|#808080|#808000|#800080|#c0c0c0|#008080|#ffa500|#800000)(;|})");
+	private static final Pattern NONE = Pattern.compile("(?i)(border|border-top|border-right|border-bottom|border-left|outline|background):none(;|})");
+	private static final Pattern QUERY_FRACTION = Pattern.compile("\\(([\\-A-Za-z]+):([0-9]+)\\/([0-9]+)\\)");
+	private static final Pattern EMPTY_RULES = Pattern.compile("[^\\}\\{/;]+\\{\\}");
+	private static final Pattern QUERY_FRACTION_TOKEN = Pattern.compile("___YUI_QUERY_FRACTION___");
+	private static final Pattern SEMICOLONS = Pattern.compile(";;+");
+	private static final Pattern CALC_EXPRESSION = Pattern.compile("calc\\([^\\)]*\\)");
+	private static final Pattern CALC_PLUS = Pattern.compile("(?<=[-|%|px|em|rem|vw|\\d]+)\\+");
+	private static final Pattern CALC_MINUS = Pattern.compile("(?<=[-|%|px|em|rem|vw|\\d]+)\\-");
+	private static final Pattern CALC_TIMES = Pattern.compile("(?<=[-|%|px|em|rem|vw|\\d]+)\\*");
+	private static final Pattern CALC_DIVIDE = Pattern.compile("(?<=[-|%|px|em|rem|vw|\\d]+)\\/");
+
+	private final String src;
 
 	public YuiCssCompressor(Reader in) throws IOException {
-		int c;
-		while ((c = in.read()) != -1) {
-			srcsb.append((char) c);
+		StringBuilder sb = new StringBuilder(16 * 1024);
+		char[] buf = new char[8192];
+		int n;
+		while ((n = in.read(buf)) != -1) {
+			sb.append(buf, 0, n);
 		}
+		src = sb.toString();
 	}
 
 	 /**
      * @param css - full css string
      * @param preservedToken - token to preserve
-     * @param tokenRegex - regex to find token
+     * @param tokenPattern - pattern to find token
      * @param removeWhiteSpace - remove any white space in the token
      * @param preservedTokens - array of token values
      * @return
      */
     protected String preserveToken(String css, String preservedToken,
-            String tokenRegex, boolean removeWhiteSpace, ArrayList preservedTokens) {
+            Pattern tokenPattern, boolean removeWhiteSpace, List<String> preservedTokens) {
 
         int maxIndex = css.length() - 1;
         int appendIndex = 0;
 
-        StringBuffer sb = new StringBuffer();
+        StringBuilder sb = new StringBuilder(css.length());
 
-        Pattern p = Pattern.compile(tokenRegex);
-        Matcher m = p.matcher(css);
+        Matcher m = tokenPattern.matcher(css);
 
         while (m.find()) {
             int startIndex = m.start() + (preservedToken.length() + 1);
@@ -80,26 +137,25 @@ public class YuiCssCompressor {
             }
 
             // Enough searching, start moving stuff over to the buffer
-            sb.append(css.substring(appendIndex, m.start()));
+            sb.append(css, appendIndex, m.start());
 
             if (foundTerminator) {
                 String token = css.substring(startIndex, endIndex);
                 if(removeWhiteSpace)
-                    token = token.replaceAll("\\s+", "");
+                    token = WHITESPACE.matcher(token).replaceAll("");
                 preservedTokens.add(token);
 
-                String preserver = preservedToken + "(___YUICSSMIN_PRESERVED_TOKEN_" + (preservedTokens.size() - 1) + "___)";
-                sb.append(preserver);
+                sb.append(preservedToken).append('(').append(TOKEN_PLACEHOLDER).append(preservedTokens.size() - 1).append(PLACEHOLDER_END).append(')');
 
                 appendIndex = endIndex + 1;
             } else {
                 // No end terminator found, re-add the whole match. Should we throw/warn here?
-                sb.append(css.substring(m.start(), m.end()));
+                sb.append(css, m.start(), m.end());
                 appendIndex = m.end();
             }
         }
 
-        sb.append(css.substring(appendIndex));
+        sb.append(css, appendIndex, css.length());
 
         return sb.toString();
     }
@@ -107,47 +163,29 @@ public class YuiCssCompressor {
     public void compress(Writer out, int linebreakpos)
             throws IOException {
 
-        Pattern p;
         Matcher m;
-        String css = srcsb.toString();
+        String css = src;
+        boolean sequential = css.contains(PLACEHOLDER_MARKER);
 
-        int startIndex = 0;
-        int endIndex = 0;
         int i = 0;
-        int max = 0;
-        ArrayList preservedTokens = new ArrayList(0);
-        ArrayList comments = new ArrayList(0);
+        List<String> preservedTokens = new ArrayList<>();
+        List<String> comments = new ArrayList<>();
         String token;
-        int totallen = css.length();
-        String placeholder;
-
 
-        StringBuffer sb = new StringBuffer(css);
+        StringBuilder sb;
 
         // collect all comment blocks...
-        while ((startIndex = sb.indexOf("/*", startIndex)) >= 0) {
-            endIndex = sb.indexOf("*/", startIndex + 2);
-            if (endIndex < 0) {
-                endIndex = totallen;
-            }
+        css = collectComments(css, comments);
 
-            token = sb.substring(startIndex + 2, endIndex);
-            comments.add(token);
-            sb.replace(startIndex + 2, endIndex, "___YUICSSMIN_PRESERVE_CANDIDATE_COMMENT_" + (comments.size() - 1) + "___");
-            startIndex += 2;
-        }
-        css = sb.toString();
 
-
-        css = this.preserveToken(css, "url", "(?i)url\\(\\s*([\"']?)data\\:", true, preservedTokens);
-        css = this.preserveToken(css, "calc",  "(?i)calc\\(\\s*([\"']?)", false, preservedTokens);
-        css = this.preserveToken(css, "progid:DXImageTransform.Microsoft.Matrix",  "(?i)progid:DXImageTransform.Microsoft.Matrix\\s*([\"']?)", false, preservedTokens);
+        css = this.preserveToken(css, "url", DATA_URL, true, preservedTokens);
+        css = this.preserveToken(css, "calc", CALC, false, preservedTokens);
+        css = this.preserveToken(css, "progid:DXImageTransform.Microsoft.Matrix", MATRIX, false, preservedTokens);
 
 
         // preserve strings so their content doesn't get accidentally minified
-        sb = new StringBuffer();
-        p = Pattern.compile("(\"([^\\\\\"]|\\\\.|\\\\)*\")|(\'([^\\\\\']|\\\\.|\\\\)*\')");
-        m = p.matcher(css);
+        sb = new StringBuilder(css.length());
+        m = STRINGS.matcher(css);
         while (m.find()) {
             token = m.group();
             char quote = token.charAt(0);
@@ -155,17 +193,15 @@ public class YuiCssCompressor {
 
             // maybe the string contains a comment-like substring?
             // one, maybe more? put'em back then
-            if (token.indexOf("___YUICSSMIN_PRESERVE_CANDIDATE_COMMENT_") >= 0) {
-                for (i = 0, max = comments.size(); i < max; i += 1) {
-                    token = token.replace("___YUICSSMIN_PRESERVE_CANDIDATE_COMMENT_" + i + "___", comments.get(i).toString());
-                }
+            if (token.indexOf(COMMENT_PLACEHOLDER) >= 0) {
+                token = restore(token, COMMENT_PLACEHOLDER, COMMENT_PLACEHOLDERS, comments, sequential);
             }
 
             // minify alpha opacity in filter strings
-            token = token.replaceAll("(?i)progid:DXImageTransform.Microsoft.Alpha\\(Opacity=", "alpha(opacity=");
+            token = ALPHA_OPACITY.matcher(token).replaceAll("alpha(opacity=");
 
             preservedTokens.add(token);
-            String preserver = quote + "___YUICSSMIN_PRESERVED_TOKEN_" + (preservedTokens.size() - 1) + "___" + quote;
+            String preserver = quote + TOKEN_PLACEHOLDER + (preservedTokens.size() - 1) + PLACEHOLDER_END + quote;
             m.appendReplacement(sb, preserver);
         }
         m.appendTail(sb);
@@ -173,81 +209,40 @@ public class YuiCssCompressor {
 
 
         // strings are safe, now wrestle the comments
-        for (i = 0, max = comments.size(); i < max; i += 1) {
-
-            token = comments.get(i).toString();
-            placeholder = "___YUICSSMIN_PRESERVE_CANDIDATE_COMMENT_" + i + "___";
-
-            // ! in the first position of the comment means preserve
-            // so push to the preserved tokens while stripping the !
-            if (token.startsWith("!")) {
-                preservedTokens.add(token);
-                css = css.replace(placeholder,  "___YUICSSMIN_PRESERVED_TOKEN_" + (preservedTokens.size() - 1) + "___");
-                continue;
-            }
-
-            // \ in the last position looks like hack for Mac/IE5
-            // shorten that to /*\*/ and the next one to /**/
-            if (token.endsWith("\\")) {
-                preservedTokens.add("\\");
-                css = css.replace(placeholder,  "___YUICSSMIN_PRESERVED_TOKEN_" + (preservedTokens.size() - 1) + "___");
-                i = i + 1; // attn: advancing the loop
-                preservedTokens.add("");
-                css = css.replace("___YUICSSMIN_PRESERVE_CANDIDATE_COMMENT_" + i + "___",  "___YUICSSMIN_PRESERVED_TOKEN_" + (preservedTokens.size() - 1) + "___");
-                continue;
-            }
-
-            // keep empty comments after child selectors (IE7 hack)
-            // e.g. html >/**/ body
-            if (token.length() == 0) {
-                startIndex = css.indexOf(placeholder);
-                if (startIndex > 2) {
-                    if (css.charAt(startIndex - 3) == '>') {
-                        preservedTokens.add("");
-                        css = css.replace(placeholder,  "___YUICSSMIN_PRESERVED_TOKEN_" + (preservedTokens.size() - 1) + "___");
-                    }
-                }
-            }
-
-            // in all other cases kill the comment
-            css = css.replace("/*" + placeholder + "*/", "");
-        }
+        css = (sequential) ? wrestleCommentsSequentially(css, comments, preservedTokens) : wrestleComments(css, comments, preservedTokens);
 
         // preserve \9 IE hack
-        final String backslash9 = "\\9"; 
-        while (css.indexOf(backslash9) > -1) {
+        final String backslash9 = "\\9";
+        if (css.indexOf(backslash9) > -1) {
             preservedTokens.add(backslash9);
-            css = css.replace(backslash9,  "___YUICSSMIN_PRESERVED_TOKEN_" + (preservedTokens.size() - 1) + "___");
+            css = css.replace(backslash9, TOKEN_PLACEHOLDER + (preservedTokens.size() - 1) + PLACEHOLDER_END);
      	}
-        
+
         // Normalize all whitespace strings to single spaces. Easier to work with that way.
-        css = css.replaceAll("\\s+", " ");
+        css = WHITESPACE.matcher(css).replaceAll(" ");
 
         // Remove the spaces before the things that should not have spaces before them.
         // But, be careful not to turn "p :link {...}" into "p:link{...}"
         // Swap out any pseudo-class colons with the token, and then swap back.
-        sb = new StringBuffer();
-        p = Pattern.compile("(^|\\})((^|([^\\{:])+):)+([^\\{]*\\{)");
-        m = p.matcher(css);
+        sb = new StringBuilder(css.length());
+        m = PSEUDO_CLASS_SELECTORS.matcher(css);
         while (m.find()) {
             String s = m.group();
-            s = s.replaceAll(":", "___YUICSSMIN_PSEUDOCLASSCOLON___");
-            s = s.replaceAll( "\\\\", "\\\\\\\\" ).replaceAll( "\\$", "\\\\\\$" );
-            m.appendReplacement(sb, s);
+            s = s.replace(":", "___YUICSSMIN_PSEUDOCLASSCOLON___");
+            m.appendReplacement(sb, Matcher.quoteReplacement(s));
         }
         m.appendTail(sb);
         css = sb.toString();
         // Remove spaces before the things that should not have spaces before them.
-        css = css.replaceAll("\\s+([!{};:>+\\(\\)\\],])", "$1");
+        css = SPACES_BEFORE.matcher(css).replaceAll("$1");
         // Restore spaces for !important
-        css = css.replaceAll("!important", " !important");
+        css = IMPORTANT.matcher(css).replaceAll(" !important");
         // bring back the colon
-        css = css.replaceAll("___YUICSSMIN_PSEUDOCLASSCOLON___", ":");
+        css = PSEUDO_CLASS_COLON.matcher(css).replaceAll(":");
 
         // retain space for special IE6 cases
-        sb = new StringBuffer();
-        p = Pattern.compile("(?i):first\\-(line|letter)(\\{|,)");
-        m = p.matcher(css);
+        sb = new StringBuilder(css.length());
+        m = FIRST_LINE_LETTER.matcher(css);
         while (m.find()) {
             m.appendReplacement(sb, ":first-" + m.group(1).toLowerCase() + " " + m.group(2));
         }
@@ -255,23 +250,21 @@ public class YuiCssCompressor {
         css = sb.toString();
 
         // no space after the end of a preserved comment
-        css = css.replaceAll("\\*/ ", "*/");
+        css = COMMENT_END_SPACE.matcher(css).replaceAll("*/");
 
         // If there are multiple @charset directives, push them to the top of the file.
-        sb = new StringBuffer();
-        p = Pattern.compile("(?i)^(.*)(@charset)( \"[^\"]*\";)");
-        m = p.matcher(css);
+        sb = new StringBuilder(css.length());
+        m = CHARSET.matcher(css);
         while (m.find()) {
-            String s = m.group(1).replaceAll("\\\\", "\\\\\\\\").replaceAll("\\$", "\\\\\\$");
+            String s = Matcher.quoteReplacement(m.group(1));
             m.appendReplacement(sb, m.group(2).toLowerCase() + m.group(3) + s);
         }
         m.appendTail(sb);
         css = sb.toString();
 
         // When all @charset are at the top, remove the second and after (as they are completely ignored).
-        sb = new StringBuffer();
-        p = Pattern.compile("(?i)^((\\s*)(@charset)( [^;]+;\\s*))+");
-        m = p.matcher(css);
+        sb = new StringBuilder(css.length());
+        m = CHARSETS.matcher(css);
         while (m.find()) {
             m.appendReplacement(sb, m.group(2) + m.group(3).toLowerCase() + m.group(4));
         }
@@ -279,9 +272,8 @@ public class YuiCssCompressor {
         css = sb.toString();
 
         // lowercase some popular @directives (@charset is done right above)
-        sb = new StringBuffer();
-        p = Pattern.compile("(?i)@(font-face|import|(?:-(?:atsc|khtml|moz|ms|o|wap|webkit)-)?keyframe|media|page|namespace)");
-        m = p.matcher(css);
+        sb = new StringBuilder(css.length());
+        m = DIRECTIVES.matcher(css);
         while (m.find()) {
             m.appendReplacement(sb, '@' + m.group(1).toLowerCase());
         }
@@ -289,9 +281,8 @@ public class YuiCssCompressor {
         css = sb.toString();
 
         // lowercase some more common pseudo-elements
-        sb = new StringBuffer();
-        p = Pattern.compile("(?i):(active|after|before|checked|disabled|empty|enabled|first-(?:child|of-type)|focus|hover|last-(?:child|of-type)|link|only-(?:child|of-type)|root|:selection|target|visited)");
-        m = p.matcher(css);
+        sb = new StringBuilder(css.length());
+        m = PSEUDO_ELEMENTS.matcher(css);
         while (m.find()) {
             m.appendReplacement(sb, ':' + m.group(1).toLowerCase());
         }
@@ -299,9 +290,8 @@ public class YuiCssCompressor {
         css = sb.toString();
 
         // lowercase some more common functions
-        sb = new StringBuffer();
-        p = Pattern.compile("(?i):(lang|not|nth-child|nth-last-child|nth-last-of-type|nth-of-type|(?:-(?:moz|webkit)-)?any)\\(");
-        m = p.matcher(css);
+        sb = new StringBuilder(css.length());
+        m = PSEUDO_FUNCTIONS.matcher(css);
         while (m.find()) {
             m.appendReplacement(sb, ':' + m.group(1).toLowerCase() + '(');
         }
@@ -310,9 +300,8 @@ public class YuiCssCompressor {
 
         // lower case some common function that can be values
         // NOTE: rgb() isn't useful as we replace with #hex later, as well as and() is already done for us right after this
-        sb = new StringBuffer();
-        p = Pattern.compile("(?i)([:,\\( ]\\s*)(attr|color-stop|from|rgba|to|url|(?:-(?:atsc|khtml|moz|ms|o|wap|webkit)-)?(?:calc|max|min|(?:repeating-)?(?:linear|radial)-gradient)|-webkit-gradient)");
-        m = p.matcher(css);
+        sb = new StringBuilder(css.length());
+        m = VALUE_FUNCTIONS.matcher(css);
         while (m.find()) {
             m.appendReplacement(sb, m.group(1) + m.group(2).toLowerCase());
         }
@@ -321,45 +310,40 @@ public class YuiCssCompressor {
 
         // Put the space back in some cases, to support stuff like
         // @media screen and (-webkit-min-device-pixel-ratio:0){
-        css = css.replaceAll("(?i)\\band\\(", "and (");
+        css = AND.matcher(css).replaceAll("and (");
 
         // Remove the spaces after the things that should not have spaces after them.
-        css = css.replaceAll("([!{}:;>+\\(\\[,])\\s+", "$1");
+        css = SPACES_AFTER.matcher(css).replaceAll("$1");
 
         // remove unnecessary semicolons
-        css = css.replaceAll(";+}", "}");
+        css = SEMICOLONS_BEFORE_END.matcher(css).replaceAll("}");
 
         // Replace 0(px,em,%) with 0.
         String oldCss;
-        p = Pattern.compile("(?i)(^|: ?)((?:[0-9a-z-.]+ )*?)?(?:0?\\.)?0(?:px|em|%|in|cm|mm|pc|pt|ex|m?s|k?hz)");
         do {
           oldCss = css;
-          m = p.matcher(css);
-          css = m.replaceAll("$1$20");
+          css = ZERO_UNITS.matcher(css).replaceAll("$1$20");
         } while (!(css.equals(oldCss)));
 
         // Replace 0(px,em,%) with 0 inside groups (e.g. -MOZ-RADIAL-GRADIENT(CENTER 45DEG, CIRCLE CLOSEST-SIDE, ORANGE 0%, RED 100%))
-        p = Pattern.compile("(?i)\\( ?((?:[0-9a-z-.]+[ ,])*)?(?:0?\\.)?0(?:px|em|%|in|cm|mm|pc|pt|ex|m?s|k?hz)");
         do {
           oldCss = css;
-          m = p.matcher(css);
-          css = m.replaceAll("($10");
+          css = ZERO_UNITS_IN_GROUPS.matcher(css).replaceAll("($10");
         } while (!(css.equals(oldCss)));
 
         // Replace x.0(px,em,%) with x(px,em,%).
-        css = css.replaceAll("([0-9])\\.0(px|em|%|in|cm|mm|pc|pt|ex|m?s|k?hz| |;)", "$1$2");
+        css = ZERO_FRACTION.matcher(css).replaceAll("$1$2");
 
         // Replace 0 0 0 0; with 0.
-        css = css.replaceAll(":0 0 0 0(;|})", ":0$1");
-        css = css.replaceAll(":0 0 0(;|})", ":0$1");
-        css = css.replaceAll("(?<!flex):0 0(;|})", ":0$1");
+        css = FOUR_ZEROS.matcher(css).replaceAll(":0$1");
+        css = THREE_ZEROS.matcher(css).replaceAll(":0$1");
+        css = TWO_ZEROS.matcher(css).replaceAll(":0$1");
 
 
         // Replace background-position:0; with background-position:0 0;
         // same for transform-origin
-        sb = new StringBuffer();
-        p = Pattern.compile("(?i)(background-position|webkit-mask-position|transform-origin|webkit-transform-origin|moz-transform-origin|o-transform-origin|ms-transform-origin):0(;|})");
-        m = p.matcher(css);
+        sb = new StringBuilder(css.length());
+        m = ZERO_POSITION.matcher(css);
         while (m.find()) {
             m.appendReplacement(sb, m.group(1).toLowerCase() + ":0 0" + m.group(2));
         }
@@ -367,16 +351,15 @@ public class YuiCssCompressor {
         css = sb.toString();
 
         // Replace 0.6 to .6, but only when preceded by : or a white-space
-        css = css.replaceAll("(:|\\s)0+\\.(\\d+)", "$1.$2");
+        css = LEADING_ZERO.matcher(css).replaceAll("$1.$2");
 
         // Shorten colors from rgb(51,102,153) to #336699
         // This makes it more likely that it'll get further compressed in the next step.
-        p = Pattern.compile("rgb\\s*\\(\\s*([0-9,\\s]+)\\s*\\)");
-        m = p.matcher(css);
-        sb = new StringBuffer();
+        m = RGB.matcher(css);
+        sb = new StringBuilder(css.length());
         while (m.find()) {
             String[] rgbcolors = m.group(1).split(",");
-            StringBuffer hexcolor = new StringBuffer("#");
+            StringBuilder hexcolor = new StringBuilder("#");
             for (i = 0; i < rgbcolors.length; i++) {
                 int val = Integer.parseInt(rgbcolors[i]);
                 if (val < 16) {
@@ -403,58 +386,52 @@ public class YuiCssCompressor {
         // which makes the filter break in IE.
         // We also want to make sure we're only compressing #AABBCC patterns inside { }, not id selectors ( #FAABAC {} )
         // We also want to avoid compressing invalid values (e.g. #AABBCCD to #ABCD)
-        p = Pattern.compile("(\\=\\s*?[\"']?)?" + "#([0-9a-fA-F])([0-9a-fA-F])([0-9a-fA-F])([0-9a-fA-F])([0-9a-fA-F])([0-9a-fA-F])" + "(:?\\}|[^0-9a-fA-F{][^{]*?\\})");
-
-        m = p.matcher(css);
-        sb = new StringBuffer();
+        m = HEX_COLOR.matcher(css);
+        sb = new StringBuilder(css.length());
         int index = 0;
 
         while (m.find(index)) {
 
-            sb.append(css.substring(index, m.start()));
+            sb.append(css, index, m.start());
 
             boolean isFilter = (m.group(1) != null && !"".equals(m.group(1)));
 
             if (isFilter) {
                 // Restore, as is. Compression will break filters
-                sb.append(m.group(1) + "#" + m.group(2) + m.group(3) + m.group(4) + m.group(5) + m.group(6) + m.group(7));
+                sb.append(m.group(1)).append('#').append(m.group(2)).append(m.group(3)).append(m.group(4)).append(m.group(5)).append(m.group(6)).append(m.group(7));
             } else {
                 if( m.group(2).equalsIgnoreCase(m.group(3)) &&
                     m.group(4).equalsIgnoreCase(m.group(5)) &&
                     m.group(6).equalsIgnoreCase(m.group(7))) {
 
                     // #AABBCC pattern
-                    sb.append("#" + (m.group(3) + m.group(5) + m.group(7)).toLowerCase());
+                    sb.append('#').append((m.group(3) + m.group(5) + m.group(7)).toLowerCase());
 
                 } else {
 
                     // Non-compressible color, restore, but lower case.
-                    sb.append("#" + (m.group(2) + m.group(3) + m.group(4) + m.group(5) + m.group(6) + m.group(7)).toLowerCase());
+                    sb.append('#').append((m.group(2) + m.group(3) + m.group(4) + m.group(5) + m.group(6) + m.group(7)).toLowerCase());
                 }
             }
 
             index = m.end(7);
         }
 
-        sb.append(css.substring(index));
+        sb.append(css, index, css.length());
         css = sb.toString();
 
-        // Replace #f00 -> red
-        css = css.replaceAll("(:|\\s)(#f00)(;|})", "$1red$3");
-        // Replace other short color keywords
-        css = css.replaceAll("(:|\\s)(#000080)(;|})", "$1navy$3");
-        css = css.replaceAll("(:|\\s)(#808080)(;|})", "$1gray$3");
-        css = css.replaceAll("(:|\\s)(#808000)(;|})", "$1olive$3");
-        css = css.replaceAll("(:|\\s)(#800080)(;|})", "$1purple$3");
-        css = css.replaceAll("(:|\\s)(#c0c0c0)(;|})", "$1silver$3");
-        css = css.replaceAll("(:|\\s)(#008080)(;|})", "$1teal$3");
-        css = css.replaceAll("(:|\\s)(#ffa500)(;|})", "$1orange$3");
-        css = css.replaceAll("(:|\\s)(#800000)(;|})", "$1maroon$3");
+        // Replace #f00 -> red and other short color keywords
+        sb = new StringBuilder(css.length());
+        m = COLOR_KEYWORDS.matcher(css);
+        while (m.find()) {
+            m.appendReplacement(sb, m.group(1) + colorKeyword(m.group(2)) + m.group(3));
+        }
+        m.appendTail(sb);
+        css = sb.toString();
 
         // border: none -> border:0
-        sb = new StringBuffer();
-        p = Pattern.compile("(?i)(border|border-top|border-right|border-bottom|border-left|outline|background):none(;|})");
-        m = p.matcher(css);
+        sb = new StringBuilder(css.length());
+        m = NONE.matcher(css);
         while (m.find()) {
             m.appendReplacement(sb, m.group(1).toLowerCase() + ":0" + m.group(2));
         }
@@ -462,17 +439,17 @@ public class YuiCssCompressor {
         css = sb.toString();
 
         // shorter opacity IE filter
-        css = css.replaceAll("(?i)progid:DXImageTransform.Microsoft.Alpha\\(Opacity=", "alpha(opacity=");
+        css = ALPHA_OPACITY.matcher(css).replaceAll("alpha(opacity=");
 
         // Find a fraction that is used for Opera's -o-device-pixel-ratio query
         // Add token to add the "\" back in later
-        css = css.replaceAll("\\(([\\-A-Za-z]+):([0-9]+)\\/([0-9]+)\\)", "($1:$2___YUI_QUERY_FRACTION___$3)");
+        css = QUERY_FRACTION.matcher(css).replaceAll("($1:$2___YUI_QUERY_FRACTION___$3)");
 
         // Remove empty rules.
-        css = css.replaceAll("[^\\}\\{/;]+\\{\\}", "");
+        css = EMPTY_RULES.matcher(css).replaceAll("");
 
         // Add "\" back to fix Opera -o-device-pixel-ratio query
-        css = css.replaceAll("___YUI_QUERY_FRACTION___", "/");
+        css = QUERY_FRACTION_TOKEN.matcher(css).replaceAll("/");
 
         // TODO: Should this be after we re-insert tokens. These could alter the break points. However then
         // we'd need to make sure we don't break in the middle of a string etc.
@@ -480,14 +457,14 @@ public class YuiCssCompressor {
             // Some source control tools don't like it when files containing lines longer
             // than, say 8000 characters, are checked in. The linebreak option is used in
             // that case to split long lines after a specific column.
-            i = 0;
             int linestartpos = 0;
-            sb = new StringBuffer(css);
-            while (i < sb.length()) {
-                char c = sb.charAt(i++);
-                if (c == '}' && i - linestartpos > linebreakpos) {
-                    sb.insert(i, '\n');
-                    linestartpos = i;
+            sb = new StringBuilder(css.length() + css.length() / Math.max(linebreakpos, 1) + 16);
+            for (i = 0; i < css.length(); i++) {
+                char c = css.charAt(i);
+                sb.append(c);
+                if (c == '}' && sb.length() - linestartpos > linebreakpos) {
+                    linestartpos = sb.length();
+                    sb.append('\n');
                 }
             }
 
@@ -496,31 +473,28 @@ public class YuiCssCompressor {
 
         // Replace multiple semi-colons in a row by a single one
         // See SF bug #1980989
-        css = css.replaceAll(";;+", ";");
+        css = SEMICOLONS.matcher(css).replaceAll(";");
 
         // restore preserved comments and strings
-        for(i = 0, max = preservedTokens.size(); i < max; i++) {
-            css = css.replace("___YUICSSMIN_PRESERVED_TOKEN_" + i + "___", preservedTokens.get(i).toString());
-        }
-        
+        css = restore(css, TOKEN_PLACEHOLDER, TOKEN_PLACEHOLDERS, preservedTokens, sequential);
+
         // Add spaces back in between operators for css calc function
         // https://developer.mozilla.org/en-US/docs/Web/CSS/calc
         // Added by Eric Arnol-Martin (earnolmartin@gmail.com)
-        sb = new StringBuffer();
-        p = Pattern.compile("calc\\([^\\)]*\\)");
-        m = p.matcher(css);
+        sb = new StringBuilder(css.length());
+        m = CALC_EXPRESSION.matcher(css);
         while (m.find()) {
             String s = m.group();
-            
-            s = s.replaceAll("(?<=[-|%|px|em|rem|vw|\\d]+)\\+", " + ");
-            s = s.replaceAll("(?<=[-|%|px|em|rem|vw|\\d]+)\\-", " - ");
-            s = s.replaceAll("(?<=[-|%|px|em|rem|vw|\\d]+)\\*", " * ");
-            s = s.replaceAll("(?<=[-|%|px|em|rem|vw|\\d]+)\\/", " / ");
-            
+
+            s = CALC_PLUS.matcher(s).replaceAll(" + ");
+            s = CALC_MINUS.matcher(s).replaceAll(" - ");
+            s = CALC_TIMES.matcher(s).replaceAll(" * ");
+            s = CALC_DIVIDE.matcher(s).replaceAll(" / ");
+
             m.appendReplacement(sb, s);
         }
         m.appendTail(sb);
-        css = sb.toString(); 
+        css = sb.toString();
 
         // Trim the final string (for any leading or trailing white spaces)
         css = css.trim();
@@ -528,4 +502,216 @@ public class YuiCssCompressor {
         // Write the output...
         out.write(css);
     }
-}
\ No newline at end of file
+
+    /**
+     * Replaces the content of each comment with a placeholder, copying the stylesheet once. An unterminated comment is
+     * left to {@link #collectCommentsInPlace(StringBuilder, int, List)}.
+     */
+    private static String collectComments(String css, List<String> comments) {
+
+        StringBuilder sb = new StringBuilder(css.length());
+        int appendIndex = 0;
+        int startIndex;
+
+        while ((startIndex = css.indexOf("/*", appendIndex)) >= 0) {
+            int endIndex = css.indexOf("*/", startIndex + 2);
+            if (endIndex < 0) {
+                int at = sb.length() + startIndex - appendIndex;
+                sb.append(css, appendIndex, css.length());
+                collectCommentsInPlace(sb, at, css.length(), comments);
+                return sb.toString();
+            }
+
+            comments.add(css.substring(startIndex + 2, endIndex));
+            sb.append(css, appendIndex, startIndex + 2).append(COMMENT_PLACEHOLDER).append(comments.size() - 1).append(PLACEHOLDER_END);
+            // the closing */ is searched again, as its slash may open the next comment
+            appendIndex = endIndex;
+        }
+
+        sb.append(css, appendIndex, css.length());
+        return sb.toString();
+    }
+
+    /**
+     * Collects comments from an unterminated one on, in place, measuring the unterminated comment against the length
+     * of the original stylesheet as the upstream compressor does.
+     */
+    private static void collectCommentsInPlace(StringBuilder sb, int startIndex, int totallen, List<String> comments) {
+
+        int endIndex;
+        while ((startIndex = sb.indexOf("/*", startIndex)) >= 0) {
+            endIndex = sb.indexOf("*/", startIndex + 2);
+            if (endIndex < 0) {
+                endIndex = totallen;
+            }
+
+            String token = sb.substring(startIndex + 2, endIndex);
+            comments.add(token);
+            sb.replace(startIndex + 2, endIndex, COMMENT_PLACEHOLDER + (comments.size() - 1) + PLACEHOLDER_END);
+            startIndex += 2;
+        }
+    }
+
+    /**
+     * Keeps, shortens or removes each comment placeholder in one pass. Comments are decided in order, and those whose
+     * placeholder ended up inside a preserved token or string still take their token number, so tokens are numbered
+     * as when each comment is replaced in turn.
+     */
+    private static String wrestleComments(String css, List<String> comments, List<String> preservedTokens) {
+
+        StringBuilder sb = new StringBuilder(css.length());
+        Matcher m = COMMENT_PLACEHOLDERS.matcher(css);
+        boolean found = m.find();
+        int appendIndex = 0;
+
+        for (int i = 0, max = comments.size(); i < max; i += 1) {
+
+            String token = comments.get(i);
+            boolean present = found && Integer.parseInt(m.group(1)) == i;
+            if (present) {
+                sb.append(css, appendIndex, m.start());
+                appendIndex = m.end();
+            }
+
+            // ! in the first position of the comment means preserve
+            // so push to the preserved tokens while stripping the !
+            // \ in the last position looks like hack for Mac/IE5
+            // shorten that to /*\*/ and the next one to /**/
+            // keep empty comments after child selectors (IE7 hack)
+            // e.g. html >/**/ body
+            boolean hack = !token.startsWith("!") && token.endsWith("\\");
+            String kept = null;
+            if (token.startsWith("!"))
+                kept = token;
+            else if (hack)
+                kept = "\\";
+            else if (token.length() == 0 && present && sb.length() > 2 && sb.charAt(sb.length() - 3) == '>')
+                kept = "";
+
+            if (kept != null) {
+                preservedTokens.add(kept);
+                if (present)
+                    sb.append(TOKEN_PLACEHOLDER).append(preservedTokens.size() - 1).append(PLACEHOLDER_END);
+            } else if (present) {
+                // in all other cases kill the comment
+                int length = sb.length();
+                if (length >= 2 && sb.charAt(length - 2) == '/' && sb.charAt(length - 1) == '*' && css.startsWith("*/", appendIndex)) {
+                    sb.setLength(length - 2);
+                    appendIndex += 2;
+                } else {
+                    sb.append(css, m.start(), m.end());
+                }
+            }
+            if (present)
+                found = m.find();
+
+            if (hack) {
+                i = i + 1; // attn: advancing the loop
+                preservedTokens.add("");
+                if (found && Integer.parseInt(m.group(1)) == i) {
+                    sb.append(css, appendIndex, m.start()).append(TOKEN_PLACEHOLDER).append(preservedTokens.size() - 1).append(PLACEHOLDER_END);
+                    appendIndex = m.end();
+                    found = m.find();
+                }
+            }
+        }
+
+        sb.append(css, appendIndex, css.length());
+        return sb.toString();
+    }
+
+    /**
+     * Keeps, shortens or removes the comment placeholders one comment at a time, as the upstream compressor does.
+     */
+    private static String wrestleCommentsSequentially(String css, List<String> comments, List<String> preservedTokens) {
+
+        int startIndex;
+        String token;
+        String placeholder;
+
+        for (int i = 0, max = comments.size(); i < max; i += 1) {
+
+            token = comments.get(i);
+            placeholder = COMMENT_PLACEHOLDER + i + PLACEHOLDER_END;
+
+            // ! in the first position of the comment means preserve
+            // so push to the preserved tokens while stripping the !
+            if (token.startsWith("!")) {
+                preservedTokens.add(token);
+                css = css.replace(placeholder, TOKEN_PLACEHOLDER + (preservedTokens.size() - 1) + PLACEHOLDER_END);
+                continue;
+            }
+
+            // \ in the last position looks like hack for Mac/IE5
+            // shorten that to /*\*/ and the next one to /**/
+            if (token.endsWith("\\")) {
+                preservedTokens.add("\\");
+                css = css.replace(placeholder, TOKEN_PLACEHOLDER + (preservedTokens.size() - 1) + PLACEHOLDER_END);
+                i = i + 1; // attn: advancing the loop
+                preservedTokens.add("");
+                css = css.replace(COMMENT_PLACEHOLDER + i + PLACEHOLDER_END, TOKEN_PLACEHOLDER + (preservedTokens.size() - 1) + PLACEHOLDER_END);
+                continue;
+            }
+
+            // keep empty comments after child selectors (IE7 hack)
+            // e.g. html >/**/ body
+            if (token.length() == 0) {
+                startIndex = css.indexOf(placeholder);
+                if (startIndex > 2) {
+                    if (css.charAt(startIndex - 3) == '>') {
+                        preservedTokens.add("");
+                        css = css.replace(placeholder, TOKEN_PLACEHOLDER + (preservedTokens.size() - 1) + PLACEHOLDER_END);
+                    }
+                }
+            }
+
+            // in all other cases kill the comment
+            css = css.replace("/*" + placeholder + "*/", "");
+        }
+        return css;
+    }
+
+    /**
+     * Replaces numbered placeholders with their values, in one pass unless the values may hold placeholder-like text.
+     */
+    private static String restore(String css, String prefix, Pattern placeholders, List<String> values, boolean sequential) {
+
+        if (sequential) {
+            for (int i = 0, max = values.size(); i < max; i++) {
+                css = css.replace(prefix + i + PLACEHOLDER_END, values.get(i));
+            }
+            return css;
+        }
+
+        StringBuilder sb = new StringBuilder(css.length());
+        Matcher m = placeholders.matcher(css);
+        while (m.find()) {
+            m.appendReplacement(sb, Matcher.quoteReplacement(values.get(Integer.parseInt(m.group(1)))));
+        }
+        m.appendTail(sb);
+        return sb.toString();
+    }
+
+    private static String colorKeyword(String color) {
+        switch (color) {
+        case "#f00":
+            return "red";
+        case "#000080":
+            return "navy";
+        case "#808080":
+            return "gray";
+        case "#808000":
+            return "olive";
+        case "#800080":
+            return "purple";
+        case "#c0c0c0":
+            return "silver";
+        case "#008080":
+            return "teal";
+        case "#ffa500":
+            return "orange";
+        default:
+            return "maroon";
+        }
+    }
+}
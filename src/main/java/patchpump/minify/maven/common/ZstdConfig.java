@@ -0,0 +1,183 @@
+package patchpump.minify.maven.common;
+
+import java.io.IOException;
+
+import com.github.luben.zstd.ZstdCompressCtx;
+import com.github.luben.zstd.ZstdOutputStreamNoFinalizer;
+
+/**
+ * Zstandard settings besides the level, applied to the zst and dcz outputs.
+ *
+ * @author patchpump
+ */
+public class ZstdConfig {
+
+	/**
+	 * Largest window HTTP clients are required to accept for zstd content encoding, RFC 9659.
+	 */
+	public static final int MAX_HTTP_WINDOW_LOG = 23;
+
+	/**
+	 * Largest window dcz clients accept when the dictionary is large, 128 MB, RFC 9842.
+	 */
+	public static final int MAX_DCZ_WINDOW_LOG = 27;
+
+	private static final int MAX_DELTA_TABLE_LOG = 23;
+
+	private final int workers;
+	private final boolean longDistance;
+	private final int windowLog;
+	private final boolean contentSize;
+
+	/**
+	 * Init ZstdConfig values.
+	 *
+	 * @param workers number of zstd worker threads per compressed file, 0 compresses on the calling thread
+	 * @param longDistance enable long distance matching
+	 * @param windowLog base two logarithm of the window size, 0 for the default of the level
+	 * @param contentSize write the content size in the frame header
+	 */
+	public ZstdConfig(int workers, boolean longDistance, int windowLog, boolean contentSize) {
+		this.workers = workers;
+		this.longDistance = longDistance;
+		this.windowLog = windowLog;
+		this.contentSize = contentSize;
+	}
+
+	/**
+	 * Gets the workers.
+	 *
+	 * @return the workers
+	 */
+	public int getWorkers() {
+		return workers;
+	}
+
+	/**
+	 * Gets the longDistance.
+	 *
+	 * @return the longDistance
+	 */
+	public boolean isLongDistance() {
+		return longDistance;
+	}
+
+	/**
+	 * Gets the windowLog.
+	 *
+	 * @return the windowLog
+	 */
+	public int getWindowLog() {
+		return windowLog;
+	}
+
+	/**
+	 * Gets the contentSize.
+	 *
+	 * @return the contentSize
+	 */
+	public boolean isContentSize() {
+		return contentSize;
+	}
+
+	/**
+	 * Tells if all settings are zstd defaults.
+	 *
+	 * @return {@code true} when nothing is configured
+	 */
+	public boolean isDefault() {
+		return workers == 0 && !longDistance && windowLog == 0 && !contentSize;
+	}
+
+	/**
+	 * Applies the settings to a compression stream.
+	 *
+	 * @param out compression stream
+	 * @return the stream
+	 * @throws IOException when a setting is rejected
+	 */
+	public ZstdOutputStreamNoFinalizer configure(ZstdOutputStreamNoFinalizer out) throws IOException {
+
+		if (workers > 0)
+			out.setWorkers(workers);
+		if (longDistance)
+			out.setLong(longDistanceWindowLog());
+		else if (windowLog > 0)
+			out.setWindowLog(windowLog);
+		return out;
+	}
+
+	/**
+	 * Applies the settings to a compression context.
+	 *
+	 * @param ctx compression context
+	 * @return the context
+	 */
+	public ZstdCompressCtx configure(ZstdCompressCtx ctx) {
+
+		if (workers > 0)
+			ctx.setWorkers(workers);
+		if (longDistance)
+			ctx.setLong(longDistanceWindowLog());
+		else if (windowLog > 0)
+			ctx.setWindowLog(windowLog);
+		ctx.setContentSize(contentSize);
+		return ctx;
+	}
+
+	// long distance matching defaults to the largest window HTTP clients accept rather than the 128 MB of zstd --long
+	private int longDistanceWindowLog() {
+		return (windowLog > 0) ? windowLog : MAX_HTTP_WINDOW_LOG;
+	}
+
+	/**
+	 * Applies the settings to a context compressing new content with its previous version as dictionary, as zstd
+	 * --patch-from does: long distance matching on, a window holding both the dictionary and the content, and match
+	 * tables large enough to index the dictionary, which is loaded into the context with these settings.
+	 *
+	 * @param ctx compression context
+	 * @param level zstd level
+	 * @param dictionarySize size of the dictionary
+	 * @param contentSize size of the content
+	 * @return the context
+	 */
+	public ZstdCompressCtx configureDelta(ZstdCompressCtx ctx, int level, long dictionarySize, long contentSize) {
+
+		int deltaWindowLog = deltaWindowLog(dictionarySize, contentSize);
+		if (workers > 0)
+			ctx.setWorkers(workers);
+		ctx.setLevel(level);
+		ctx.setLong(deltaWindowLog);
+		if (level < 20) {
+			// ultra levels have larger tables already
+			ctx.setHashLog(Math.min(deltaWindowLog, MAX_DELTA_TABLE_LOG));
+			ctx.setChainLog(Math.min(deltaWindowLog, MAX_DELTA_TABLE_LOG));
+		}
+		ctx.setContentSize(true);
+		return ctx;
+	}
+
+	/**
+	 * Gets the window of a delta. Dcz clients accept windows up to 8 MB or 1.25 times the dictionary size, whichever is
+	 * larger, and up to 128 MB. When the content fits in that limit, the window holds both the dictionary and the
+	 * content and the frame declares the content size as its window; otherwise the window is the largest power of two
+	 * within the limit.
+	 *
+	 * @param dictionarySize size of the dictionary
+	 * @param contentSize size of the content
+	 * @return base two logarithm of the window size
+	 */
+	public static int deltaWindowLog(long dictionarySize, long contentSize) {
+
+		long accepted = Math.min(Math.max(1L << MAX_HTTP_WINDOW_LOG, dictionarySize + dictionarySize / 4), 1L << MAX_DCZ_WINDOW_LOG);
+		if (contentSize > accepted)
+			return 63 - Long.numberOfLeadingZeros(accepted);
+		int needed = 64 - Long.numberOfLeadingZeros(Math.max(dictionarySize + contentSize - 1, 1));
+		return Math.max(Math.min(needed, MAX_DCZ_WINDOW_LOG), 10);
+	}
+
+	@Override
+	public String toString() {
+		return "ZstdConfig [workers=" + workers + ", longDistance=" + longDistance + ", windowLog=" + windowLog + ", contentSize=" + contentSize + "]";
+	}
+}
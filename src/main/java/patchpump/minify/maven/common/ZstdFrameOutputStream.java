@@ -0,0 +1,113 @@
+package patchpump.minify.maven.common;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdCompressCtx;
+import com.github.luben.zstd.ZstdDictCompress;
+
+/**
+ * Output stream compressing to a single zstd frame on close, once the content size is known, so that the compressor
+ * sizes its window to the content and writes the size in the frame header.
+ *
+ * @author patchpump
+ */
+public class ZstdFrameOutputStream extends OutputStream implements FanOutOutputStream.Abortable {
+
+	private final OutputStream out;
+	private final int level;
+	private final ZstdConfig config;
+	private final ZstdDictCompress dictionary;
+
+	private byte[] buffer = new byte[8192];
+	private int size;
+	private boolean closed;
+
+	/**
+	 * Stream constructor.
+	 *
+	 * @param out target stream, closed with this stream
+	 * @param level zstd level
+	 * @param config zstd settings
+	 * @param dictionary compression dictionary, may be {@code null}
+	 */
+	public ZstdFrameOutputStream(OutputStream out, int level, ZstdConfig config, ZstdDictCompress dictionary) {
+		this.out = out;
+		this.level = level;
+		this.config = config;
+		this.dictionary = dictionary;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		ensureCapacity(1);
+		buffer[size++] = (byte)b;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		ensureCapacity(len);
+		System.arraycopy(b, off, buffer, size, len);
+		size += len;
+	}
+
+	/**
+	 * Does nothing, the content is compressed on close.
+	 */
+	@Override
+	public void flush() {
+	}
+
+	/**
+	 * Compresses the content written so far to the target stream and closes it. Closing again has no effect.
+	 *
+	 * @throws IOException when compression or the target stream fails
+	 */
+	@Override
+	public void close() throws IOException {
+
+		if (closed)
+			return;
+		closed = true;
+
+		try (ZstdCompressCtx ctx = new ZstdCompressCtx()) {
+			ctx.setLevel(level);
+			config.configure(ctx);
+			if (dictionary != null)
+				ctx.loadDict(dictionary);
+
+			byte[] compressed = new byte[(int)Zstd.compressBound(size)];
+			int length = ctx.compressByteArray(compressed, 0, compressed.length, buffer, 0, size);
+			out.write(compressed, 0, length);
+		} catch (RuntimeException e) {
+			throw new IOException("zstd compression failed: " + e.getMessage(), e);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Closes the target stream without compressing the content. Closing again has no effect.
+	 *
+	 * @throws IOException when the target stream fails
+	 */
+	@Override
+	public void abort() throws IOException {
+
+		if (closed)
+			return;
+		closed = true;
+		buffer = null;
+		out.close();
+	}
+
+	private void ensureCapacity(int len) throws IOException {
+
+		if (closed)
+			throw new IOException("stream closed");
+		if (size + len > buffer.length)
+			buffer = Arrays.copyOf(buffer, Math.max(size + len, buffer.length * 2));
+	}
+}
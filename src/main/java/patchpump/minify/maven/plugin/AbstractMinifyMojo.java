@@ -14,15 +14,18 @@ import com.google.javascript.jscomp.DependencyOptions;
 import com.google.javascript.jscomp.SourceFile;
 import com.google.javascript.jscomp.jarjar.com.google.common.base.Strings;
 
+import patchpump.minify.maven.common.AdaptiveConfig;
 import patchpump.minify.maven.common.ClosureConfig;
+import patchpump.minify.maven.common.GzipConfig;
 import patchpump.minify.maven.common.YuiConfig;
+import patchpump.minify.maven.common.ZstdConfig;
 
 import com.google.javascript.jscomp.CompilerOptions.LanguageMode;
 
 public abstract class AbstractMinifyMojo extends AbstractMojo {
 
 	public enum Engine {
-		CLOSURE, TERSER, YUI, SAFECSS
+		CLOSURE, TERSER, YUI, SAFECSS, TOKENCSS
 	}
 
 	/**
@@ -38,17 +41,45 @@ public abstract class AbstractMinifyMojo extends AbstractMojo {
 	protected boolean debug;
 
 	/**
-	 * Display even more additional informational messages.
+	 * Skip bundles and files whose source contents, file list and options match the manifest recorded by the previous
+	 * build in the build directory.
 	 */
 	@Parameter(property = "incrementalBuild", defaultValue = "true")
 	protected boolean incrementalBuild;
 
 	/**
-	 * Size of the buffer used to read source files.
+	 * Size of the buffer used to read source files. When {@code 0} the size grows with the size of the files, from 4 KB
+	 * to 256 KB.
 	 */
-	@Parameter(property = "bufferSize", defaultValue = "4096")
+	@Parameter(property = "bufferSize", defaultValue = "0")
 	protected int bufferSize;
 
+	/**
+	 * Maximum number of bundles processed concurrently. Defaults to the number of available processors when {@code 0}.
+	 * The largest bundles, by time spent in earlier builds or else by source size, are started first.
+	 *
+	 * @since 2.8.0-PATCHPUMP-R18
+	 */
+	@Parameter(property = "threads", defaultValue = "0")
+	protected int threads;
+
+	/**
+	 * Number of threads compressing minified files. When positive, compression runs on its own pool from the
+	 * minified content in memory, overlapping with the minification of the next bundles. When {@code 0} files are
+	 * compressed by the minifying thread while they are written. At most twice as many minified files wait for a
+	 * compression thread, minification pauses beyond.
+	 *
+	 * @since 2.8.0-PATCHPUMP-R18
+	 */
+	@Parameter(property = "compressionThreads", defaultValue = "0")
+	protected int compressionThreads;
+
+	/**
+	 * Build directory where build state such as bundle timings is kept.
+	 */
+	@Parameter(defaultValue = "${project.build.directory}", readonly = true)
+	protected String buildDirectory;
+
 	/**
 	 * If a supported character set is specified, it will be used to read the input file. Otherwise, it will assume that
 	 * the platform's default character set is being used. The output file is encoded using the same character set.<br/>
@@ -96,6 +127,15 @@ public abstract class AbstractMinifyMojo extends AbstractMojo {
 	@Parameter(property = "skipMinify", defaultValue = "false")
 	protected boolean skipMinify;
 
+	/**
+	 * Write the merged file next to the minified file. When {@code false} the merged content is only kept in memory
+	 * and passed to the minify step. The merged file is never written with {@code nosuffix}.
+	 *
+	 * @since 2.8.0-PATCHPUMP-R18
+	 */
+	@Parameter(property = "writeMergedFile", defaultValue = "true")
+	protected boolean writeMergedFile;
+
 	/**
 	 * Gzip target file into targetfile.gz
 	 *
@@ -104,6 +144,82 @@ public abstract class AbstractMinifyMojo extends AbstractMojo {
 	@Parameter(property = "gzip", defaultValue = "false")
 	protected boolean gzip;
 
+	/**
+	 * Deflate level of the gz files from 0 to 9, -1 for the default level 6.
+	 *
+	 * @since 2.8.0-PATCHPUMP-R18
+	 */
+	@Parameter(property = "gzipLevel", defaultValue = "-1")
+	protected int gzipLevel;
+
+	/**
+	 * Deflate strategy of the gz files.
+	 * <ul>
+	 * <li>{@code DEFAULT}: LZ77 matching and Huffman coding.</li>
+	 * <li>{@code FILTERED}: favors Huffman coding over short matches.</li>
+	 * <li>{@code HUFFMAN_ONLY}: Huffman coding only.</li>
+	 * </ul>
+	 *
+	 * @since 2.8.0-PATCHPUMP-R18
+	 */
+	@Parameter(property = "gzipStrategy", defaultValue = "DEFAULT")
+	protected GzipConfig.Strategy gzipStrategy;
+
+	/**
+	 * Number of threads deflating gz files in blocks of 128 KB, each primed with the 32 KB before it, joined into one
+	 * standard gzip member. When {@code 0} each gz file is deflated in one piece by the compressing thread.
+	 *
+	 * @since 2.8.0-PATCHPUMP-R18
+	 */
+	@Parameter(property = "gzipThreads", defaultValue = "0")
+	protected int gzipThreads;
+
+	/**
+	 * Number of iterations of the exhaustive deflate encoder, parsing each block repeatedly the way Zopfli does, for gz
+	 * files a few percent smaller at a much higher compression time. The level and strategy are then ignored, and gz
+	 * files are cached by minified content hash under the build directory so that only changed content pays the cost.
+	 * When {@code 0} the standard deflater is used.
+	 *
+	 * @since 2.8.0-PATCHPUMP-R18
+	 */
+	@Parameter(property = "gzipZopfliIterations", defaultValue = "0")
+	protected int gzipZopfliIterations;
+
+	/**
+	 * Choose the gzip level and strategy and the zstd level of each output by trying a few candidate settings, from the
+	 * configured ones up to the maximum, and keeping the smallest result. The decision for the latest content of each
+	 * output is remembered under the build directory so that later builds do not search again.
+	 *
+	 * @since 2.8.0-PATCHPUMP-R18
+	 */
+	@Parameter(property = "adaptiveCompression", defaultValue = "false")
+	protected boolean adaptiveCompression;
+
+	/**
+	 * Time in milliseconds after which adaptive compression tries no further candidate setting for an output.
+	 *
+	 * @since 2.8.0-PATCHPUMP-R18
+	 */
+	@Parameter(property = "adaptiveTimeBudget", defaultValue = "2000")
+	protected int adaptiveTimeBudget;
+
+	/**
+	 * Minified size in bytes below which adaptive compression writes no compressed variants, as they would not pay
+	 * for the request overhead.
+	 *
+	 * @since 2.8.0-PATCHPUMP-R18
+	 */
+	@Parameter(property = "adaptiveMinSize", defaultValue = "1024")
+	protected int adaptiveMinSize;
+
+	/**
+	 * Percentage of the minified size that a gz or zst file chosen by adaptive compression must save to be written.
+	 *
+	 * @since 2.8.0-PATCHPUMP-R18
+	 */
+	@Parameter(property = "adaptiveMinSaving", defaultValue = "5")
+	protected int adaptiveMinSaving;
+
 	/**
 	 * Zstandard compress target file into targetfile.zst
 	 *
@@ -120,6 +236,98 @@ public abstract class AbstractMinifyMojo extends AbstractMojo {
 	@Parameter(property = "zstdDirectoryDir")
 	protected String zstdDirectoryDir;
 
+	/**
+	 * Number of zstd worker threads compressing each zst and dcz file, 0 compresses on the calling thread. Workers
+	 * split large files into jobs compressed in parallel, at a small cost in ratio, and add to the
+	 * {@code compressionThreads}.
+	 *
+	 * @since 2.8.0-PATCHPUMP-R18
+	 */
+	@Parameter(property = "zstdWorkers", defaultValue = "0")
+	protected int zstdWorkers;
+
+	/**
+	 * Enable zstd long distance matching, finding repetitions far apart in large bundles. Uses a window of
+	 * {@code zstdWindowLog}, 8 MB when not set.
+	 *
+	 * @since 2.8.0-PATCHPUMP-R18
+	 */
+	@Parameter(property = "zstdLongDistance", defaultValue = "false")
+	protected boolean zstdLongDistance;
+
+	/**
+	 * Base two logarithm of the zstd window size from 10 to 31, 0 for the default of the level. HTTP clients are only
+	 * required to accept windows up to 8 MB, a window log of 23.
+	 *
+	 * @since 2.8.0-PATCHPUMP-R18
+	 */
+	@Parameter(property = "zstdWindowLog", defaultValue = "0")
+	protected int zstdWindowLog;
+
+	/**
+	 * Compress each zst and dcz file in one call once the minified content is complete, so that the content size is
+	 * written in the frame header and the window fits the content.
+	 *
+	 * @since 2.8.0-PATCHPUMP-R18
+	 */
+	@Parameter(property = "zstdContentSize", defaultValue = "false")
+	protected boolean zstdContentSize;
+
+	/**
+	 * Brotli compress target file into targetfile.br at the given quality from 1 to 11, 0 disables. With
+	 * {@code zstdDirectoryDir} the target file is also compressed into targetfile.dcb using the same dictionary,
+	 * discarded when not smaller than targetfile.br or when it does not decode back to the target file. Uses the
+	 * brotli4j native library, available for Linux, Windows and macOS.
+	 *
+	 * @since 2.8.0-PATCHPUMP-R18
+	 */
+	@Parameter(property = "brotli", defaultValue = "0")
+	protected int brotli;
+
+	/**
+	 * Base two logarithm of the brotli window size, from 10 to 24.
+	 *
+	 * @since 2.8.0-PATCHPUMP-R18
+	 */
+	@Parameter(property = "brotliWindow", defaultValue = "22")
+	protected int brotliWindow;
+
+	/**
+	 * Webapp directory of the previous release, for example an unpacked release artifact. Minified files also present
+	 * there at the same path are compressed with their previous version as dictionary into
+	 * targetfile.&lt;hash&gt;.dcz, listed with the dictionary hashes in dcz-deltas.json in the webapp target directory.
+	 * Requires {@code zstd}.
+	 *
+	 * @since 2.8.0-PATCHPUMP-R18
+	 */
+	@Parameter(property = "previousReleaseDir")
+	protected String previousReleaseDir;
+
+	/**
+	 * Restore minified and compressed files from a persistent cache shared by all builds when the source files and
+	 * options are unchanged, also after a clean.
+	 *
+	 * @since 2.8.0-PATCHPUMP-R18
+	 */
+	@Parameter(property = "cache", defaultValue = "false")
+	protected boolean cache;
+
+	/**
+	 * Persistent output cache directory.
+	 *
+	 * @since 2.8.0-PATCHPUMP-R18
+	 */
+	@Parameter(property = "cacheDir", defaultValue = "${user.home}/.m2/minify-cache")
+	protected String cacheDir;
+
+	/**
+	 * Maximum size of the persistent output cache in megabytes. The least recently used entries are evicted beyond it.
+	 *
+	 * @since 2.8.0-PATCHPUMP-R18
+	 */
+	@Parameter(property = "cacheMaxSize", defaultValue = "512")
+	protected int cacheMaxSize;
+
 	/**
 	 * Webapp source directory.
 	 */
@@ -193,6 +401,9 @@ public abstract class AbstractMinifyMojo extends AbstractMojo {
 	 * Possible values are:
 	 * <ul>
 	 * <li>{@code YUI}: <a href="http://yui.github.io/yuicompressor/">YUI Compressor</a></li>
+	 * <li>{@code SAFECSS}: strips whitespace and comments only</li>
+	 * <li>{@code TOKENCSS}: tokenizes the stylesheet per <a href="https://www.w3.org/TR/css-syntax-3/">CSS Syntax Level 3</a>
+	 * and also shortens numbers and colors</li>
 	 * </ul>
 	 *
 	 * @since 1.7.1
@@ -200,6 +411,16 @@ public abstract class AbstractMinifyMojo extends AbstractMojo {
 	@Parameter(property = "cssEngine", defaultValue = "YUI")
 	protected Engine cssEngine;
 
+	/**
+	 * Optimize the structure of the merged CSS before the minify step. Declarations repeated later by a rule with the
+	 * same selector are dropped, then adjacent rules with the same selector and adjacent {@code @media},
+	 * {@code @supports} and {@code @container} rules with the same condition are merged. The cascade is unchanged.
+	 *
+	 * @since 2.8.0-PATCHPUMP-R18
+	 */
+	@Parameter(property = "cssOptimize", defaultValue = "false")
+	protected boolean cssOptimize;
+
 	/**
 	 * JavaScript source directory.
 	 */
@@ -261,6 +482,23 @@ public abstract class AbstractMinifyMojo extends AbstractMojo {
 	@Parameter(property = "jsEngine", defaultValue = "CLOSURE")
 	protected Engine jsEngine;
 
+	/**
+	 * Number of GraalVM contexts used by the {@code TERSER} engine to minify bundles concurrently. The contexts share
+	 * one engine and are kept for the lifetime of the JVM. Takes the same value as {@code threads} when {@code 0}.
+	 *
+	 * @since 2.8.0-PATCHPUMP-R18
+	 */
+	@Parameter(property = "terserContexts", defaultValue = "0")
+	protected int terserContexts;
+
+	/**
+	 * Create all {@code TERSER} contexts and run a minification in each before processing bundles.
+	 *
+	 * @since 2.8.0-PATCHPUMP-R18
+	 */
+	@Parameter(property = "terserWarmUp", defaultValue = "false")
+	protected boolean terserWarmUp;
+
 	/**
 	 * Some source control tools don't like files containing lines longer than, say 8000 characters. The line-break
 	 * option is used in that case to split long lines after a specific column. It can also be used to make the code
@@ -412,6 +650,12 @@ public abstract class AbstractMinifyMojo extends AbstractMojo {
 		if (Strings.isNullOrEmpty(charset))
 			charset = Charset.defaultCharset().name();
 
+		if (threads <= 0)
+			threads = Runtime.getRuntime().availableProcessors();
+
+		if (terserContexts <= 0)
+			terserContexts = threads;
+
 		if(debug)
 			verbose = true;
 	}
@@ -420,6 +664,18 @@ public abstract class AbstractMinifyMojo extends AbstractMojo {
 		return new YuiConfig(yuiLineBreak, yuiNoMunge, yuiPreserveSemicolons, yuiDisableOptimizations);
 	}
 
+	protected GzipConfig fillGzipConfig() {
+		return new GzipConfig(gzipLevel, gzipStrategy, gzipZopfliIterations);
+	}
+
+	protected AdaptiveConfig fillAdaptiveConfig() {
+		return (adaptiveCompression) ? new AdaptiveConfig(adaptiveTimeBudget, adaptiveMinSize, adaptiveMinSaving) : null;
+	}
+
+	protected ZstdConfig fillZstdConfig() {
+		return new ZstdConfig(zstdWorkers, zstdLongDistance, zstdWindowLog, zstdContentSize);
+	}
+
 	protected ClosureConfig fillClosureConfig() {
 		
 		DependencyOptions dependencyOptions = closureSortDependencies ? DependencyOptions.sortOnly() : DependencyOptions.none();
@@ -0,0 +1,195 @@
+package patchpump.minify.maven.plugin;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+
+/**
+ * Source files and options a bundle was last built from, used to skip bundles and files whose inputs did not change.
+ *
+ * Content hashes of files with the same size and modification date as in the previous manifest are reused without
+ * reading the files again.
+ */
+public class BuildManifest {
+
+	/**
+	 * Source file of a bundle.
+	 */
+	public static final class Entry {
+
+		String path;
+		long size;
+		long lastModified;
+		String hash;
+		String target;
+
+		/**
+		 * Tells if the entry has the same source path and content as another one.
+		 *
+		 * @param other other entry, may be {@code null}
+		 * @return {@code true} if unchanged
+		 */
+		boolean sameSource(Entry other) {
+			return other != null && path.equals(other.path) && hash.equals(other.hash);
+		}
+	}
+
+	private String options;
+	private List<Entry> files = new ArrayList<>();
+
+	private transient Map<String, Entry> byPath;
+
+	/**
+	 * Loads a manifest. Missing or unreadable files yield {@code null}.
+	 *
+	 * @param file manifest file
+	 * @return manifest or {@code null}
+	 */
+	public static BuildManifest load(File file) {
+
+		if (!file.isFile())
+			return null;
+
+		try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+			BuildManifest manifest = new Gson().fromJson(reader, BuildManifest.class);
+			return (manifest != null && manifest.options != null && manifest.files != null) ? manifest : null;
+		} catch (IOException | JsonParseException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Creates the manifest of the current sources.
+	 *
+	 * @param options options fingerprint
+	 * @param sources source files in merge order
+	 * @param targets output file of each source, or {@code null} when merged into one output
+	 * @param previous previous manifest to reuse hashes from, may be {@code null}
+	 * @return manifest
+	 * @throws IOException when a changed source cannot be read
+	 */
+	public static BuildManifest create(String options, List<File> sources, List<File> targets, BuildManifest previous) throws IOException {
+
+		BuildManifest manifest = new BuildManifest();
+		manifest.options = options;
+		for (int i = 0; i < sources.size(); i++) {
+			File source = sources.get(i);
+			Entry entry = new Entry();
+			entry.path = source.getPath();
+			entry.size = source.length();
+			entry.lastModified = source.lastModified();
+			entry.target = (targets != null) ? targets.get(i).getPath() : null;
+
+			Entry old = (previous != null) ? previous.get(entry.path) : null;
+			if (old != null && old.hash != null && old.size == entry.size && old.lastModified == entry.lastModified)
+				entry.hash = old.hash;
+			else
+				entry.hash = hash(source);
+			manifest.files.add(entry);
+		}
+		return manifest;
+	}
+
+	/**
+	 * Tells if the bundle was built from the same options and ordered sources as another manifest.
+	 *
+	 * @param other other manifest, may be {@code null}
+	 * @return {@code true} if unchanged
+	 */
+	public boolean isSame(BuildManifest other) {
+
+		if (!isSameOptions(other) || files.size() != other.files.size())
+			return false;
+
+		for (int i = 0; i < files.size(); i++) {
+			if (!files.get(i).sameSource(other.files.get(i)))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Tells if the bundle was built with the same options as another manifest.
+	 *
+	 * @param other other manifest, may be {@code null}
+	 * @return {@code true} if unchanged
+	 */
+	public boolean isSameOptions(BuildManifest other) {
+		return other != null && options.equals(other.options);
+	}
+
+	/**
+	 * Gets the source files.
+	 *
+	 * @return entries in merge order
+	 */
+	public List<Entry> getFiles() {
+		return files;
+	}
+
+	/**
+	 * Gets the entry of a source file.
+	 *
+	 * @param path source file path
+	 * @return entry or {@code null}
+	 */
+	public synchronized Entry get(String path) {
+
+		if (byPath == null) {
+			byPath = new HashMap<>();
+			for (Entry entry : files)
+				byPath.put(entry.path, entry);
+		}
+		return byPath.get(path);
+	}
+
+	/**
+	 * Saves the manifest.
+	 *
+	 * @param file manifest file
+	 * @throws IOException when the manifest cannot be written
+	 */
+	public void save(File file) throws IOException {
+
+		file.getParentFile().mkdirs();
+		try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+			new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create().toJson(this, writer);
+		}
+	}
+
+	private static String hash(File file) throws IOException {
+
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+
+		byte[] buffer = new byte[64 * 1024];
+		try (InputStream in = new FileInputStream(file)) {
+			int n;
+			while ((n = in.read(buffer)) != -1)
+				digest.update(buffer, 0, n);
+		}
+		return HexFormat.of().formatHex(digest.digest());
+	}
+}
@@ -0,0 +1,120 @@
+package patchpump.minify.maven.plugin;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+
+/**
+ * Compression settings chosen by the adaptive search of earlier builds, so that unchanged content is compressed with its
+ * known best setting without searching again. Each output keeps only the decision for its latest content, so the
+ * decisions file holds at most one entry per output. The decisions used by a build are merged into the decisions file
+ * as it is when saving, so that executions sharing the file keep each other's decisions.
+ */
+public class CompressionDecisions {
+
+	private static final Type DECISIONS_TYPE = new TypeToken<TreeMap<String, Decision>>() {}.getType();
+
+	private final File file;
+	private final Map<String, Decision> decisions;
+	private final Map<String, Decision> used = new TreeMap<>();
+
+	private CompressionDecisions(File file, Map<String, Decision> decisions) {
+		this.file = file;
+		this.decisions = decisions;
+	}
+
+	/**
+	 * Loads decisions from given file. Missing or unreadable files yield no decisions.
+	 *
+	 * @param file decisions file, may be {@code null} to not remember decisions
+	 * @return compression decisions
+	 */
+	public static CompressionDecisions load(File file) {
+		return new CompressionDecisions(file, read(file));
+	}
+
+	private static Map<String, Decision> read(File file) {
+
+		Map<String, Decision> decisions = null;
+		if (file != null && file.isFile()) {
+			try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+				decisions = new Gson().fromJson(reader, DECISIONS_TYPE);
+			} catch (IOException | JsonParseException ignore) {
+			}
+		}
+		return (decisions != null) ? decisions : new TreeMap<>();
+	}
+
+	/**
+	 * Gets the decided setting of an output.
+	 *
+	 * @param target output file
+	 * @param key content hash and candidate settings
+	 * @return setting or {@code null} if not decided for this content
+	 */
+	public synchronized String get(File target, String key) {
+
+		String path = target.getAbsolutePath();
+		Decision decision = decisions.get(path);
+		if (decision == null || !key.equals(decision.key))
+			return null;
+		used.put(path, decision);
+		return decision.setting;
+	}
+
+	/**
+	 * Records the decided setting of an output, replacing the decision for its earlier content.
+	 *
+	 * @param target output file
+	 * @param key content hash and candidate settings
+	 * @param setting setting
+	 */
+	public synchronized void put(File target, String key, String setting) {
+
+		Decision decision = new Decision(key, setting);
+		decisions.put(target.getAbsolutePath(), decision);
+		used.put(target.getAbsolutePath(), decision);
+	}
+
+	/**
+	 * Merges the decisions used by this build into the decisions file if one is configured.
+	 *
+	 * @throws IOException when the decisions file cannot be written
+	 */
+	public synchronized void save() throws IOException {
+
+		if (file == null)
+			return;
+
+		Map<String, Decision> merged = read(file);
+		merged.putAll(used);
+		file.getParentFile().mkdirs();
+		try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+			new Gson().toJson(merged, DECISIONS_TYPE, writer);
+		}
+	}
+
+	private static final class Decision {
+
+		private String key;
+		private String setting;
+
+		Decision(String key, String setting) {
+			this.key = key;
+			this.setting = setting;
+		}
+	}
+}
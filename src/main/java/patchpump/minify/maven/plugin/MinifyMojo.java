@@ -18,16 +18,18 @@
  */
 package patchpump.minify.maven.plugin;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.Reader;
-import java.util.Collection;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
 import org.apache.maven.plugin.MojoExecutionException;
@@ -35,14 +37,20 @@ import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
 
+import com.aayushatharva.brotli4j.Brotli4jLoader;
 import com.google.gson.Gson;
 import com.google.javascript.jscomp.jarjar.com.google.common.base.Strings;
 import com.google.javascript.jscomp.jarjar.com.google.common.collect.Lists;
 
+import patchpump.minify.maven.common.AdaptiveConfig;
 import patchpump.minify.maven.common.Aggregation;
 import patchpump.minify.maven.common.AggregationConfiguration;
 import patchpump.minify.maven.common.ClosureConfig;
+import patchpump.minify.maven.common.DictionaryRegistry;
+import patchpump.minify.maven.common.GzipConfig;
+import patchpump.minify.maven.common.TerserCompiler;
 import patchpump.minify.maven.common.YuiConfig;
+import patchpump.minify.maven.common.ZstdConfig;
 
 /**
  * Goal for combining and minifying CSS and JavaScript files.
@@ -50,6 +58,30 @@ import patchpump.minify.maven.common.YuiConfig;
 @Mojo(name = "minify", defaultPhase = LifecyclePhase.PROCESS_RESOURCES, threadSafe = true)
 public class MinifyMojo extends AbstractMinifyMojo {
 
+	private static final String TIMINGS_FILENAME = "minify-timings.json";
+	private static final String MANIFESTS_DIRNAME = "minify-manifests";
+	private static final String GZIP_CACHE_DIRNAME = "minify-zopfli";
+	private static final String DECISIONS_FILENAME = "minify-compression.json";
+	private static final int MAX_DICTIONARIES = 16;
+	private static final int MIN_ZSTD_WINDOW_LOG = 10;
+	private static final int MAX_ZSTD_WINDOW_LOG = 31;
+	private static final int MAX_BROTLI_QUALITY = 11;
+	private static final int MIN_BROTLI_WINDOW = 10;
+	private static final int MAX_BROTLI_WINDOW = 24;
+
+	private OutputCache outputCache;
+	private OutputCache gzipCache;
+	private CompressionDecisions decisions;
+	private AdaptiveConfig adaptiveConfig;
+	private Stage compressionStage;
+	private Stage gzipStage;
+	private Stage fileStage;
+	private DictionaryRegistry dictionaries;
+	private YuiConfig yuiConfig;
+	private ClosureConfig closureConfig;
+	private GzipConfig gzipConfig;
+	private ZstdConfig zstdConfig;
+
 	@Override
 	public void execute() throws MojoExecutionException, MojoFailureException {
 
@@ -58,35 +90,262 @@ public class MinifyMojo extends AbstractMinifyMojo {
 			return;
 		}
 
+		initialize();
+		try {
+			build(createTasks());
+		} finally {
+			shutdown();
+		}
+	}
+
+	/**
+	 * Resolves the configuration and prepares the engines and the output cache shared by all builds of the mojo.
+	 *
+	 * @throws MojoExecutionException when an engine cannot be initialized
+	 */
+	protected void initialize() throws MojoExecutionException {
+
 		fillOptionalValues();
 
-		YuiConfig yuiConfig = fillYuiConfig();
-		ClosureConfig closureConfig = fillClosureConfig();
-		Collection<ProcessFilesTask> processFilesTasks;
+		if (jsEngine == Engine.TERSER) {
+			try {
+				TerserCompiler.configure(terserContexts, terserWarmUp);
+			} catch (IOException e) {
+				throw new MojoExecutionException("Failed to initialize the TERSER engine.", e);
+			}
+		}
+
+		if (cache)
+			outputCache = new OutputCache(new File(cacheDir), cacheMaxSize * 1024L * 1024L);
+
+		if (previousReleaseDir != null && zstd <= 0)
+			getLog().warn("The previousReleaseDir parameter requires zstd, no release deltas are written.");
+
+		if (brotli < 0 || brotli > MAX_BROTLI_QUALITY)
+			throw new MojoExecutionException("The brotli parameter must be between 0 and " + MAX_BROTLI_QUALITY + ".");
+		if (brotli > 0 && (brotliWindow < MIN_BROTLI_WINDOW || brotliWindow > MAX_BROTLI_WINDOW))
+			throw new MojoExecutionException("The brotliWindow parameter must be between " + MIN_BROTLI_WINDOW + " and " + MAX_BROTLI_WINDOW + ".");
+		if (brotli > 0 && !Brotli4jLoader.isAvailable())
+			throw new MojoExecutionException("The brotli native library is not available on this platform.", Brotli4jLoader.getUnavailabilityCause());
+
+		if (gzipLevel < -1 || gzipLevel > 9)
+			throw new MojoExecutionException("The gzipLevel parameter must be between -1 and 9.");
+		if (gzipZopfliIterations < 0)
+			throw new MojoExecutionException("The gzipZopfliIterations parameter must not be negative.");
+		if (gzip && gzipZopfliIterations > 0 && gzipThreads > 0)
+			getLog().warn("The gzipThreads parameter is ignored with gzipZopfliIterations, each gz file is deflated in one piece.");
+		if (gzip && gzipZopfliIterations > 0 && buildDirectory != null)
+			gzipCache = new OutputCache(new File(buildDirectory, GZIP_CACHE_DIRNAME), cacheMaxSize * 1024L * 1024L);
+		if (adaptiveTimeBudget < 0 || adaptiveMinSize < 0 || adaptiveMinSaving < 0 || adaptiveMinSaving > 100)
+			throw new MojoExecutionException("The adaptiveTimeBudget and adaptiveMinSize parameters must not be negative and adaptiveMinSaving must be between 0 and 100.");
+		if (zstdWorkers < 0)
+			throw new MojoExecutionException("The zstdWorkers parameter must not be negative.");
+		if (zstdWindowLog != 0 && (zstdWindowLog < MIN_ZSTD_WINDOW_LOG || zstdWindowLog > MAX_ZSTD_WINDOW_LOG))
+			throw new MojoExecutionException("The zstdWindowLog parameter must be 0 or between " + MIN_ZSTD_WINDOW_LOG + " and " + MAX_ZSTD_WINDOW_LOG + ".");
+		if (zstd > 0 && zstdWindowLog > ZstdConfig.MAX_HTTP_WINDOW_LOG)
+			getLog().warn("The zstdWindowLog parameter exceeds the 8 MB window HTTP clients are required to accept, browsers may reject the zst files.");
+
+		dictionaries = new DictionaryRegistry(MAX_DICTIONARIES);
+
+		if (compressionThreads > 0 && (gzip || zstd > 0 || brotli > 0))
+			compressionStage = new Stage("Compression", compressionThreads, 2 * compressionThreads);
+		if (gzip && gzipThreads > 0 && gzipZopfliIterations == 0)
+			gzipStage = new Stage("Gzip", gzipThreads);
+		if (threads > 1)
+			fileStage = new Stage("Files", threads);
+
+		yuiConfig = fillYuiConfig();
+		closureConfig = fillClosureConfig();
+		gzipConfig = fillGzipConfig();
+		adaptiveConfig = fillAdaptiveConfig();
+		if (adaptiveConfig != null)
+			decisions = CompressionDecisions.load(buildDirectory != null ? new File(buildDirectory, DECISIONS_FILENAME) : null);
+		zstdConfig = fillZstdConfig();
+	}
+
+	/**
+	 * Stops the threads started by {@link #initialize()} and frees the loaded dictionaries once they are no longer used.
+	 */
+	protected void shutdown() {
+		if (compressionStage != null)
+			compressionStage.shutdown();
+		if (gzipStage != null)
+			gzipStage.shutdown();
+		if (fileStage != null)
+			fileStage.shutdown();
+		if (dictionaries != null)
+			dictionaries.close();
+	}
+
+	/**
+	 * Creates the tasks of all bundles, resolving the source includes.
+	 *
+	 * @return tasks in bundle order
+	 * @throws MojoFailureException when a source file is missing or the bundle configuration cannot be read
+	 */
+	protected List<ProcessFilesTask> createTasks() throws MojoFailureException {
 		try {
-			processFilesTasks = createTasks(yuiConfig, closureConfig);
+			return createTasks(yuiConfig, closureConfig);
 		} catch (FileNotFoundException e) {
 			throw new MojoFailureException(e.getMessage(), e);
 		}
+	}
+
+	/**
+	 * Runs tasks, writes the release deltas and evicts the output cache.
+	 *
+	 * @param processFilesTasks tasks in bundle order
+	 * @throws MojoExecutionException when a task fails
+	 */
+	protected void build(List<ProcessFilesTask> processFilesTasks) throws MojoExecutionException {
+		try {
+			runTasks(processFilesTasks);
+			if (previousReleaseDir != null && zstd > 0)
+				writeReleaseDeltas(processFilesTasks);
+		} finally {
+			if (outputCache != null) {
+				int evicted = outputCache.evict();
+				getLog().info("Output cache: " + outputCache.getHits() + " hits, " + outputCache.getMisses() + " misses"
+					+ ((evicted > 0) ? ", " + evicted + " entries evicted." : "."));
+			}
+			if (gzipCache != null) {
+				int evicted = gzipCache.evict();
+				getLog().info("Zopfli gzip cache: " + gzipCache.getHits() + " hits, " + gzipCache.getMisses() + " misses"
+					+ ((evicted > 0) ? ", " + evicted + " entries evicted." : "."));
+			}
+		}
+	}
+
+	/**
+	 * Compresses the minified files of tasks with their previous release as dictionary.
+	 *
+	 * @param processFilesTasks tasks in bundle order
+	 * @throws MojoExecutionException when a delta cannot be written
+	 */
+	private void writeReleaseDeltas(List<ProcessFilesTask> processFilesTasks) throws MojoExecutionException {
+
+		List<File> minifiedFiles = new ArrayList<>();
+		for (ProcessFilesTask task : processFilesTasks)
+			minifiedFiles.addAll(task.getMinifiedFiles());
+
+		Stage deltaStage = new Stage("Delta", Math.max(1, Math.min(threads, minifiedFiles.size())));
+		try {
+			new ReleaseDeltas(getLog(), new File(previousReleaseDir), new File(webappTargetDir), zstd, zstdConfig).update(minifiedFiles, deltaStage);
+			deltaStage.shutdown();
+		} catch (IOException e) {
+			deltaStage.shutdown();
+			throw new MojoExecutionException("Failed to write the release deltas.", e);
+		} catch (InterruptedException e) {
+			deltaStage.shutdownNow();
+			Thread.currentThread().interrupt();
+			throw new MojoExecutionException(e.getMessage(), e);
+		}
+
+		if (verbose)
+			getLog().info(deltaStage.getStatistics());
+	}
+
+	/**
+	 * Runs tasks on a bounded thread pool, most expensive tasks first. Task output is flushed in bundle order.
+	 *
+	 * @param processFilesTasks tasks in bundle order
+	 * @throws MojoExecutionException when a task fails
+	 */
+	protected void runTasks(List<ProcessFilesTask> processFilesTasks) throws MojoExecutionException {
+
+		if (processFilesTasks.isEmpty())
+			return;
+
+		long started = System.currentTimeMillis();
 
-		ExecutorService executor = Executors.newFixedThreadPool(processFilesTasks.size());
+		TaskTimings timings = TaskTimings.load(buildDirectory != null ? new File(buildDirectory, TIMINGS_FILENAME) : null);
+		List<ProcessFilesTask> schedule = schedule(processFilesTasks, timings);
+		int poolSize = Math.min(threads, processFilesTasks.size());
+
+		Stage minifyStage = new Stage("Minify", poolSize);
 		try {
-			List<Future<Object>> futures = executor.invokeAll(processFilesTasks);
-			for (Future<Object> future : futures) {
+			Map<ProcessFilesTask, Future<Object>> futures = new IdentityHashMap<>();
+			for (ProcessFilesTask task : schedule)
+				futures.put(task, minifyStage.submit(task));
+
+			// wait for the tasks in bundle order so that buffered task output is flushed in the same order, completing
+			// each task once its outputs are compressed while the minify stage moves on to the next bundles
+			Exception failure = null;
+			for (ProcessFilesTask task : processFilesTasks) {
 				try {
-					future.get();
-				} catch (ExecutionException e) {
-					throw new MojoExecutionException(e.getMessage(), e);
+					futures.get(task).get();
+					task.complete();
+					timings.put(task);
+				} catch (ExecutionException | IOException e) {
+					if (failure == null)
+						failure = e;
+				} finally {
+					task.flushLog();
 				}
 			}
-			executor.shutdown();
+			minifyStage.shutdown();
+
+			if (failure != null)
+				throw new MojoExecutionException(failure.getMessage(), failure);
+
 		} catch (InterruptedException e) {
-			executor.shutdownNow();
+			minifyStage.shutdownNow();
 			throw new MojoExecutionException(e.getMessage(), e);
 		}
+
+		try {
+			timings.save();
+		} catch (IOException e) {
+			getLog().warn("Failed to save bundle timings [" + e.getMessage() + "].");
+		}
+
+		if (decisions != null) {
+			try {
+				decisions.save();
+			} catch (IOException e) {
+				getLog().warn("Failed to save compression decisions [" + e.getMessage() + "].");
+			}
+		}
+
+		if (verbose) {
+			getLog().info("Processed " + processFilesTasks.size() + " bundles in " + (System.currentTimeMillis() - started) + " ms using " + poolSize + " threads.");
+			getLog().info(minifyStage.getStatistics());
+			if (compressionStage != null)
+				getLog().info(compressionStage.getStatistics());
+			if (gzipStage != null)
+				getLog().info(gzipStage.getStatistics());
+			if (fileStage != null)
+				getLog().info(fileStage.getStatistics());
+		}
 	}
 
-	private Collection<ProcessFilesTask> createTasks(YuiConfig yuiConfig, ClosureConfig closureConfig)
+	/**
+	 * Orders tasks by decreasing cost so that a large bundle does not end up alone at the tail of the build. Timings
+	 * of earlier builds are used when known for all tasks, otherwise total source size.
+	 *
+	 * @param processFilesTasks tasks in bundle order
+	 * @param timings timings of earlier builds
+	 * @return tasks in scheduling order
+	 */
+	private List<ProcessFilesTask> schedule(List<ProcessFilesTask> processFilesTasks, TaskTimings timings) {
+
+		boolean timed = true;
+		for (ProcessFilesTask task : processFilesTasks) {
+			if (timings.get(task) < 0) {
+				timed = false;
+				break;
+			}
+		}
+
+		List<ProcessFilesTask> schedule = new ArrayList<>(processFilesTasks);
+		if (timed)
+			schedule.sort(Comparator.comparingLong(timings::get).reversed());
+		else
+			schedule.sort(Comparator.comparingLong(ProcessFilesTask::getSourceSize).reversed());
+		return schedule;
+	}
+
+	protected List<ProcessFilesTask> createTasks(YuiConfig yuiConfig, ClosureConfig closureConfig)
 		throws MojoFailureException, FileNotFoundException {
 		List<ProcessFilesTask> tasks = Lists.newArrayList();
 		if (!Strings.isNullOrEmpty(bundleConfiguration)) {
@@ -119,9 +378,10 @@ public class MinifyMojo extends AbstractMinifyMojo {
 	private ProcessFilesTask createCSSTask(YuiConfig yuiConfig, List<String> cssSourceFiles, List<String> cssSourceIncludes, List<String> cssSourceExcludes,
 		String cssFinalFile) throws FileNotFoundException {
 
-		TaskOptions opt = new TaskOptions(getLog(), verbose, debug, incrementalBuild, bufferSize, charset, suffix, nosuffix, skipMerge,
-			skipMinify, webappSourceDir, webappTargetDir, zstdDirectoryDir, cssSourceDir, cssSourceIncludeDir, cssSourceFiles,
-			cssSourceIncludes, cssSourceExcludes, cssTargetDir, cssFinalFile, cssEngine, yuiConfig, gzip, zstd);
+		TaskOptions opt = new TaskOptions(getLog(), verbose, debug, incrementalBuild, bufferSize, threads, charset, suffix, nosuffix, skipMerge,
+			skipMinify, writeMergedFile, webappSourceDir, webappTargetDir, zstdDirectoryDir, cssSourceDir, cssSourceIncludeDir, cssSourceFiles,
+			cssSourceIncludes, cssSourceExcludes, cssTargetDir, cssFinalFile, cssEngine, yuiConfig, cssOptimize, gzip, gzipConfig, zstd, zstdConfig, brotli, brotliWindow,
+			dictionaries, compressionStage, gzipStage, fileStage, outputCache, gzipCache, adaptiveConfig, decisions, manifestDir());
 
 		return new ProcessCSSFilesTask(opt);
 	}
@@ -129,10 +389,15 @@ public class MinifyMojo extends AbstractMinifyMojo {
 	private ProcessFilesTask createJSTask(YuiConfig yuiConfig, ClosureConfig closureConfig, List<String> jsSourceFiles,
 		List<String> jsSourceIncludes, List<String> jsSourceExcludes, String jsFinalFile) throws FileNotFoundException {
 
-		TaskOptions opt = new TaskOptions(getLog(), verbose, debug, incrementalBuild, bufferSize, charset, suffix, nosuffix, skipMerge,
-			skipMinify, webappSourceDir, webappTargetDir, zstdDirectoryDir, jsSourceDir, jsSourceIncludeDir, jsSourceFiles,
-			jsSourceIncludes, jsSourceExcludes, jsTargetDir, jsFinalFile, jsEngine, yuiConfig, closureConfig, gzip, zstd);
+		TaskOptions opt = new TaskOptions(getLog(), verbose, debug, incrementalBuild, bufferSize, threads, charset, suffix, nosuffix, skipMerge,
+			skipMinify, writeMergedFile, webappSourceDir, webappTargetDir, zstdDirectoryDir, jsSourceDir, jsSourceIncludeDir, jsSourceFiles,
+			jsSourceIncludes, jsSourceExcludes, jsTargetDir, jsFinalFile, jsEngine, yuiConfig, closureConfig, gzip, gzipConfig, zstd, zstdConfig, brotli,
+			brotliWindow, dictionaries, compressionStage, gzipStage, fileStage, outputCache, gzipCache, adaptiveConfig, decisions, manifestDir());
 
 		return new ProcessJSFilesTask(opt);
 	}
+
+	private String manifestDir() {
+		return (buildDirectory != null) ? new File(buildDirectory, MANIFESTS_DIRNAME).getPath() : null;
+	}
 }
@@ -0,0 +1,205 @@
+package patchpump.minify.maven.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Persistent content-addressed cache of minified and compressed outputs shared by all builds of a user.
+ *
+ * Entries are directories named by a SHA-256 of the source bytes and an options fingerprint, holding one file per
+ * output suffix. Restoring an entry touches it, and the least recently used entries are evicted when the cache
+ * exceeds its maximum size.
+ */
+public class OutputCache {
+
+	private static final String ENTRY_FILENAME = "output";
+	private static final String TEMP_PREFIX = "tmp-";
+
+	private final File directory;
+	private final long maxSize;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Cache constructor.
+	 *
+	 * @param directory cache directory
+	 * @param maxSize maximum cache size in bytes
+	 */
+	public OutputCache(File directory, long maxSize) {
+		this.directory = directory;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Computes the cache key of a source.
+	 *
+	 * @param fingerprint options fingerprint
+	 * @param source source content
+	 * @return cache key
+	 */
+	public String key(String fingerprint, byte[] source) {
+
+		MessageDigest digest = sha256();
+		digest.update(fingerprint.getBytes(StandardCharsets.UTF_8));
+		digest.update(source);
+		return HexFormat.of().formatHex(digest.digest());
+	}
+
+	/**
+	 * Restores the outputs of a cached entry. Outputs not present in the entry are deleted.
+	 *
+	 * @param key cache key
+	 * @param target main output file
+	 * @param suffixes suffixes of the output files derived from the main output file
+	 * @return {@code true} on a cache hit
+	 * @throws IOException when an output cannot be restored
+	 */
+	public boolean restore(String key, File target, List<String> suffixes) throws IOException {
+
+		File entry = entry(key);
+		if (!entry.isDirectory() || !new File(entry, ENTRY_FILENAME).isFile()) {
+			misses.incrementAndGet();
+			return false;
+		}
+
+		for (String suffix : suffixes) {
+			File cached = new File(entry, ENTRY_FILENAME + suffix);
+			File output = new File(target.getPath() + suffix);
+			if (cached.isFile())
+				Files.copy(cached.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			else
+				Files.deleteIfExists(output.toPath());
+		}
+
+		entry.setLastModified(System.currentTimeMillis());
+		hits.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * Stores the existing outputs of a main output file. Concurrent stores of the same entry are harmless.
+	 *
+	 * @param key cache key
+	 * @param target main output file
+	 * @param suffixes suffixes of the output files derived from the main output file
+	 * @throws IOException when the entry cannot be written
+	 */
+	public void store(String key, File target, List<String> suffixes) throws IOException {
+
+		if (!target.isFile())
+			return;
+
+		File entry = entry(key);
+		File temp = new File(entry.getParentFile(), TEMP_PREFIX + UUID.randomUUID());
+		if (!temp.mkdirs())
+			throw new IOException("failed to create cache directory " + temp);
+
+		try {
+			for (String suffix : suffixes) {
+				File output = new File(target.getPath() + suffix);
+				if (output.isFile())
+					Files.copy(output.toPath(), new File(temp, ENTRY_FILENAME + suffix).toPath());
+			}
+			try {
+				Files.move(temp.toPath(), entry.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp.toPath(), entry.toPath());
+			}
+		} catch (IOException e) {
+			// fine when a concurrent build stored the same entry
+			if (!entry.isDirectory())
+				throw e;
+		} finally {
+			if (temp.exists())
+				FileUtils.deleteQuietly(temp);
+		}
+	}
+
+	/**
+	 * Evicts the least recently used entries until the cache fits its maximum size.
+	 *
+	 * @return number of evicted entries
+	 */
+	public int evict() {
+
+		List<File> entries = new ArrayList<>();
+		long size = 0;
+		File[] buckets = directory.listFiles(File::isDirectory);
+		if (buckets == null)
+			return 0;
+
+		for (File bucket : buckets) {
+			File[] bucketEntries = bucket.listFiles(File::isDirectory);
+			if (bucketEntries == null)
+				continue;
+			for (File entry : bucketEntries) {
+				if (entry.getName().startsWith(TEMP_PREFIX))
+					continue;
+				entries.add(entry);
+				size += FileUtils.sizeOfDirectory(entry);
+			}
+		}
+
+		if (size <= maxSize)
+			return 0;
+
+		entries.sort(Comparator.comparingLong(File::lastModified));
+		int evicted = 0;
+		for (File entry : entries) {
+			if (size <= maxSize)
+				break;
+			long entrySize = FileUtils.sizeOfDirectory(entry);
+			if (FileUtils.deleteQuietly(entry)) {
+				size -= entrySize;
+				evicted++;
+			}
+		}
+		return evicted;
+	}
+
+	/**
+	 * Gets the number of cache hits.
+	 *
+	 * @return cache hits
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Gets the number of cache misses.
+	 *
+	 * @return cache misses
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	private File entry(String key) {
+		return new File(new File(directory, key.substring(0, 2)), key);
+	}
+
+	private static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
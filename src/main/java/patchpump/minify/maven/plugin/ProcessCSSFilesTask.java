@@ -19,16 +19,18 @@
 package patchpump.minify.maven.plugin;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
 
+import patchpump.minify.maven.common.CssOptimizer;
 import patchpump.minify.maven.common.SafeCssCompressor;
+import patchpump.minify.maven.common.TokenCssCompressor;
 import patchpump.minify.maven.common.YuiCssCompressor;
 
 /**
@@ -46,26 +48,21 @@ public class ProcessCSSFilesTask extends ProcessFilesTask {
 	}
 
 	/**
-	 * Minifies a CSS file. Create missing parent directories if needed.
+	 * Minifies a CSS file.
 	 *
-	 * @param mergedFile input file resulting from the merged step
-	 * @param minifiedFile output file resulting from the minify step
+	 * @param mergedFile input file resulting from the merged step, only used for naming
+	 * @param in content of the input file
+	 * @param minifiedFile output file resulting from the minify step, only used for naming and related outputs
+	 * @param out stream of the minified file and its compressed variants
 	 * @throws IOException when the minify step fails
 	 */
 	@Override
-	protected void minify(File mergedFile, File minifiedFile) throws IOException {
+	protected void minify(File mergedFile, InputStream in, File minifiedFile, OutputStream out) throws IOException {
 
-		minifiedFile.getParentFile().mkdirs();
-		File compressedFile = new File(minifiedFile.getAbsolutePath() + ".gz");
-		File zstdFile = new File(minifiedFile.getAbsolutePath() + ".zst");
-		File dczFile = new File(minifiedFile.getAbsolutePath() + ".dcz");
-		OutputStream out = new FileOutputStream(minifiedFile);
-		try (InputStream in = new FileInputStream(mergedFile);
-			InputStreamReader reader = new InputStreamReader(in, opt.charset);
+		log.info("Creating minified file [" + ((opt.verbose) ? minifiedFile.getPath() : minifiedFile.getName()) + "].");
+		try (Reader reader = reader(mergedFile, in);
 			OutputStreamWriter writer = new OutputStreamWriter(out, opt.charset)) {
 
-			log.info("Creating minified file [" + ((opt.verbose) ? minifiedFile.getPath() : minifiedFile.getName()) + "].");
-
 			switch (opt.engine) {
 			case YUI:
 				log.debug("Using YUI Compressor engine.");
@@ -78,6 +75,11 @@ public class ProcessCSSFilesTask extends ProcessFilesTask {
 				new SafeCssCompressor(reader).compress(writer);
 				break;
 
+			case TOKENCSS:
+				log.debug("Using TOKENCSS Compressor engine.");
+				new TokenCssCompressor(reader).compress(writer);
+				break;
+
 			default:
 				log.warn("CSS engine not supported.");
 				break;
@@ -86,21 +88,33 @@ public class ProcessCSSFilesTask extends ProcessFilesTask {
 			writer.flush();
 
 		} catch (Exception e) {
-			close(out);
-			minifiedFile.delete();
-			compressedFile.delete();
-			dczFile.delete();
 			log.error("Failed to compress the CSS file [" + ((opt.verbose) ? mergedFile.getPath() : mergedFile.getName()) + "].", e);
 			throw new IOException(e);
-
-		} finally {
-			close(out);
 		}
+	}
 
-		if (opt.gzip)
-			gzip(minifiedFile, compressedFile);
+	/**
+	 * Gets the reader of the CSS to minify, optimized first when {@code cssOptimize} is set.
+	 *
+	 * @param mergedFile input file resulting from the merged step, only used for naming
+	 * @param in content of the input file
+	 * @return reader of the CSS to minify
+	 * @throws IOException when the content cannot be read
+	 */
+	private Reader reader(File mergedFile, InputStream in) throws IOException {
 
-		if (opt.zstd > 0)
-			zstd(minifiedFile, zstdFile, dczFile);
+		if (!opt.optimize)
+			return new InputStreamReader(in, opt.charset);
+
+		String css = new String(in.readAllBytes(), opt.charset);
+		String optimized = new CssOptimizer(css).optimize();
+		if (optimized == css) {
+			log.debug("Skipped optimizing the CSS file [" + ((opt.verbose) ? mergedFile.getPath() : mergedFile.getName())
+				+ "], it has unbalanced blocks or unterminated strings.");
+		} else {
+			log.debug("Optimized the CSS file [" + ((opt.verbose) ? mergedFile.getPath() : mergedFile.getName()) + "] from "
+				+ css.length() + " to " + optimized.length() + " characters.");
+		}
+		return new StringReader(optimized);
 	}
 }
@@ -18,8 +18,9 @@
  */
 package patchpump.minify.maven.plugin;
 
-import static org.apache.commons.io.FileUtils.readFileToByteArray;
-
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -27,17 +28,34 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.CodeSource;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Set;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
 import java.util.zip.GZIPOutputStream;
 
 import org.apache.maven.plugin.logging.Log;
@@ -45,10 +63,26 @@ import org.codehaus.plexus.util.DirectoryScanner;
 import org.codehaus.plexus.util.FileUtils;
 import org.codehaus.plexus.util.IOUtil;
 
+import com.aayushatharva.brotli4j.decoder.BrotliInputStream;
+import com.aayushatharva.brotli4j.encoder.BrotliOutputStream;
+import com.aayushatharva.brotli4j.encoder.Encoder;
+import com.aayushatharva.brotli4j.encoder.PreparedDictionary;
+import com.github.luben.zstd.ZstdCompressCtx;
 import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdException;
 import com.github.luben.zstd.ZstdOutputStreamNoFinalizer;
+import com.google.javascript.jscomp.ModuleIdentifier;
 
+import patchpump.minify.maven.common.BufferedLog;
+import patchpump.minify.maven.common.DictionaryRegistry;
+import patchpump.minify.maven.common.DictionaryRegistry.Dictionary;
+import patchpump.minify.maven.common.ExhaustiveDeflater;
+import patchpump.minify.maven.common.FanOutOutputStream;
+import patchpump.minify.maven.common.GzipConfig;
+import patchpump.minify.maven.common.ParallelGzipOutputStream;
 import patchpump.minify.maven.common.SourceFilesEnumeration;
+import patchpump.minify.maven.common.ZstdConfig;
+import patchpump.minify.maven.common.ZstdFrameOutputStream;
 
 /**
  * Abstract class for merging and compressing a files list.
@@ -56,9 +90,19 @@ import patchpump.minify.maven.common.SourceFilesEnumeration;
 public abstract class ProcessFilesTask implements Callable<Object> {
 
 	private static final byte[] DCZ_HEADER = new byte[] { (byte)0x5e, (byte)0x2a, (byte)0x4d, (byte)0x18, (byte)0x20, (byte)0x00, (byte)0x00, (byte)0x00 };
+	private static final byte[] DCB_HEADER = new byte[] { (byte)0xff, (byte)0x44, (byte)0x43, (byte)0x42 };
 	private static final String TEMP_SUFFIX = ".tmp";
+	private static final String PLUGIN_VERSION = pluginVersion();
+	private static final int MIN_BUFFER_SIZE = 4 * 1024;
+	private static final int MAX_BUFFER_SIZE = 256 * 1024;
+
+	// charsets where decoding and encoding again yields the input bytes, so that files can be merged byte by byte
+	private static final Set<Charset> BYTE_CONCATENABLE_CHARSETS = Set.of(StandardCharsets.UTF_8, StandardCharsets.ISO_8859_1);
 
-	protected static final ConcurrentHashMap<String,ZstdDictCompress> dictCache = new ConcurrentHashMap<>();
+	private static final List<String> OUTPUT_SUFFIXES = List.of("", ".map", ".gz", ".zst", ".dcz", ".br", ".dcb");
+	private static final List<String> GZIP_CACHE_SUFFIXES = List.of("");
+	private static final List<Integer> ADAPTIVE_ZSTD_LEVELS = List.of(19, 22);
+	private static final String NO_OUTPUT = "none";
 
 	final Log log;
 	final File sourceDir;
@@ -66,12 +110,22 @@ public abstract class ProcessFilesTask implements Callable<Object> {
 	final File sourceIncludeDir;
 	final List<File> files = new ArrayList<>();
 
-	final long sourceLastModified;
+	final long sourceSize;
 	final boolean sourceFilesEmpty;
 	final boolean sourceIncludesEmpty;
 	
 	final TaskOptions opt;
 
+	private volatile long elapsed;
+	private volatile boolean processed;
+
+	private final List<Future<Object>> compressions = new ArrayList<>();
+	private final List<BufferedLog.Section> compressionSections = new ArrayList<>();
+	private BuildManifest manifest;
+	private File manifestFile;
+
+	private String optionsFingerprint;
+
 	/**
 	 * Task constructor.
 	 *
@@ -105,13 +159,10 @@ public abstract class ProcessFilesTask implements Callable<Object> {
 		this.sourceFilesEmpty = opt.sourceFiles.isEmpty();
 		this.sourceIncludesEmpty = opt.sourceIncludes.isEmpty();
 		
-		long max = 0;
-		for (File file : files) {
-			long lastModified = file.lastModified();
-			if (lastModified > max)
-				max = lastModified;
-		}
-		sourceLastModified = max;
+		long size = 0;
+		for (File file : files)
+			size += file.length();
+		sourceSize = size;
 	}
 
 	private File appendRelativePath(String base, String relative) {
@@ -128,11 +179,152 @@ public abstract class ProcessFilesTask implements Callable<Object> {
 	 */
 	@Override
 	public Object call() throws IOException {
-		synchronized (log) {
+		long started = System.currentTimeMillis();
+		try {
 			callSyncronous();
+			if (opt.compression == null)
+				complete();
+		} finally {
+			elapsed = System.currentTimeMillis() - started;
 		}
 		return null;
 	}
+
+	/**
+	 * Waits for the outputs queued on the compression stage, then records the build manifest. Does nothing more
+	 * when called again, or when compression is not staged as the task then completes itself.
+	 *
+	 * @throws IOException when the compression of an output failed
+	 */
+	public void complete() throws IOException {
+
+		List<Future<Object>> pending;
+		List<BufferedLog.Section> sections;
+		synchronized (compressions) {
+			pending = new ArrayList<>(compressions);
+			sections = new ArrayList<>(compressionSections);
+			compressions.clear();
+			compressionSections.clear();
+		}
+
+		IOException failure = null;
+		for (int i = 0; i < pending.size(); i++) {
+			try {
+				pending.get(i).get();
+				opt.log.append(sections.get(i));
+			} catch (ExecutionException e) {
+				opt.log.append(sections.get(i));
+				if (failure == null)
+					failure = (e.getCause() instanceof IOException) ? (IOException)e.getCause() : new IOException(e.getCause());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("interrupted while compressing files");
+			}
+		}
+		if (failure != null)
+			throw failure;
+
+		if (manifest != null) {
+			manifest.save(manifestFile);
+			manifest = null;
+		}
+	}
+
+	/**
+	 * Gets a key identifying the task output across builds.
+	 *
+	 * @return task key
+	 */
+	public String getKey() {
+		return opt.type + ":" + new File(targetDir, opt.mergedFilename).getPath();
+	}
+
+	/**
+	 * Gets the total size of the source files.
+	 *
+	 * @return size in bytes
+	 */
+	public long getSourceSize() {
+		return sourceSize;
+	}
+
+	/**
+	 * Gets the source files.
+	 *
+	 * @return source files in merge order
+	 */
+	public List<File> getSourceFiles() {
+		return Collections.unmodifiableList(files);
+	}
+
+	/**
+	 * Gets the directories the source files are resolved from.
+	 *
+	 * @return source directory and source include directory
+	 */
+	public List<File> getSourceDirs() {
+		return List.of(sourceDir, sourceIncludeDir);
+	}
+
+	/**
+	 * Gets the minified files written by the task.
+	 *
+	 * @return minified files, empty when the minify step is skipped
+	 */
+	public List<File> getMinifiedFiles() {
+
+		if (opt.skipMinify)
+			return List.of();
+
+		if (!opt.skipMerge)
+			return List.of(minifiedFile());
+
+		List<File> minifiedFiles = new ArrayList<>(files.size());
+		for (File file : files)
+			minifiedFiles.add(minifiedFile(file));
+		return minifiedFiles;
+	}
+
+	private File minifiedFile() {
+		File targetFile = new File(targetDir, opt.mergedFilename);
+		String extension = FileUtils.getExtension(targetFile.getName());
+		String baseName = FileUtils.basename(targetFile.getName());
+		return new File(targetFile.getParentFile(), (opt.nosuffix) ? opt.mergedFilename : baseName + opt.suffix + "." + extension);
+	}
+
+	private File minifiedFile(File sourceFile) {
+		String fileName = sourceFile.getName();
+		String baseName = FileUtils.basename(fileName);
+		String extension = FileUtils.getExtension(fileName);
+		String originalPath = sourceFile.getAbsolutePath();
+		String subPath = originalPath.substring(sourceDir.getAbsolutePath().length(), originalPath.lastIndexOf(File.separator));
+		return new File(new File(targetDir, subPath), (opt.nosuffix) ? fileName : baseName + opt.suffix + "." + extension);
+	}
+
+	/**
+	 * Gets the duration of the last run.
+	 *
+	 * @return duration in milliseconds
+	 */
+	public long getElapsed() {
+		return elapsed;
+	}
+
+	/**
+	 * Tells if the last run merged or minified files, as opposed to skipping all work as up to date.
+	 *
+	 * @return {@code true} if files were processed
+	 */
+	public boolean isProcessed() {
+		return processed;
+	}
+
+	/**
+	 * Writes messages buffered by the task to the Maven log.
+	 */
+	public void flushLog() {
+		opt.log.flush();
+	}
 	
 	private void callSyncronous() throws IOException {
 
@@ -144,7 +336,7 @@ public abstract class ProcessFilesTask implements Callable<Object> {
 			return;
 		}
 
-		if (!targetDir.exists() && !targetDir.mkdirs())
+		if (!targetDir.mkdirs() && !targetDir.isDirectory())
 			throw new IOException("failed to create target directory " + targetDir);
 
 		if (opt.skipMerge) {
@@ -153,21 +345,46 @@ public abstract class ProcessFilesTask implements Callable<Object> {
 			else
 				log.info("Starting " + opt.type + " [minify] task.");
 				
-			String sourceBasePath = sourceDir.getAbsolutePath();
-
+			List<File> targetFiles = new ArrayList<>(files.size());
+			Set<File> targetPaths = new LinkedHashSet<>();
 			for (File file : files) {
-				String fileName = file.getName();
-				String baseName = FileUtils.basename(file.getName());
-				String extension = FileUtils.getExtension(file.getName());
-				String originalPath = file.getAbsolutePath();
-				String subPath = originalPath.substring(sourceBasePath.length(), originalPath.lastIndexOf(File.separator));
+				File targetFile = minifiedFile(file);
+				targetPaths.add(targetFile.getParentFile());
+				targetFiles.add(targetFile);
+			}
 
-				File targetPath = new File(targetDir, subPath);
-				targetPath.mkdirs();
+			for (File targetPath : targetPaths) {
+				if (!targetPath.mkdirs() && !targetPath.isDirectory())
+					throw new IOException("failed to create target directory " + targetPath);
+			}
 
-				File targetFile = new File(targetPath, (opt.nosuffix) ? fileName : baseName + opt.suffix + "." + extension);
-				minifyFile(file, targetFile);
+			File manifestFile = getManifestFile();
+			BuildManifest previous = (manifestFile != null) ? BuildManifest.load(manifestFile) : null;
+			BuildManifest current = (manifestFile != null) ? BuildManifest.create(getManifestOptions(targetFiles), files, targetFiles, previous) : null;
+
+			List<File> pendingFiles = new ArrayList<>(files.size());
+			List<File> pendingTargetFiles = new ArrayList<>(files.size());
+			for (int i = 0; i < files.size(); i++) {
+				File file = files.get(i);
+				File targetFile = targetFiles.get(i);
+				BuildManifest.Entry built = (previous != null) ? previous.get(file.getPath()) : null;
+				if (current != null && current.isSameOptions(previous) && current.getFiles().get(i).sameSource(built)
+					&& targetFile.getPath().equals(built.target) && hasOutput(targetFile)) {
+					if (opt.verbose)
+						log.info("Skipping as [" + file + "] is up to date.");
+					continue;
+				}
+				pendingFiles.add(file);
+				pendingTargetFiles.add(targetFile);
 			}
+
+			if (current != null) {
+				if (previous != null)
+					deleteRemovedOutputs(previous, targetFiles);
+				manifestFile.delete();
+			}
+			minifyFiles(pendingFiles, pendingTargetFiles);
+			recordManifest(current, manifestFile);
 			return;
 		}
 
@@ -178,7 +395,19 @@ public abstract class ProcessFilesTask implements Callable<Object> {
 				log.info("Starting " + opt.type + " [merge] task.");
 				
 			File mergedFile = new File(targetDir, opt.mergedFilename);
+			File manifestFile = getManifestFile();
+			BuildManifest previous = (manifestFile != null) ? BuildManifest.load(manifestFile) : null;
+			BuildManifest current = (manifestFile != null) ? BuildManifest.create(getManifestOptions(List.of(mergedFile)), files, null, previous) : null;
+			if (current != null && current.isSame(previous) && hasOutput(mergedFile)) {
+				if (opt.verbose)
+					log.info("Skipping as [" + mergedFile + "] is up to date.");
+				return;
+			}
+
+			if (current != null)
+				manifestFile.delete();
 			mergeFiles(mergedFile);
+			recordManifest(current, manifestFile);
 			return;
 		}
 
@@ -188,10 +417,7 @@ public abstract class ProcessFilesTask implements Callable<Object> {
 			log.info("Starting " + opt.type + " [merge, minify] task.");
 			
 		File mergedFile = new File(targetDir, (opt.nosuffix) ? opt.mergedFilename + TEMP_SUFFIX : opt.mergedFilename);
-		File taretFile = new File(targetDir, opt.mergedFilename);
-		String extension = FileUtils.getExtension(taretFile.getName());
-		String baseName = FileUtils.basename(taretFile.getName());
-		File minifiedFile = new File(taretFile.getParentFile(), (opt.nosuffix) ? opt.mergedFilename : baseName + opt.suffix + "." + extension);
+		File minifiedFile = minifiedFile();
 		if(opt.debug) {
 			log.info("targetDir: " + targetDir);
 			log.info("mergedFilename: " + opt.mergedFilename);
@@ -199,17 +425,60 @@ public abstract class ProcessFilesTask implements Callable<Object> {
 			log.info("minifiedFile: " + minifiedFile);
 		}
 		
-		mergeFiles(mergedFile);
-		minifyFile(mergedFile, minifiedFile);
-		
-		if (opt.nosuffix) {
-			if (!mergedFile.delete())
-				mergedFile.deleteOnExit();
+		File manifestFile = getManifestFile();
+		BuildManifest previous = (manifestFile != null) ? BuildManifest.load(manifestFile) : null;
+		BuildManifest current = (manifestFile != null) ? BuildManifest.create(getManifestOptions(List.of(minifiedFile)), files, null, previous) : null;
+		boolean writeMergedFile = opt.writeMergedFile && !opt.nosuffix;
+		if (current != null && current.isSame(previous) && hasOutput(minifiedFile) && (!writeMergedFile || hasOutput(mergedFile))) {
+			if (opt.verbose)
+				log.info("Skipping as [" + minifiedFile + "] is up to date.");
+			return;
 		}
+
+		if (current != null)
+			manifestFile.delete();
+
+		byte[] merged = mergeFiles();
+		if (writeMergedFile) {
+			log.info("Creating merged file [" + ((opt.verbose) ? mergedFile.getPath() : mergedFile.getName()) + "].");
+			Files.write(mergedFile.toPath(), merged);
+		}
+		minifyFile(mergedFile, merged, minifiedFile);
+
+		recordManifest(current, manifestFile);
 		
 		log.info("Task finished in " + (System.currentTimeMillis() - started) + " ms.");
 	}
 
+	/**
+	 * Merges source files in memory.
+	 *
+	 * @return merged content
+	 * @throws IOException if the merge step fails
+	 */
+	private byte[] mergeFiles() throws IOException {
+
+		processed = true;
+		SourceFilesEnumeration source = new SourceFilesEnumeration(log, files, opt.verbose);
+
+		ByteArrayOutputStream merged = new ByteArrayOutputStream((int)Math.min(sourceSize, Integer.MAX_VALUE - 8));
+		if (BYTE_CONCATENABLE_CHARSETS.contains(Charset.forName(opt.charset))) {
+			while (source.hasMoreElements()) {
+				try (InputStream in = source.nextElement()) {
+					in.transferTo(merged);
+				}
+			}
+			return merged.toByteArray();
+		}
+
+		try (InputStream sequence = new SequenceInputStream(source)) {
+			InputStreamReader sequenceReader = new InputStreamReader(sequence, opt.charset);
+			OutputStreamWriter mergedWriter = new OutputStreamWriter(merged, opt.charset);
+			IOUtil.copy(sequenceReader, mergedWriter, bufferSize(sourceSize));
+		}
+		return merged.toByteArray();
+	}
+
 	/**
 	 * Merges source files into given target. Create missing parent directories if needed.
 	 *
@@ -217,161 +486,993 @@ public abstract class ProcessFilesTask implements Callable<Object> {
 	 * @throws IOException if the merge step fails
 	 */
 	private void mergeFiles(File targetFile) throws IOException {
-		
-		if (opt.incrementalBuild && targetFile.exists() && targetFile.lastModified() > sourceLastModified && targetFile.length() > 0) {
-			if (opt.verbose)
-				log.info("Skipping as [" + targetFile + "] is up to date.");
-			return;
-		}
 
+		processed = true;
 		targetFile.getParentFile().mkdirs();
 		SourceFilesEnumeration source = new SourceFilesEnumeration(log, files, opt.verbose);
+
+		if (BYTE_CONCATENABLE_CHARSETS.contains(Charset.forName(opt.charset))) {
+			try (FileChannel out = FileChannel.open(targetFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				log.info("Creating merged file [" + ((opt.verbose) ? targetFile.getPath() : targetFile.getName()) + "].");
+				for (File file : files) {
+					try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+						long size = in.size();
+						for (long position = 0; position < size; )
+							position += in.transferTo(position, size - position, out);
+					}
+				}
+			}
+			return;
+		}
+
 		try (InputStream sequence = new SequenceInputStream(source)) {
 			InputStreamReader sequenceReader = new InputStreamReader(sequence, opt.charset);
 			try (OutputStream out = new FileOutputStream(targetFile)) {
 				OutputStreamWriter outWriter = new OutputStreamWriter(out, opt.charset);
 				log.info("Creating merged file [" + ((opt.verbose) ? targetFile.getPath() : targetFile.getName()) + "].");
-				IOUtil.copy(sequenceReader, outWriter, opt.bufferSize);
+				IOUtil.copy(sequenceReader, outWriter, bufferSize(sourceSize));
+			}
+		}
+	}
+
+	/**
+	 * Gets the copy buffer size, the configured size or a size growing with the data up to {@link #MAX_BUFFER_SIZE}.
+	 *
+	 * @param size size of the data to copy
+	 * @return buffer size
+	 */
+	int bufferSize(long size) {
+
+		if (opt.bufferSize > 0)
+			return opt.bufferSize;
+
+		return (int)Math.max(MIN_BUFFER_SIZE, Math.min(MAX_BUFFER_SIZE, Long.highestOneBit(size)));
+	}
+
+	/**
+	 * Minifies source files individually on the file stage shared by the tasks of the mojo. Messages are logged in
+	 * source file order, and the first failing file in that order fails the task.
+	 *
+	 * @param sourceFiles input files
+	 * @param targetFiles output files, in the same order, with existing parent directories
+	 * @throws IOException if the minify step fails
+	 */
+	private void minifyFiles(List<File> sourceFiles, List<File> targetFiles) throws IOException {
+
+		if (opt.files == null || sourceFiles.size() <= 1) {
+			for (int i = 0; i < sourceFiles.size(); i++)
+				minifyFile(sourceFiles.get(i), targetFiles.get(i));
+			return;
+		}
+
+		List<BufferedLog.Section> sections = new ArrayList<>(sourceFiles.size());
+		List<Future<Object>> tasks = new ArrayList<>(sourceFiles.size());
+		try {
+			for (int i = 0; i < sourceFiles.size(); i++) {
+				File sourceFile = sourceFiles.get(i);
+				File targetFile = targetFiles.get(i);
+				BufferedLog.Section section = new BufferedLog.Section();
+				sections.add(section);
+				tasks.add(opt.files.submit(() -> {
+					opt.log.beginSection(section);
+					try {
+						minifyFile(sourceFile, targetFile);
+					} finally {
+						opt.log.endSection();
+					}
+					return null;
+				}));
 			}
+
+			for (int i = 0; i < tasks.size(); i++) {
+				try {
+					tasks.get(i).get();
+					opt.log.append(sections.get(i));
+				} catch (ExecutionException e) {
+					opt.log.append(sections.get(i));
+					if (e.getCause() instanceof IOException)
+						throw (IOException)e.getCause();
+					throw new IOException(e.getCause());
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("interrupted while minifying files");
+				}
+			}
+		} finally {
+			// the stage is shared with the other tasks, only the files of this task are cancelled on failure
+			for (Future<Object> task : tasks)
+				task.cancel(true);
 		}
 	}
 
 	/**
-	 * Minifies a source file. Checks for incremental build.
+	 * Minifies a source file.
 	 *
-	 * @param sourceFile input file resulting from the merged step
+	 * @param sourceFile input file
 	 * @param targetFile output file resulting from the minify step
 	 * @throws IOException if the minify step fails
 	 */
 	private void minifyFile(File sourceFile, File targetFile) throws IOException {
+		minifyFile(sourceFile, Files.readAllBytes(sourceFile.toPath()), targetFile);
+	}
 
-		if (opt.incrementalBuild && targetFile.exists() && targetFile.lastModified() > sourceFile.lastModified() && targetFile.length() > 0) {
-			if (opt.verbose)
-				log.info("Skipping as [" + sourceFile + "] is up to date.");
+	/**
+	 * Minifies source content. Restores the outputs from the output cache if enabled.
+	 *
+	 * @param sourceFile input file resulting from the merged step, only used for naming as it may not exist
+	 * @param source content of the input file
+	 * @param targetFile output file resulting from the minify step
+	 * @throws IOException if the minify step fails
+	 */
+	private void minifyFile(File sourceFile, byte[] source, File targetFile) throws IOException {
+
+		processed = true;
+
+		List<String> suffixes = getOutputSuffixes();
+		String key = null;
+		if (opt.cache != null) {
+			key = opt.cache.key(getFingerprint(sourceFile, targetFile), source);
+			try {
+				if (opt.cache.restore(key, targetFile, suffixes)) {
+					log.info("Restored file [" + ((opt.verbose) ? targetFile.getPath() : targetFile.getName()) + "] from the output cache.");
+					return;
+				}
+			} catch (IOException e) {
+				log.warn("Failed to restore [" + targetFile + "] from the output cache: " + e.getMessage());
+			}
+		}
+
+		boolean compressed = opt.gzip || opt.zstd > 0 || opt.brotli > 0;
+		boolean staged = opt.compression != null && compressed;
+		boolean captured = staged || (opt.adaptiveConfig != null && compressed);
+		ByteArrayOutputStream minified = (captured) ? new ByteArrayOutputStream(source.length / 2) : null;
+		FanOutOutputStream out = openOutputs(targetFile, minified);
+		try {
+			minify(sourceFile, new ByteArrayInputStream(source), targetFile, out);
+			out.close();
+		} catch (IOException | RuntimeException e) {
+			// the compressed outputs of partial content are not completed, nor cached
+			out.abort();
+			deleteOutputs(targetFile);
+			throw e;
+		}
+
+		String cacheKey = key;
+		if (!captured) {
+			finishOutputs(targetFile);
+			store(cacheKey, targetFile, suffixes);
 			return;
 		}
-		minify(sourceFile, targetFile);
+
+		byte[] content = minified.toByteArray();
+		if (!staged) {
+			compressAndStore(content, targetFile, cacheKey, suffixes);
+			return;
+		}
+
+		// the messages of the compression are appended in file order when the task completes
+		BufferedLog.Section section = new BufferedLog.Section();
+		Future<Object> compression = opt.compression.submit(() -> {
+			opt.log.beginSection(section);
+			try {
+				compressAndStore(content, targetFile, cacheKey, suffixes);
+			} finally {
+				opt.log.endSection();
+			}
+			return null;
+		});
+		synchronized (compressions) {
+			compressions.add(compression);
+			compressionSections.add(section);
+		}
+	}
+
+	private void compressAndStore(byte[] content, File targetFile, String key, List<String> suffixes) throws IOException {
+
+		try {
+			compress(content, targetFile);
+		} catch (IOException | RuntimeException e) {
+			deleteOutputs(targetFile);
+			log.error("Failed to compress the file [" + ((opt.verbose) ? targetFile.getPath() : targetFile.getName()) + "].", e);
+			throw e;
+		}
+		finishOutputs(targetFile);
+		store(key, targetFile, suffixes);
+	}
+
+	private void store(String key, File targetFile, List<String> suffixes) {
+
+		if (key == null)
+			return;
+
+		try {
+			opt.cache.store(key, targetFile, suffixes);
+		} catch (IOException e) {
+			log.warn("Failed to store [" + targetFile + "] in the output cache: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Gets the build manifest file of the task.
+	 *
+	 * @return manifest file, {@code null} when incremental build is disabled
+	 * @throws IOException when the key cannot be hashed
+	 */
+	private File getManifestFile() throws IOException {
+
+		if (!opt.incrementalBuild || opt.manifestDir == null)
+			return null;
+
+		String key = sha256(getKey().getBytes(StandardCharsets.UTF_8)).substring(0, 16);
+		return new File(opt.manifestDir, opt.mergedFilename + "-" + key + ".json");
+	}
+
+	/**
+	 * Records the manifest of a successful build, saved by {@link #complete()}.
+	 *
+	 * @param current manifest, may be {@code null} when incremental build is disabled
+	 * @param file manifest file
+	 */
+	private void recordManifest(BuildManifest current, File file) {
+		manifest = current;
+		manifestFile = file;
+	}
+
+	/**
+	 * Gets the fingerprint of the options that determine the task outputs.
+	 *
+	 * @param targetFiles output files
+	 * @return options fingerprint
+	 * @throws IOException when an extern or dictionary cannot be read
+	 */
+	private String getManifestOptions(List<File> targetFiles) throws IOException {
+
+		StringBuilder fingerprint = new StringBuilder(getOptionsFingerprint());
+		fingerprint.append("|suffix=").append(opt.suffix);
+		fingerprint.append("|nosuffix=").append(opt.nosuffix);
+		fingerprint.append("|skipMerge=").append(opt.skipMerge);
+		fingerprint.append("|skipMinify=").append(opt.skipMinify);
+		if (!opt.skipMinify && (opt.zstd > 0 || opt.brotli > 0) && opt.zstdDirectoryDir != null) {
+			Set<File> dictionaryFiles = new LinkedHashSet<>();
+			for (File targetFile : targetFiles)
+				dictionaryFiles.add(dictionaryFile(opt.zstdDirectoryDir, targetFile));
+			for (File dictionaryFile : dictionaryFiles) {
+				if (dictionaryFile != null && dictionaryFile.canRead())
+					fingerprint.append("|dictionary=").append(opt.dictionaries.hash(dictionaryFile, opt.zstd));
+			}
+		}
+		return fingerprint.toString();
+	}
+
+	/**
+	 * Tells if an output of an earlier build is still present.
+	 *
+	 * @param file output file
+	 * @return {@code true} if present and not empty
+	 */
+	private static boolean hasOutput(File file) {
+		return file.isFile() && file.length() > 0;
+	}
+
+	/**
+	 * Deletes the outputs of source files minified by an earlier build that are no longer part of the task.
+	 *
+	 * @param previous manifest of the earlier build
+	 * @param targetFiles current output files
+	 */
+	private void deleteRemovedOutputs(BuildManifest previous, List<File> targetFiles) {
+
+		Set<String> targets = new HashSet<>();
+		for (File targetFile : targetFiles)
+			targets.add(targetFile.getPath());
+
+		for (BuildManifest.Entry entry : previous.getFiles()) {
+			if (entry.target == null || targets.contains(entry.target))
+				continue;
+			for (String suffix : OUTPUT_SUFFIXES) {
+				File output = new File(entry.target + suffix);
+				if (output.isFile() && output.delete() && opt.verbose)
+					log.info("Deleted [" + output + "] as its source file was removed.");
+			}
+		}
+	}
+
+	/**
+	 * Gets the suffixes of the files written by the minify step next to the minified file, the minified file itself
+	 * being the empty suffix.
+	 *
+	 * @return output suffixes
+	 */
+	private List<String> getOutputSuffixes() {
+
+		List<String> suffixes = new ArrayList<>();
+		suffixes.add("");
+		if (opt.closureConfig != null && opt.closureConfig.getSourceMapFormat() != null)
+			suffixes.add(".map");
+		if (opt.gzip)
+			suffixes.add(".gz");
+		if (opt.zstd > 0) {
+			suffixes.add(".zst");
+			if (opt.zstdDirectoryDir != null)
+				suffixes.add(".dcz");
+		}
+		if (opt.brotli > 0) {
+			suffixes.add(".br");
+			if (opt.zstdDirectoryDir != null)
+				suffixes.add(".dcb");
+		}
+		return suffixes;
+	}
+
+	/**
+	 * Gets the fingerprint of everything besides the source content that determines the minify step outputs.
+	 *
+	 * @param sourceFile input file
+	 * @param targetFile output file
+	 * @return fingerprint
+	 * @throws IOException when an extern or dictionary cannot be read
+	 */
+	private String getFingerprint(File sourceFile, File targetFile) throws IOException {
+
+		StringBuilder fingerprint = new StringBuilder(getOptionsFingerprint());
+		fingerprint.append("|source=").append(sourceFile.getName());
+		fingerprint.append("|target=").append(targetFile.getName());
+		if ((opt.zstd > 0 || opt.brotli > 0) && opt.zstdDirectoryDir != null) {
+			File dictionaryFile = dictionaryFile(opt.zstdDirectoryDir, targetFile);
+			if (dictionaryFile != null && dictionaryFile.canRead())
+				fingerprint.append("|dictionary=").append(opt.dictionaries.hash(dictionaryFile, opt.zstd));
+		}
+		return fingerprint.toString();
+	}
+
+	private synchronized String getOptionsFingerprint() throws IOException {
+
+		if (optionsFingerprint == null) {
+			StringBuilder fingerprint = new StringBuilder();
+			fingerprint.append("plugin=").append(PLUGIN_VERSION);
+			fingerprint.append("|type=").append(opt.type);
+			fingerprint.append("|engine=").append(opt.engine);
+			fingerprint.append("|charset=").append(opt.charset);
+			fingerprint.append("|yui=").append(opt.yuiConfig);
+			if (opt.optimize)
+				fingerprint.append("|optimize=true");
+			fingerprint.append("|gzip=").append(opt.gzip);
+			if (opt.gzip && !opt.gzipConfig.isDefault())
+				fingerprint.append("|gzipConfig=").append(opt.gzipConfig);
+			if (opt.gzip && opt.gzipBlocks != null)
+				fingerprint.append("|gzipBlocks=").append(ParallelGzipOutputStream.BLOCK_SIZE);
+			fingerprint.append("|zstd=").append(opt.zstd);
+			if (opt.zstd > 0 && !opt.zstdConfig.isDefault())
+				fingerprint.append("|zstdConfig=").append(opt.zstdConfig);
+			if (opt.brotli > 0)
+				fingerprint.append("|brotli=").append(opt.brotli).append(':').append(opt.brotliWindow);
+			if (opt.adaptiveConfig != null)
+				fingerprint.append("|adaptive=").append(opt.adaptiveConfig);
+			if (opt.closureConfig != null) {
+				fingerprint.append("|language=").append(opt.closureConfig.getLanguage());
+				fingerprint.append("|compilationLevel=").append(opt.closureConfig.getCompilationLevel());
+				fingerprint.append("|dependencyMode=").append(opt.closureConfig.getDependencyOptions().getMode());
+				for (ModuleIdentifier entryPoint : opt.closureConfig.getDependencyOptions().getEntryPoints())
+					fingerprint.append("|entryPoint=").append(entryPoint.getName());
+				fingerprint.append("|useDefaultExterns=").append(opt.closureConfig.getUseDefaultExterns());
+				fingerprint.append("|sourceMapFormat=").append(opt.closureConfig.getSourceMapFormat());
+				fingerprint.append("|angularPass=").append(opt.closureConfig.getAngularPass());
+				fingerprint.append("|warningLevels=").append(opt.closureConfig.getWarningLevels());
+				fingerprint.append("|externs=").append(opt.closureConfig.getClosureExterns().getKey());
+			}
+			optionsFingerprint = fingerprint.toString();
+		}
+		return optionsFingerprint;
 	}
 	
 	/**
-	 * Minifies a source file. Create missing parent directories if needed.
+	 * Minifies source content.
 	 *
-	 * @param sourceFile input file resulting from the merged step
-	 * @param targetFile output file resulting from the minify step
+	 * @param sourceFile input file resulting from the merged step, only used for naming as it may not exist
+	 * @param in content of the input file
+	 * @param targetFile output file resulting from the minify step, only used for naming and related outputs
+	 * @param out stream of the target file and its compressed variants
 	 * @throws IOException if the minify step fails
 	 */
-	abstract void minify(File sourceFile, File targetFile) throws IOException;
+	abstract void minify(File sourceFile, InputStream in, File targetFile, OutputStream out) throws IOException;
 
 	/**
-	 * Gzip compress file.
-	 * 
-	 * @param source source file
-	 * @param target target file
+	 * Opens the minified file. Its enabled gzip, zstd, dcz, brotli and dcb variants are written in the same pass so that the
+	 * minifier output is never read back from disk, unless the content is captured for the compression stage.
+	 *
+	 * @param minifiedFile minified file
+	 * @param capture stream capturing the minified content instead of compressing it, may be {@code null}
+	 * @return stream writing all outputs, closing it finishes the compressed outputs
+	 * @throws IOException when an output cannot be created
+	 */
+	private FanOutOutputStream openOutputs(File minifiedFile, OutputStream capture) throws IOException {
+
+		FanOutOutputStream out = new FanOutOutputStream();
+		try {
+			out.add(new FileOutputStream(minifiedFile));
+			if (capture != null)
+				out.add(capture);
+			else
+				addCompressedOutputs(out, minifiedFile, false);
+		} catch (IOException | RuntimeException e) {
+			out.abort();
+			throw e;
+		}
+		return out;
+	}
+
+	/**
+	 * Writes the enabled gzip, zstd, dcz, brotli and dcb variants of minified content.
+	 *
+	 * @param minified minified content
+	 * @param minifiedFile minified file
+	 * @throws IOException when an output cannot be written
 	 */
-	protected void gzip(File source, File target) throws IOException {
+	private void compress(byte[] minified, File minifiedFile) throws IOException {
 
-		log.info("Compressing file [" + target + ']');
+		boolean adaptive = opt.adaptiveConfig != null;
+		if (adaptive && minified.length < opt.adaptiveConfig.getMinSize()) {
+			log.info("Not compressing file [" + ((opt.verbose) ? minifiedFile.getPath() : minifiedFile.getName()) + "] of " + minified.length
+				+ " bytes, below the adaptive minimum size");
+			deleteCompressedOutputs(minifiedFile);
+			return;
+		}
 
-		try (InputStream in = new FileInputStream(source);
-			OutputStream out = new FileOutputStream(target);
-			GZIPOutputStream outGZIP = new GZIPOutputStream(out)) {
-			IOUtil.copy(in, outGZIP, opt.bufferSize);
+		FanOutOutputStream out = new FanOutOutputStream();
+		try {
+			if (adaptive)
+				writeAdaptiveOutputs(minified, minifiedFile);
+			addCompressedOutputs(out, minifiedFile, adaptive);
+			out.write(minified);
+		} catch (IOException | RuntimeException e) {
+			out.abort();
+			throw e;
 		}
+		out.close();
 	}
 
 	/**
-	 * Zstandard compress file.
-	 * 
-	 * @param source source file
-	 * @param zstdTarget target zstd file
-	 * @param dczTarget target dcz file
-	 * @throws IOException 
-	 */
-	protected void zstd(File source, File zstdTarget, File dczTarget) throws IOException {
-
-		zstd(source, zstdTarget, opt.zstd);
-		if (opt.zstdDirectoryDir != null) {
-			zstd(source, dczTarget, opt.zstdDirectoryDir, opt.zstd);
-			if (dczTarget.exists() && zstdTarget.exists() && dczTarget.length() >= zstdTarget.length()) {
-				log.info("Discarding dcz file as larger than zstd file");
-				dczTarget.delete();
+	 * Adds the enabled compressed variants to a stream of minified content.
+	 *
+	 * @param out minified content stream
+	 * @param minifiedFile minified file
+	 * @param adaptive {@code true} when the gz and zst files are written by adaptive compression instead
+	 * @throws IOException when an output cannot be created
+	 */
+	private void addCompressedOutputs(FanOutOutputStream out, File minifiedFile, boolean adaptive) throws IOException {
+
+		if (opt.gzip && !(adaptive && isAdaptiveGzip())) {
+			File gzipFile = new File(minifiedFile.getAbsolutePath() + ".gz");
+			log.info("Compressing file [" + gzipFile + ']');
+			out.add((opt.gzipConfig.getZopfliIterations() > 0) ? zopfli(gzipFile) : gzip(new FileOutputStream(gzipFile)));
+		}
+
+		if (opt.zstd > 0) {
+			File zstdFile = new File(minifiedFile.getAbsolutePath() + ".zst");
+			if (!adaptive) {
+				log.info("Compressing file [" + zstdFile + ']');
+				out.add(zstd(new FileOutputStream(zstdFile), null));
+			}
+
+			File dczFile = new File(minifiedFile.getAbsolutePath() + ".dcz");
+			File dictionaryFile = (opt.zstdDirectoryDir != null) ? dictionaryFile(opt.zstdDirectoryDir, minifiedFile) : null;
+			if (adaptive && !zstdFile.isFile()) {
+				// adaptive compression decided zstd does not save enough, which holds for the dcz file as well
+				dczFile.delete();
+			} else if (dictionaryFile != null && dictionaryFile.canRead()) {
+				out.add(dcz(dczFile, dictionaryFile, opt.zstd));
 			}
 		}
+
+		if (opt.brotli > 0) {
+			File brotliFile = new File(minifiedFile.getAbsolutePath() + ".br");
+			log.info("Compressing file [" + brotliFile + ']');
+			out.add(brotli(new FileOutputStream(brotliFile), null));
+
+			File dictionaryFile = (opt.zstdDirectoryDir != null) ? dictionaryFile(opt.zstdDirectoryDir, minifiedFile) : null;
+			if (dictionaryFile != null && dictionaryFile.canRead())
+				out.add(dcb(new File(minifiedFile.getAbsolutePath() + ".dcb"), dictionaryFile));
+		}
 	}
 
-	private void zstd(File source, File target, int level) throws IOException {
+	/**
+	 * Completes the compressed outputs once closed, discarding a dcz or dcb file that did not beat the zstd or
+	 * brotli file.
+	 *
+	 * @param minifiedFile minified file
+	 */
+	private void finishOutputs(File minifiedFile) {
 
-		log.info("Compressing file [" + target + ']');
+		File zstdFile = new File(minifiedFile.getAbsolutePath() + ".zst");
+		File dczFile = new File(minifiedFile.getAbsolutePath() + ".dcz");
+		if (dczFile.exists() && zstdFile.exists() && dczFile.length() >= zstdFile.length()) {
+			log.info("Discarding dcz file as larger than zstd file");
+			dczFile.delete();
+		}
 
-		try (InputStream in = new FileInputStream(source);
-			OutputStream out = new FileOutputStream(target);
-			ZstdOutputStreamNoFinalizer outZstd = new ZstdOutputStreamNoFinalizer(out)) {
-			outZstd.setLevel(level);
-			IOUtil.copy(in, outZstd, opt.bufferSize);
+		File brotliFile = new File(minifiedFile.getAbsolutePath() + ".br");
+		File dcbFile = new File(minifiedFile.getAbsolutePath() + ".dcb");
+		if (dcbFile.exists() && brotliFile.exists() && dcbFile.length() >= brotliFile.length()) {
+			log.info("Discarding dcb file as larger than brotli file");
+			dcbFile.delete();
+		} else if (dcbFile.exists() && !decodes(dcbFile, minifiedFile)) {
+			log.warn("Discarding dcb file [" + dcbFile.getName() + "] as it does not decode to the minified file");
+			dcbFile.delete();
 		}
 	}
 
-	private void zstd(File source, File target, String dictionaryDir, int level) throws IOException {
+	/**
+	 * Tells if a dcb file decodes to the minified file. The brotli encoder may write matches of the dictionary that
+	 * the decoder rejects when the content is larger than the window, so dcb files are checked before being served.
+	 *
+	 * @param dcbFile dcb file
+	 * @param minifiedFile minified file
+	 * @return {@code true} when the dcb file decodes to the minified file
+	 */
+	private boolean decodes(File dcbFile, File minifiedFile) {
 
-		String extension = FileUtils.getExtension(source.getName());
-		if (extension.isBlank())
-			return;
+		try {
+			Dictionary dictionary = opt.dictionaries.acquire(dictionaryFile(opt.zstdDirectoryDir, minifiedFile), opt.zstd);
+			try (InputStream in = new BufferedInputStream(new FileInputStream(dcbFile))) {
+				byte[] header = in.readNBytes(DCB_HEADER.length + 32);
+				byte[] expectedHeader = Arrays.copyOf(DCB_HEADER, DCB_HEADER.length + 32);
+				System.arraycopy(dictionary.getSha256(), 0, expectedHeader, DCB_HEADER.length, 32);
+				if (!Arrays.equals(header, expectedHeader))
+					return false;
 
-		File dictionaryFile = new File(dictionaryDir, extension + ".zstd.dict");
-		if (!dictionaryFile.canRead())
-			return;
+				ByteBuffer raw = ByteBuffer.allocateDirect(dictionary.getRaw().length);
+				raw.put(dictionary.getRaw()).flip();
+				BrotliInputStream decoded = new BrotliInputStream(in);
+				decoded.attachDictionary(raw);
+				return Arrays.equals(decoded.readAllBytes(), Files.readAllBytes(minifiedFile.toPath()));
+			} finally {
+				dictionary.release();
+			}
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Deletes the minified and compressed outputs after a failure.
+	 *
+	 * @param minifiedFile minified file
+	 */
+	private void deleteOutputs(File minifiedFile) {
+		minifiedFile.delete();
+		deleteCompressedOutputs(minifiedFile);
+	}
+
+	private void deleteCompressedOutputs(File minifiedFile) {
+		new File(minifiedFile.getAbsolutePath() + ".gz").delete();
+		new File(minifiedFile.getAbsolutePath() + ".zst").delete();
+		new File(minifiedFile.getAbsolutePath() + ".dcz").delete();
+		new File(minifiedFile.getAbsolutePath() + ".br").delete();
+		new File(minifiedFile.getAbsolutePath() + ".dcb").delete();
+	}
+
+	private OutputStream dcz(File target, File dictionaryFile, int level) throws IOException {
 
 		log.info("Compressing file [" + target + "] with dictionary [" + dictionaryFile + ']');
 
-		byte[] dictionary = readFileToByteArray(dictionaryFile);
-		final byte[] rawDictionary = toRawDictionary(dictionary);
-		
-		ZstdDictCompress dict = dictCache.computeIfAbsent(
-			dictionaryFile.getAbsolutePath() + ":" + level,
-			k -> new ZstdDictCompress(rawDictionary, level)
-		);
-
-		try (OutputStream out = new FileOutputStream(target)) {
-			writeDczHeader(out, rawDictionary);
-			out.flush();
-			try (InputStream in = new FileInputStream(source);
-				ZstdOutputStreamNoFinalizer outZstd = new ZstdOutputStreamNoFinalizer(out)) {
-				outZstd.setDict(dict);
-				outZstd.setLevel(level);
-				IOUtil.copy(in, outZstd, opt.bufferSize);
+		Dictionary dictionary = opt.dictionaries.acquire(dictionaryFile, level);
+		OutputStream out = null;
+		try {
+			out = new FileOutputStream(target);
+			writeDczHeader(out, dictionary.getSha256());
+			return dictionary.releaseOnClose(zstd(out, dictionary.getCompress()));
+		} catch (IOException | RuntimeException e) {
+			if (out != null)
+				close(out);
+			dictionary.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Opens a gzip stream with the configured settings, deflating in parallel blocks when a block stage is set.
+	 *
+	 * @param out target stream
+	 * @return compressing stream
+	 * @throws IOException when the header cannot be written
+	 */
+	private OutputStream gzip(OutputStream out) throws IOException {
+
+		if (opt.gzipBlocks != null)
+			return new ParallelGzipOutputStream(out, opt.gzipConfig, opt.gzipBlocks, 2 * opt.gzipBlocks.getThreads());
+		if (opt.gzipConfig.isDefault())
+			return new GZIPOutputStream(out);
+
+		return new GZIPOutputStream(out) {
+			{
+				opt.gzipConfig.configure(def);
+			}
+		};
+	}
+
+	/**
+	 * Tells if the gz files are written by adaptive compression, unless the exhaustive deflate encoder is used.
+	 *
+	 * @return {@code true} when the gzip settings are searched
+	 */
+	private boolean isAdaptiveGzip() {
+		return opt.gzip && opt.gzipConfig.getZopfliIterations() == 0;
+	}
+
+	/**
+	 * Writes the gz and zst files of minified content with the smallest result of the candidate settings.
+	 *
+	 * @param minified minified content
+	 * @param minifiedFile minified file
+	 * @throws IOException when an output cannot be written
+	 */
+	private void writeAdaptiveOutputs(byte[] minified, File minifiedFile) throws IOException {
+
+		String hash = sha256(minified);
+		if (isAdaptiveGzip()) {
+			List<String> candidates = new ArrayList<>();
+			candidates.add(opt.gzipConfig.getLevel() + ":" + opt.gzipConfig.getStrategy());
+			for (GzipConfig.Strategy strategy : List.of(GzipConfig.Strategy.DEFAULT, GzipConfig.Strategy.FILTERED)) {
+				if (!candidates.contains(Deflater.BEST_COMPRESSION + ":" + strategy))
+					candidates.add(Deflater.BEST_COMPRESSION + ":" + strategy);
+			}
+			writeAdaptive(minified, new File(minifiedFile.getAbsolutePath() + ".gz"), hash, "gzip", candidates, this::gzip);
+		}
+
+		if (opt.zstd > 0) {
+			List<String> candidates = new ArrayList<>();
+			candidates.add(String.valueOf(opt.zstd));
+			for (int level : ADAPTIVE_ZSTD_LEVELS) {
+				if (level > opt.zstd)
+					candidates.add(String.valueOf(level));
+			}
+			writeAdaptive(minified, new File(minifiedFile.getAbsolutePath() + ".zst"), hash, "zstd|" + opt.zstdConfig, candidates, this::zstd);
+		}
+	}
+
+	/**
+	 * Writes a compressed variant with the setting decided for the same content by an earlier build, or else with the
+	 * smallest result of the candidate settings tried in order until the time budget is spent. The variant is not
+	 * written when it does not save the minimum percentage.
+	 *
+	 * @param content minified content
+	 * @param target compressed file
+	 * @param hash content hash
+	 * @param variant name and settings of the variant
+	 * @param candidates candidate settings, cheapest first
+	 * @param compressor compressor of a setting
+	 * @throws IOException when the compressed file cannot be written
+	 */
+	private void writeAdaptive(byte[] content, File target, String hash, String variant, List<String> candidates, Compressor compressor)
+		throws IOException {
+
+		String key = hash + '|' + variant + '|' + candidates + '|' + opt.adaptiveConfig;
+		String decision = (opt.decisions != null) ? opt.decisions.get(target, key) : null;
+		byte[] best = null;
+
+		if (decision == null) {
+			long budget = TimeUnit.MILLISECONDS.toNanos(opt.adaptiveConfig.getTimeBudget());
+			long started = System.nanoTime();
+			for (String candidate : candidates) {
+				byte[] compressed = compressor.compress(content, candidate);
+				if (best == null || compressed.length < best.length) {
+					best = compressed;
+					decision = candidate;
+				}
+				if (System.nanoTime() - started >= budget)
+					break;
+			}
+			if ((long)(content.length - best.length) * 100 < (long)opt.adaptiveConfig.getMinSaving() * content.length)
+				decision = NO_OUTPUT;
+			if (opt.decisions != null)
+				opt.decisions.put(target, key, decision);
+		} else if (!decision.equals(NO_OUTPUT)) {
+			best = compressor.compress(content, decision);
+		}
+
+		String name = (opt.verbose) ? target.getPath() : target.getName();
+		if (decision.equals(NO_OUTPUT)) {
+			log.info("Not writing file [" + name + "] as it saves less than the adaptive minimum");
+			target.delete();
+			return;
+		}
+
+		log.info("Compressing file [" + name + "] with setting " + decision);
+		Files.write(target.toPath(), best);
+	}
+
+	/**
+	 * Compressor of minified content with a candidate setting.
+	 */
+	private interface Compressor {
+		byte[] compress(byte[] content, String setting) throws IOException;
+	}
+
+	private byte[] gzip(byte[] content, String setting) throws IOException {
+
+		int separator = setting.indexOf(':');
+		GzipConfig config = new GzipConfig(Integer.parseInt(setting.substring(0, separator)), GzipConfig.Strategy.valueOf(setting.substring(separator + 1)), 0);
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(content.length / 3 + 64);
+		try (OutputStream out = new GZIPOutputStream(compressed) {
+			{
+				config.configure(def);
+			}
+		}) {
+			out.write(content);
+		}
+		return compressed.toByteArray();
+	}
+
+	private byte[] zstd(byte[] content, String setting) throws IOException {
+
+		try (ZstdCompressCtx ctx = new ZstdCompressCtx()) {
+			ctx.setLevel(Integer.parseInt(setting));
+			opt.zstdConfig.configure(ctx);
+			// levels above 19 default to windows larger than HTTP clients are required to accept
+			if (opt.zstdConfig.getWindowLog() == 0 && !opt.zstdConfig.isLongDistance())
+				ctx.setWindowLog(ZstdConfig.MAX_HTTP_WINDOW_LOG);
+			return ctx.compress(content);
+		} catch (ZstdException e) {
+			throw new IOException("zstd compression failed at level " + setting + ": " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Opens a stream writing a gz file with the exhaustive deflate encoder once closed.
+	 *
+	 * @param gzipFile gz file
+	 * @return buffering stream
+	 */
+	private OutputStream zopfli(File gzipFile) {
+		return new ZopfliOutputStream(gzipFile);
+	}
+
+	/**
+	 * Stream buffering minified content for the exhaustive deflate encoder, which runs on close unless aborted.
+	 */
+	private final class ZopfliOutputStream extends ByteArrayOutputStream implements FanOutOutputStream.Abortable {
+
+		private final File gzipFile;
+		private boolean closed;
+
+		ZopfliOutputStream(File gzipFile) {
+			this.gzipFile = gzipFile;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (!closed) {
+				closed = true;
+				writeZopfli(toByteArray(), gzipFile);
+			}
+		}
+
+		@Override
+		public void abort() {
+			closed = true;
+			reset();
+		}
+	}
+
+	/**
+	 * Writes a gz file with the exhaustive deflate encoder, restoring it from the gzip cache when the content was
+	 * compressed before, and reports the bytes saved over the deflater.
+	 *
+	 * @param content minified content
+	 * @param gzipFile gz file
+	 * @throws IOException when the gz file cannot be written
+	 */
+	private void writeZopfli(byte[] content, File gzipFile) throws IOException {
+
+		int iterations = opt.gzipConfig.getZopfliIterations();
+		String key = null;
+		if (opt.gzipCache != null) {
+			// the deflater settings matter too, its output is kept when smaller
+			key = opt.gzipCache.key("zopfli|version=" + ExhaustiveDeflater.VERSION + '|' + opt.gzipConfig, content);
+			try {
+				if (opt.gzipCache.restore(key, gzipFile, GZIP_CACHE_SUFFIXES)) {
+					log.info("Restored file [" + ((opt.verbose) ? gzipFile.getPath() : gzipFile.getName()) + "] from the zopfli gzip cache.");
+					return;
+				}
+			} catch (IOException e) {
+				log.warn("Failed to restore [" + gzipFile + "] from the zopfli gzip cache: " + e.getMessage());
+			}
+		}
+
+		byte[] compressed = ExhaustiveDeflater.gzip(content, iterations);
+		ByteArrayOutputStream deflated = new ByteArrayOutputStream(content.length / 3 + 64);
+		try (OutputStream out = gzip(deflated)) {
+			out.write(content);
+		}
+
+		String name = (opt.verbose) ? gzipFile.getPath() : gzipFile.getName();
+		long saved = deflated.size() - compressed.length;
+		if (saved > 0) {
+			Files.write(gzipFile.toPath(), compressed);
+			log.info(String.format(Locale.ROOT, "Zopfli gzip of [%s] saved %d bytes (%.1f%%) over the deflater, %d bytes.", name, saved,
+				100.0 * saved / deflated.size(), compressed.length));
+		} else {
+			try (OutputStream out = new FileOutputStream(gzipFile)) {
+				deflated.writeTo(out);
+			}
+			log.info("Zopfli gzip of [" + name + "] kept the deflater output of " + deflated.size() + " bytes, " + -saved + " bytes smaller.");
+		}
+
+		if (key != null) {
+			try {
+				opt.gzipCache.store(key, gzipFile, GZIP_CACHE_SUFFIXES);
+			} catch (IOException e) {
+				log.warn("Failed to store [" + gzipFile + "] in the zopfli gzip cache: " + e.getMessage());
 			}
 		}
 	}
 
+	/**
+	 * Opens a zstd stream with the configured settings, compressing once closed when the content size is written.
+	 *
+	 * @param out target stream
+	 * @param dictionary compression dictionary, may be {@code null}
+	 * @return compressing stream
+	 * @throws IOException when a setting is rejected
+	 */
+	private OutputStream zstd(OutputStream out, ZstdDictCompress dictionary) throws IOException {
+		return zstd(out, opt.zstd, opt.zstdConfig, dictionary);
+	}
+
+	/**
+	 * Opens a zstd stream as the build does, compressing once closed when the content size is written.
+	 *
+	 * @param out target stream
+	 * @param level zstd level
+	 * @param config zstd settings
+	 * @param dictionary compression dictionary, may be {@code null}
+	 * @return compressing stream
+	 * @throws IOException when a setting is rejected
+	 */
+	static OutputStream zstd(OutputStream out, int level, ZstdConfig config, ZstdDictCompress dictionary) throws IOException {
+
+		if (config.isContentSize())
+			return new ZstdFrameOutputStream(out, level, config, dictionary);
+
+		ZstdOutputStreamNoFinalizer outZstd = config.configure(new ZstdOutputStreamNoFinalizer(out));
+		if (dictionary != null)
+			outZstd.setDict(dictionary);
+		outZstd.setLevel(level);
+		return outZstd;
+	}
+
+	/**
+	 * Opens a brotli stream with the configured quality and window.
+	 *
+	 * @param out target stream
+	 * @param dictionary raw dictionary prepared for the encoder, may be {@code null}
+	 * @return compressing stream
+	 * @throws IOException when the encoder cannot be created
+	 */
+	private OutputStream brotli(OutputStream out, PreparedDictionary dictionary) throws IOException {
+
+		BrotliOutputStream outBrotli = new BrotliOutputStream(out, new Encoder.Parameters().setQuality(opt.brotli).setWindow(opt.brotliWindow));
+		if (dictionary != null)
+			outBrotli.attachDictionary(dictionary);
+		return outBrotli;
+	}
+
+	private OutputStream dcb(File target, File dictionaryFile) throws IOException {
+
+		log.info("Compressing file [" + target + "] with dictionary [" + dictionaryFile + ']');
+
+		Dictionary dictionary = opt.dictionaries.acquire(dictionaryFile, opt.zstd);
+		OutputStream out = null;
+		try {
+			out = new FileOutputStream(target);
+			out.write(DCB_HEADER);
+			out.write(dictionary.getSha256());
+			return dictionary.releaseOnClose(brotli(out, dictionary.getBrotli()));
+		} catch (IOException | RuntimeException e) {
+			if (out != null)
+				close(out);
+			dictionary.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Gets the zstd dictionary for a file by extension.
+	 *
+	 * @param dictionaryDir dictionary directory
+	 * @param file file to compress
+	 * @return dictionary file, {@code null} when the file has no extension
+	 */
+	static File dictionaryFile(String dictionaryDir, File file) {
+
+		String extension = FileUtils.getExtension(file.getName());
+		if (extension.isBlank())
+			return null;
+
+		return new File(dictionaryDir, extension + ".zstd.dict");
+	}
+
+	/**
+	 * Gets the size of content compressed into a zst file.
+	 *
+	 * @param content content to compress
+	 * @param level zstd level
+	 * @return compressed size in bytes
+	 * @throws IOException when compression fails
+	 */
+	static int zstdLength(byte[] content, int level) throws IOException {
+
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(content.length / 4);
+		try (ZstdOutputStreamNoFinalizer out = new ZstdOutputStreamNoFinalizer(compressed)) {
+			out.setLevel(level);
+			out.write(content);
+		}
+		return compressed.size();
+	}
+
+	/**
+	 * Gets the size of content compressed into a dcz file, header included.
+	 *
+	 * @param content content to compress
+	 * @param dictionary dictionary as read from the dictionary file
+	 * @param level zstd level
+	 * @return compressed size in bytes
+	 * @throws IOException when compression fails
+	 */
+	static int dczLength(byte[] content, byte[] dictionary, int level) throws IOException {
+
+		byte[] rawDictionary = DictionaryRegistry.toRawDictionary(dictionary);
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(content.length / 4);
+		writeDczHeader(compressed, DictionaryRegistry.sha256(rawDictionary));
+		try (ZstdDictCompress dict = new ZstdDictCompress(rawDictionary, level);
+			ZstdOutputStreamNoFinalizer out = new ZstdOutputStreamNoFinalizer(compressed)) {
+			out.setDict(dict);
+			out.setLevel(level);
+			out.write(content);
+		}
+		return compressed.size();
+	}
+
 	/**
 	 * Write RFC 9842 c40-byte DCZ header.
 	 * 
 	 * @param out target stream
-	 * @param dictionary raw dictionary
+	 * @param sha256 SHA-256 of the raw dictionary
 	 */
-	private static void writeDczHeader(OutputStream out, byte[] dictionary) throws IOException {
-
+	static void writeDczHeader(OutputStream out, byte[] sha256) throws IOException {
 		out.write(DCZ_HEADER);
+		out.write(sha256);
+	}
 
+	private static String sha256(byte[] data) throws IOException {
 		try {
-			out.write(MessageDigest.getInstance("SHA-256").digest(dictionary));
+			return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
 		} catch (NoSuchAlgorithmException e) {
 			throw new IOException(e);
 		}
 	}
 
 	/**
-	 * Strip dictionary magic if present to make it "raw" needed for dicts generated with zstd --train CLI.
-	 * 
-	 * https://github.com/facebook/zstd/issues/4389
-	 *  
-	 * @param dict dictionary
-	 * @return raw dictionary
+	 * Gets the plugin version, or the size and date of the plugin jar when running a build without a version in the
+	 * manifest, so that cached outputs of other plugin builds are not reused.
+	 *
+	 * @return plugin version
 	 */
-	private static byte[] toRawDictionary(byte[] dict) {
+	private static String pluginVersion() {
 
-		return dict.length >= 4 && (dict[0] & 0xFF) == 0x37 && (dict[1] & 0xFF) == 0xA4 && (dict[2] & 0xFF) == 0x30 && (dict[3] & 0xFF) == 0xEC
-			? java.util.Arrays.copyOfRange(dict, 4, dict.length) : dict;
+		String version = ProcessFilesTask.class.getPackage().getImplementationVersion();
+		if (version != null)
+			return version;
+
+		CodeSource codeSource = ProcessFilesTask.class.getProtectionDomain().getCodeSource();
+		if (codeSource == null)
+			return "unknown";
+		try {
+			File location = new File(codeSource.getLocation().toURI());
+			return location.length() + ":" + location.lastModified();
+		} catch (Exception e) {
+			return "unknown";
+		}
 	}
 
 	/**
@@ -19,9 +19,7 @@
 package patchpump.minify.maven.plugin;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
@@ -35,7 +33,6 @@ import java.util.Map.Entry;
 import org.mozilla.javascript.EvaluatorException;
 
 import com.google.javascript.jscomp.CheckLevel;
-import com.google.javascript.jscomp.CommandLineRunner;
 import com.google.javascript.jscomp.Compiler;
 import com.google.javascript.jscomp.CompilerOptions;
 import com.google.javascript.jscomp.DiagnosticGroup;
@@ -64,28 +61,22 @@ public class ProcessJSFilesTask extends ProcessFilesTask {
 	}
 
 	/**
-	 * Minifies a JavaScript file. Create missing parent directories if needed.
+	 * Minifies a JavaScript file.
 	 *
-	 * @param mergedFile input file resulting from the merged step
-	 * @param minifiedFile output file resulting from the minify step
+	 * @param mergedFile input file resulting from the merged step, only used for naming
+	 * @param in content of the input file
+	 * @param minifiedFile output file resulting from the minify step, only used for naming and related outputs
+	 * @param out stream of the minified file and its compressed variants
 	 * @throws IOException when the minify step fails
 	 */
 	@SuppressWarnings("deprecation")
 	@Override
-	protected void minify(File mergedFile, File minifiedFile) throws IOException {
+	protected void minify(File mergedFile, InputStream in, File minifiedFile, OutputStream out) throws IOException {
 
-		minifiedFile.getParentFile().mkdirs();
-
-		File gzipFile = new File(minifiedFile.getAbsolutePath() + ".gz");
-		File zstdFile = new File(minifiedFile.getAbsolutePath() + ".zst");
-		File dczFile = new File(minifiedFile.getAbsolutePath() + ".dcz");
-		OutputStream out = new FileOutputStream(minifiedFile);
-		try (InputStream in = new FileInputStream(mergedFile);
-			InputStreamReader reader = new InputStreamReader(in, opt.charset);
+		log.info("Creating the minified file [" + ((opt.verbose) ? minifiedFile.getPath() : minifiedFile.getName()) + "] using [" + opt.engine + "] engine.");
+		try (InputStreamReader reader = new InputStreamReader(in, opt.charset);
 			OutputStreamWriter writer = new OutputStreamWriter(out, opt.charset)) {
 
-			log.info("Creating the minified file [" + ((opt.verbose) ? minifiedFile.getPath() : minifiedFile.getName()) + "] using [" + opt.engine + "] engine.");
-
 			switch (opt.engine) {
 			case CLOSURE:
 				Compiler compiler = new Compiler();
@@ -114,10 +105,7 @@ public class ProcessJSFilesTask extends ProcessFilesTask {
 				}
 
 				SourceFile input = SourceFile.builder().withContent(in).withOriginalPath(mergedFile.getName()).build();
-				List<SourceFile> externs = opt.closureConfig.getExterns();
-				if (opt.closureConfig.getUseDefaultExterns()) {
-					externs.addAll(CommandLineRunner.getDefaultExterns());
-				}
+				List<SourceFile> externs = opt.closureConfig.getClosureExterns().get();
 
 				compiler.compile(externs, Lists.newArrayList(input), options);
 
@@ -156,23 +144,9 @@ public class ProcessJSFilesTask extends ProcessFilesTask {
 			writer.flush();
 
 		} catch (Exception e) {
-			close(out);
-			minifiedFile.delete();
-			gzipFile.delete();
-			zstdFile.delete();
-			dczFile.delete();
 			log.error("Failed to compress the JavaScript file [" + ((opt.verbose) ? mergedFile.getPath() : mergedFile.getName()) + "].", e);
 			throw new IOException(e);
-
-		} finally {
-			close(out);
 		}
-
-		if (opt.gzip)
-			gzip(minifiedFile, gzipFile);
-
-		if (opt.zstd > 0)
-			zstd(minifiedFile, zstdFile, dczFile);
 	}
 
 	private void flushSourceMap(File sourceMapOutputFile, String minifyFileName, SourceMap sourceMap) {
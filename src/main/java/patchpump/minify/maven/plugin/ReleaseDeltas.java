@@ -0,0 +1,228 @@
+package patchpump.minify.maven.plugin;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.apache.maven.plugin.logging.Log;
+
+import com.github.luben.zstd.ZstdCompressCtx;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+
+import patchpump.minify.maven.common.DictionaryRegistry;
+import patchpump.minify.maven.common.ZstdConfig;
+
+/**
+ * Dcz files of minified files compressed with the same file of the previous release as dictionary, so that RFC 9842
+ * clients holding the previous version of an asset only download what changed.
+ *
+ * Delta files are named after the minified file and the start of the dictionary hash. A manifest in the webapp target
+ * directory maps each asset to its delta file and the SHA-256 of the dictionary it expects, as sent by clients in the
+ * {@code Available-Dictionary} header, and lets deltas whose inputs did not change be kept between builds.
+ */
+public class ReleaseDeltas {
+
+	static final String MANIFEST_FILENAME = "dcz-deltas.json";
+
+	/**
+	 * Delta of an asset.
+	 */
+	static final class Entry {
+
+		String file;
+		String dictionary;
+		String availableDictionary;
+		String source;
+		int windowLog;
+		long size;
+	}
+
+	private static final Type MANIFEST_TYPE = new TypeToken<TreeMap<String, Entry>>() {}.getType();
+
+	private final Log log;
+	private final File previousDir;
+	private final File targetDir;
+	private final int level;
+	private final ZstdConfig zstdConfig;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param log Maven log
+	 * @param previousDir webapp directory of the previous release
+	 * @param targetDir webapp target directory
+	 * @param level zstd level
+	 * @param zstdConfig zstd settings
+	 */
+	public ReleaseDeltas(Log log, File previousDir, File targetDir, int level, ZstdConfig zstdConfig) {
+		this.log = log;
+		this.previousDir = previousDir.getAbsoluteFile();
+		this.targetDir = targetDir.getAbsoluteFile();
+		this.level = level;
+		this.zstdConfig = zstdConfig;
+	}
+
+	/**
+	 * Writes the deltas of minified files that exist in the previous release, then updates the manifest.
+	 *
+	 * @param minifiedFiles minified files of the build
+	 * @param stage stage compressing the deltas
+	 * @throws IOException when a delta or the manifest cannot be written
+	 * @throws InterruptedException when interrupted while waiting for the deltas
+	 */
+	public void update(List<File> minifiedFiles, Stage stage) throws IOException, InterruptedException {
+
+		File manifestFile = new File(targetDir, MANIFEST_FILENAME);
+		Map<String, Entry> manifest = load(manifestFile);
+
+		List<String> assets = new ArrayList<>();
+		List<Future<Entry>> deltas = new ArrayList<>();
+		for (File minifiedFile : minifiedFiles) {
+			String asset = relativePath(minifiedFile.getAbsoluteFile());
+			if (asset == null || !minifiedFile.isFile())
+				continue;
+			File previousFile = new File(previousDir, asset);
+			if (!previousFile.isFile())
+				continue;
+
+			Entry built = manifest.get(asset);
+			assets.add(asset);
+			deltas.add(stage.submit(() -> delta(minifiedFile, previousFile, built)));
+		}
+
+		IOException failure = null;
+		int written = 0;
+		for (int i = 0; i < deltas.size(); i++) {
+			try {
+				Entry entry = deltas.get(i).get();
+				if (entry != null) {
+					manifest.put(assets.get(i), entry);
+					written++;
+				} else {
+					manifest.remove(assets.get(i));
+				}
+			} catch (ExecutionException e) {
+				manifest.remove(assets.get(i));
+				if (failure == null)
+					failure = (e.getCause() instanceof IOException) ? (IOException)e.getCause() : new IOException(e.getCause());
+			}
+		}
+
+		manifest.keySet().removeIf(asset -> !new File(targetDir, asset).isFile());
+		save(manifestFile, manifest);
+		log.info("Release deltas: " + written + " of " + deltas.size() + " assets of the previous release in [" + manifestFile.getName() + "].");
+
+		if (failure != null)
+			throw failure;
+	}
+
+	/**
+	 * Writes the delta of a minified file, unless the delta of the last build has the same inputs.
+	 *
+	 * The previous file is hashed and used as dictionary as it is, since the {@code Available-Dictionary} hash sent by
+	 * clients is the SHA-256 of the response they cached.
+	 *
+	 * @param minifiedFile minified file
+	 * @param previousFile same file of the previous release
+	 * @param built manifest entry of the last build, may be {@code null}
+	 * @return manifest entry, {@code null} when the delta is not smaller than the zst file or the previous file would
+	 *         be read as a zstd dictionary
+	 * @throws IOException when the delta cannot be written
+	 */
+	private Entry delta(File minifiedFile, File previousFile, Entry built) throws IOException {
+
+		byte[] content = Files.readAllBytes(minifiedFile.toPath());
+		byte[] dictionary = Files.readAllBytes(previousFile.toPath());
+		if (DictionaryRegistry.toRawDictionary(dictionary) != dictionary) {
+			log.info("Skipping delta of [" + minifiedFile.getName() + "] as the previous release starts like a zstd dictionary");
+			return null;
+		}
+		byte[] dictionaryHash = DictionaryRegistry.sha256(dictionary);
+		int windowLog = ZstdConfig.deltaWindowLog(dictionary.length, content.length);
+
+		Entry entry = new Entry();
+		entry.dictionary = HexFormat.of().formatHex(dictionaryHash);
+		entry.availableDictionary = ':' + Base64.getEncoder().encodeToString(dictionaryHash) + ':';
+		entry.source = HexFormat.of().formatHex(DictionaryRegistry.sha256(content));
+		entry.windowLog = windowLog;
+		File deltaFile = new File(minifiedFile.getPath() + '.' + entry.dictionary.substring(0, 16) + ".dcz");
+		entry.file = relativePath(deltaFile);
+
+		if (built != null && built.file != null && !built.file.equals(entry.file))
+			new File(targetDir, built.file).delete();
+
+		if (built != null && entry.file.equals(built.file) && entry.dictionary.equals(built.dictionary) && entry.source.equals(built.source)
+			&& entry.windowLog == built.windowLog && deltaFile.length() == built.size) {
+			entry.size = built.size;
+			return entry;
+		}
+
+		ByteArrayOutputStream delta = new ByteArrayOutputStream(content.length / 4);
+		ProcessFilesTask.writeDczHeader(delta, dictionaryHash);
+		try (ZstdCompressCtx ctx = zstdConfig.configureDelta(new ZstdCompressCtx(), level, dictionary.length, content.length)) {
+			ctx.loadDict(dictionary);
+			delta.write(ctx.compress(content));
+		}
+
+		File zstdFile = new File(minifiedFile.getPath() + ".zst");
+		if (zstdFile.isFile() && delta.size() >= zstdFile.length()) {
+			log.info("Discarding delta of [" + minifiedFile.getName() + "] as larger than zstd file");
+			deltaFile.delete();
+			return null;
+		}
+
+		log.info("Compressing file [" + deltaFile + "] with previous release [" + previousFile + "]");
+		try (FileOutputStream out = new FileOutputStream(deltaFile)) {
+			delta.writeTo(out);
+		}
+		entry.size = delta.size();
+		return entry;
+	}
+
+	private String relativePath(File file) {
+
+		String path = file.getPath();
+		String base = targetDir.getPath() + File.separator;
+		return path.startsWith(base) ? path.substring(base.length()).replace(File.separatorChar, '/') : null;
+	}
+
+	private static Map<String, Entry> load(File file) {
+
+		if (file.isFile()) {
+			try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+				Map<String, Entry> manifest = new Gson().fromJson(reader, MANIFEST_TYPE);
+				if (manifest != null)
+					return manifest;
+			} catch (IOException | JsonParseException e) {
+				// rebuilt from scratch
+			}
+		}
+		return new TreeMap<>();
+	}
+
+	private static void save(File file, Map<String, Entry> manifest) throws IOException {
+		try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+			new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create().toJson(manifest, MANIFEST_TYPE, writer);
+		}
+	}
+}
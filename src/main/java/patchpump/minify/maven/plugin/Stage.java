@@ -0,0 +1,150 @@
+package patchpump.minify.maven.plugin;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pipeline stage running jobs on a fixed thread pool, recording queue depth and time spent so that the bottleneck
+ * stage of a build can be told apart.
+ */
+public class Stage implements Executor {
+
+	private final String name;
+	private final int threads;
+	private final ExecutorService executor;
+	private final Semaphore queueSlots;
+
+	private final AtomicInteger queued = new AtomicInteger();
+	private final AtomicInteger maxQueued = new AtomicInteger();
+	private final AtomicInteger completed = new AtomicInteger();
+	private final AtomicLong busyNanos = new AtomicLong();
+	private final AtomicLong waitNanos = new AtomicLong();
+
+	/**
+	 * Stage constructor.
+	 *
+	 * @param name stage name used in statistics
+	 * @param threads number of threads
+	 */
+	public Stage(String name, int threads) {
+		this(name, threads, 0);
+	}
+
+	/**
+	 * Stage constructor with a bounded queue, submitting a job waits while the queue is full so that jobs holding
+	 * large inputs do not pile up when the stage falls behind.
+	 *
+	 * @param name stage name used in statistics
+	 * @param threads number of threads
+	 * @param maxQueued maximum number of jobs waiting for a thread, 0 for no limit
+	 */
+	public Stage(String name, int threads, int maxQueued) {
+		this.name = name;
+		this.threads = threads;
+		this.queueSlots = (maxQueued > 0) ? new Semaphore(maxQueued) : null;
+		this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>()) {
+			@Override
+			protected void beforeExecute(Thread thread, Runnable job) {
+				// also called for jobs cancelled while queued
+				if (queueSlots != null)
+					queueSlots.release();
+			}
+		};
+	}
+
+	/**
+	 * Queues a job.
+	 *
+	 * @param job job
+	 * @return job future
+	 */
+	public <T> Future<T> submit(Callable<T> job) {
+
+		// the jobs ahead always drain, so waiting for a slot cannot deadlock
+		if (queueSlots != null)
+			queueSlots.acquireUninterruptibly();
+		long submitted = System.nanoTime();
+		maxQueued.accumulateAndGet(queued.incrementAndGet(), Math::max);
+		try {
+			return executor.submit(() -> {
+				queued.decrementAndGet();
+				long started = System.nanoTime();
+				waitNanos.addAndGet(started - submitted);
+				try {
+					return job.call();
+				} finally {
+					busyNanos.addAndGet(System.nanoTime() - started);
+					completed.incrementAndGet();
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			queued.decrementAndGet();
+			if (queueSlots != null)
+				queueSlots.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Queues a job without result.
+	 *
+	 * @param job job
+	 */
+	@Override
+	public void execute(Runnable job) {
+		submit(Executors.callable(job));
+	}
+
+	/**
+	 * Gets the number of threads.
+	 *
+	 * @return threads
+	 */
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Gets the number of jobs waiting for a thread.
+	 *
+	 * @return queue depth
+	 */
+	public int getQueueDepth() {
+		return queued.get();
+	}
+
+	/**
+	 * Gets a summary of the jobs run so far.
+	 *
+	 * @return statistics
+	 */
+	public String getStatistics() {
+		return name + " stage: " + completed.get() + " jobs on " + threads + " threads, busy "
+			+ TimeUnit.NANOSECONDS.toMillis(busyNanos.get()) + " ms, queued " + TimeUnit.NANOSECONDS.toMillis(waitNanos.get())
+			+ " ms, max queue depth " + maxQueued.get() + ".";
+	}
+
+	/**
+	 * Stops accepting jobs, queued jobs still run.
+	 */
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	/**
+	 * Stops accepting jobs and interrupts running jobs.
+	 */
+	public void shutdownNow() {
+		executor.shutdownNow();
+	}
+}
@@ -4,8 +4,13 @@ import java.util.List;
 
 import org.apache.maven.plugin.logging.Log;
 
+import patchpump.minify.maven.common.AdaptiveConfig;
+import patchpump.minify.maven.common.BufferedLog;
 import patchpump.minify.maven.common.ClosureConfig;
+import patchpump.minify.maven.common.DictionaryRegistry;
+import patchpump.minify.maven.common.GzipConfig;
 import patchpump.minify.maven.common.YuiConfig;
+import patchpump.minify.maven.common.ZstdConfig;
 import patchpump.minify.maven.plugin.AbstractMinifyMojo.Engine;
 
 /**
@@ -17,17 +22,28 @@ public class TaskOptions {
 		CSS, JS
 	}
 
+	final AdaptiveConfig adaptiveConfig;
 	final ClosureConfig closureConfig;
+	final CompressionDecisions decisions;
 	final Engine engine;
-	final Log log;
+	final GzipConfig gzipConfig;
+	final BufferedLog log;
+	final OutputCache cache;
+	final OutputCache gzipCache;
+	final Stage compression;
+	final Stage gzipBlocks;
+	final Stage files;
+	final DictionaryRegistry dictionaries;
 	final Type type;
 	final YuiConfig yuiConfig;
+	final ZstdConfig zstdConfig;
 	
 	final List<String> sourceExcludes;
 	final List<String> sourceFiles;
 	final List<String> sourceIncludes;
 	
 	final String charset;
+	final String manifestDir;
 	final String mergedFilename;
 	final String sourceDir;
 	final String sourceIncludeDir;
@@ -41,29 +57,37 @@ public class TaskOptions {
 	final boolean gzip;
 	final boolean incrementalBuild;
 	final boolean nosuffix;
+	final boolean optimize;
 	final boolean skipMerge;
 	final boolean skipMinify;
 	final boolean verbose;
+	final boolean writeMergedFile;
 	
+	final int brotli;
+	final int brotliWindow;
 	final int bufferSize;	
+	final int threads;
 	final int zstd;
 
-	private TaskOptions(Log log, boolean verbose, boolean debug, boolean incrementalBuild, int bufferSize, String charset, String suffix, boolean nosuffix,
-		boolean skipMerge, boolean skipMinify, String webappSourceDir, String webappTargetDir, String zstdDirectoryDir, String sourceDir,
+	private TaskOptions(Log log, boolean verbose, boolean debug, boolean incrementalBuild, int bufferSize, int threads, String charset, String suffix, boolean nosuffix,
+		boolean skipMerge, boolean skipMinify, boolean writeMergedFile, String webappSourceDir, String webappTargetDir, String zstdDirectoryDir, String sourceDir,
 		String sourceIncludeDir, List<String> sourceFiles, List<String> sourceIncludes, List<String> sourceExcludes,
-		String targetDir, String mergedFilename, Engine engine, YuiConfig yuiConfig, boolean gzip, int zstd,
-		ClosureConfig closureConfig, Type type) {
+		String targetDir, String mergedFilename, Engine engine, YuiConfig yuiConfig, boolean optimize, boolean gzip, GzipConfig gzipConfig, int zstd,
+		ZstdConfig zstdConfig, int brotli, int brotliWindow, DictionaryRegistry dictionaries, Stage compression, Stage gzipBlocks, Stage files, OutputCache cache,
+		OutputCache gzipCache, AdaptiveConfig adaptiveConfig, CompressionDecisions decisions, String manifestDir, ClosureConfig closureConfig, Type type) {
 
-		this.log = log;
+		this.log = new BufferedLog(log);
 		this.verbose = verbose;
 		this.debug = debug;
 		this.incrementalBuild = incrementalBuild;
 		this.bufferSize = bufferSize;
+		this.threads = threads;
 		this.charset = charset;
 		this.suffix = suffix;
 		this.nosuffix = nosuffix;
 		this.skipMerge = skipMerge;
 		this.skipMinify = skipMinify;
+		this.writeMergedFile = writeMergedFile;
 		this.webappSourceDir = webappSourceDir;
 		this.webappTargetDir = webappTargetDir;
 		this.zstdDirectoryDir = zstdDirectoryDir;
@@ -76,8 +100,22 @@ public class TaskOptions {
 		this.mergedFilename = mergedFilename;
 		this.engine = engine;
 		this.yuiConfig = yuiConfig;
+		this.optimize = optimize;
 		this.gzip = gzip;
+		this.gzipConfig = gzipConfig;
 		this.zstd = zstd;
+		this.zstdConfig = zstdConfig;
+		this.brotli = brotli;
+		this.brotliWindow = brotliWindow;
+		this.dictionaries = dictionaries;
+		this.compression = compression;
+		this.gzipBlocks = gzipBlocks;
+		this.files = files;
+		this.cache = cache;
+		this.gzipCache = gzipCache;
+		this.adaptiveConfig = adaptiveConfig;
+		this.decisions = decisions;
+		this.manifestDir = manifestDir;
 		this.closureConfig = closureConfig;
 		this.type = type;
 	}
@@ -85,40 +123,44 @@ public class TaskOptions {
 	/**
 	 * CSS task options
 	 */
-	public TaskOptions(Log log, boolean verbose, boolean debug, boolean incrementalBuild, int bufferSize, String charset, String suffix, boolean nosuffix,
-		boolean skipMerge, boolean skipMinify, String webappSourceDir, String webappTargetDir, String zstdDirectoryDir, String cssSourceDir,
+	public TaskOptions(Log log, boolean verbose, boolean debug, boolean incrementalBuild, int bufferSize, int threads, String charset, String suffix, boolean nosuffix,
+		boolean skipMerge, boolean skipMinify, boolean writeMergedFile, String webappSourceDir, String webappTargetDir, String zstdDirectoryDir, String cssSourceDir,
 		String cssSourceIncludeDir, List<String> cssSourceFiles, List<String> cssSourceIncludes,
 		List<String> cssSourceExcludes, String cssTargetDir, String cssFinalFile, Engine cssEngine, YuiConfig yuiConfig,
-		boolean gzip, int zstd) {
+		boolean cssOptimize, boolean gzip, GzipConfig gzipConfig, int zstd, ZstdConfig zstdConfig, int brotli, int brotliWindow, DictionaryRegistry dictionaries,
+		Stage compression, Stage gzipBlocks, Stage files, OutputCache cache, OutputCache gzipCache,
+		AdaptiveConfig adaptiveConfig, CompressionDecisions decisions, String manifestDir) {
 
-		this(log, verbose, debug, incrementalBuild, bufferSize, charset, suffix, nosuffix, skipMerge, skipMinify, webappSourceDir,
+		this(log, verbose, debug, incrementalBuild, bufferSize, threads, charset, suffix, nosuffix, skipMerge, skipMinify, writeMergedFile, webappSourceDir,
 			webappTargetDir, zstdDirectoryDir, cssSourceDir, cssSourceIncludeDir, cssSourceFiles, cssSourceIncludes, cssSourceExcludes,
-			cssTargetDir, cssFinalFile, cssEngine, yuiConfig, gzip, zstd, null, Type.CSS);
+			cssTargetDir, cssFinalFile, cssEngine, yuiConfig, cssOptimize, gzip, gzipConfig, zstd, zstdConfig, brotli, brotliWindow, dictionaries, compression, gzipBlocks, files, cache, gzipCache, adaptiveConfig, decisions, manifestDir, null, Type.CSS);
 	}
 
 	/**
 	 * JS task options.
 	 */
-	public TaskOptions(Log log, boolean verbose, boolean debug, boolean incrementalBuild, int bufferSize, String charset, String suffix, boolean nosuffix,
-		boolean skipMerge, boolean skipMinify, String webappSourceDir, String webappTargetDir, String zstdDirectoryDir, String jsSourceDir,
+	public TaskOptions(Log log, boolean verbose, boolean debug, boolean incrementalBuild, int bufferSize, int threads, String charset, String suffix, boolean nosuffix,
+		boolean skipMerge, boolean skipMinify, boolean writeMergedFile, String webappSourceDir, String webappTargetDir, String zstdDirectoryDir, String jsSourceDir,
 		String jsSourceIncludeDir, List<String> jsSourceFiles, List<String> jsSourceIncludes,
 		List<String> jsSourceExcludes, String jsTargetDir, String jsFinalFile, Engine jsEngine, YuiConfig yuiConfig,
-		ClosureConfig closureConfig, boolean gzip, int zstd) {
+		ClosureConfig closureConfig, boolean gzip, GzipConfig gzipConfig, int zstd, ZstdConfig zstdConfig, int brotli, int brotliWindow,
+		DictionaryRegistry dictionaries, Stage compression, Stage gzipBlocks, Stage files, OutputCache cache, OutputCache gzipCache,
+		AdaptiveConfig adaptiveConfig, CompressionDecisions decisions, String manifestDir) {
 
-		this(log, verbose, debug, incrementalBuild, bufferSize, charset, suffix, nosuffix, skipMerge, skipMinify, webappSourceDir,
+		this(log, verbose, debug, incrementalBuild, bufferSize, threads, charset, suffix, nosuffix, skipMerge, skipMinify, writeMergedFile, webappSourceDir,
 			webappTargetDir, zstdDirectoryDir, jsSourceDir, jsSourceIncludeDir, jsSourceFiles, jsSourceIncludes, jsSourceExcludes,
-			jsTargetDir, jsFinalFile, jsEngine, yuiConfig, gzip, zstd, closureConfig, Type.JS);
+			jsTargetDir, jsFinalFile, jsEngine, yuiConfig, false, gzip, gzipConfig, zstd, zstdConfig, brotli, brotliWindow, dictionaries, compression, gzipBlocks, files, cache, gzipCache, adaptiveConfig, decisions, manifestDir, closureConfig, Type.JS);
 	}
 
 	@Override
 	public String toString() {
-		return "TaskOptions [verbose=" + verbose + ", debug=" + debug + ", bufferSize=" + bufferSize + ", charset="
+		return "TaskOptions [verbose=" + verbose + ", debug=" + debug + ", bufferSize=" + bufferSize + ", threads=" + threads + ", charset="
 			+ charset + ", suffix=" + suffix + ", nosuffix=" + nosuffix + ", skipMerge=" + skipMerge + ", skipMinify="
-			+ skipMinify + ", engine=" + engine + ", yuiConfig=" + yuiConfig + ", sourceDir=" + sourceDir
+			+ skipMinify + ", writeMergedFile=" + writeMergedFile + ", engine=" + engine + ", yuiConfig=" + yuiConfig + ", optimize=" + optimize + ", sourceDir=" + sourceDir
 			+ ", sourceIncludeDir=" + sourceIncludeDir + ", targetDir=" + targetDir + ", mergedFilename="
 			+ mergedFilename + ", webappSourceDir=" + webappSourceDir + ", webappTargetDir=" + webappTargetDir
 			+ ", sourceFiles=" + sourceFiles + ", sourceIncludes=" + sourceIncludes + ", sourceExcludes="
-			+ sourceExcludes + ", gzip=" + gzip + ", zstd=" + zstd + ", type=" + type + ", closureConfig=" + closureConfig
-			+ ", zstdDirectoryDir=" + zstdDirectoryDir + "]";
+			+ sourceExcludes + ", gzip=" + gzip + ", gzipConfig=" + gzipConfig + ", zstd=" + zstd + ", zstdConfig=" + zstdConfig + ", type=" + type + ", closureConfig=" + closureConfig
+			+ ", zstdDirectoryDir=" + zstdDirectoryDir + ", brotli=" + brotli + ", brotliWindow=" + brotliWindow + ", adaptiveConfig=" + adaptiveConfig + "]";
 	}
 }
@@ -0,0 +1,89 @@
+package patchpump.minify.maven.plugin;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+
+/**
+ * Task durations recorded by earlier builds, used to start the most expensive bundles first.
+ */
+public class TaskTimings {
+
+	private static final Type TIMINGS_TYPE = new TypeToken<TreeMap<String, Long>>() {}.getType();
+
+	private final File file;
+	private final Map<String, Long> timings;
+
+	private TaskTimings(File file, Map<String, Long> timings) {
+		this.file = file;
+		this.timings = timings;
+	}
+
+	/**
+	 * Loads timings from given file. Missing or unreadable files yield empty timings.
+	 *
+	 * @param file timings file, may be {@code null} to not record timings
+	 * @return task timings
+	 */
+	public static TaskTimings load(File file) {
+
+		Map<String, Long> timings = null;
+		if (file != null && file.isFile()) {
+			try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+				timings = new Gson().fromJson(reader, TIMINGS_TYPE);
+			} catch (IOException | JsonParseException ignore) {
+			}
+		}
+		return new TaskTimings(file, timings != null ? timings : new TreeMap<>());
+	}
+
+	/**
+	 * Gets the recorded duration of a task.
+	 *
+	 * @param task task
+	 * @return duration in milliseconds or {@code -1} if not recorded
+	 */
+	public synchronized long get(ProcessFilesTask task) {
+		Long elapsed = timings.get(task.getKey());
+		return elapsed != null ? elapsed : -1;
+	}
+
+	/**
+	 * Records the duration of a task that did process its files.
+	 *
+	 * @param task finished task
+	 */
+	public synchronized void put(ProcessFilesTask task) {
+		if (task.isProcessed())
+			timings.put(task.getKey(), task.getElapsed());
+	}
+
+	/**
+	 * Saves the timings if a timings file is configured.
+	 *
+	 * @throws IOException when the timings file cannot be written
+	 */
+	public synchronized void save() throws IOException {
+
+		if (file == null)
+			return;
+
+		file.getParentFile().mkdirs();
+		try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+			new Gson().toJson(timings, TIMINGS_TYPE, writer);
+		}
+	}
+}
@@ -0,0 +1,228 @@
+package patchpump.minify.maven.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.codehaus.plexus.util.FileUtils;
+
+import com.github.luben.zstd.ZstdDictTrainer;
+import com.github.luben.zstd.ZstdException;
+
+/**
+ * Goal for training the zstd dictionaries used to create dcz files, one per file extension, from the minified files
+ * of the bundles.
+ *
+ * The dictionaries are written to {@code zstdDirectoryDir} as {@code <extension>.zstd.dict}, and the expected size of
+ * each bundle compressed with them is reported against its plain zst size. Bundles are measured with a dictionary
+ * trained without them, k-fold, since a dictionary compresses the files it was trained from far better than new
+ * versions of them, and dcz files not smaller than the zst file count as zst files, as the build discards them.
+ */
+@Mojo(name = "train-dictionary", threadSafe = true)
+public class TrainDictionaryMojo extends MinifyMojo {
+
+	// samples are cut from the minified files, as the trainer needs many samples and uses at most 128 KB of each
+	private static final int SAMPLE_SIZE = 4 * 1024;
+	private static final int DEFAULT_LEVEL = 3;
+	private static final int FOLDS = 5;
+
+	/**
+	 * Maximum size of a trained dictionary, in bytes.
+	 *
+	 * @since 2.8.0-PATCHPUMP-R18
+	 */
+	@Parameter(property = "dictionarySize", defaultValue = "112640")
+	protected int dictionarySize;
+
+	/**
+	 * Build the bundles before training. When {@code false} the minified files left by a previous build are sampled.
+	 *
+	 * @since 2.8.0-PATCHPUMP-R18
+	 */
+	@Parameter(property = "dictionaryBuild", defaultValue = "false")
+	protected boolean dictionaryBuild;
+
+	@Override
+	public void execute() throws MojoExecutionException, MojoFailureException {
+
+		if (zstdDirectoryDir == null)
+			throw new MojoFailureException("The zstdDirectoryDir parameter is required to train dictionaries.");
+
+		if (dictionarySize <= 0)
+			throw new MojoFailureException("The dictionarySize parameter must be positive.");
+
+		initialize();
+
+		List<ProcessFilesTask> tasks;
+		try {
+			tasks = createTasks();
+			if (dictionaryBuild)
+				build(tasks);
+		} finally {
+			shutdown();
+		}
+
+		// minified files of each bundle, grouped by the extension that selects the dictionary
+		Map<String, Map<String, List<File>>> bundles = new LinkedHashMap<>();
+		int missing = 0;
+		for (ProcessFilesTask task : tasks) {
+			for (File file : task.getMinifiedFiles()) {
+				if (!file.isFile()) {
+					if (verbose)
+						getLog().info("Minified file [" + file + "] not found.");
+					missing++;
+					continue;
+				}
+				String extension = FileUtils.getExtension(file.getName());
+				if (extension.isBlank())
+					continue;
+				bundles.computeIfAbsent(extension, k -> new LinkedHashMap<>()).computeIfAbsent(task.getKey(), k -> new ArrayList<>()).add(file);
+			}
+		}
+
+		if (missing > 0)
+			getLog().warn(missing + " minified files not found, build the bundles or set dictionaryBuild to sample them.");
+
+		if (bundles.isEmpty()) {
+			getLog().warn("No minified files to train dictionaries from.");
+			return;
+		}
+
+		try {
+			for (Map.Entry<String, Map<String, List<File>>> entry : bundles.entrySet())
+				train(entry.getKey(), entry.getValue());
+		} catch (IOException e) {
+			throw new MojoExecutionException("Failed to train dictionaries.", e);
+		}
+	}
+
+	/**
+	 * Trains the dictionary of an extension and reports the gain of each bundle.
+	 *
+	 * @param extension file extension
+	 * @param bundles minified files by bundle key
+	 * @throws IOException when a file cannot be read or written
+	 * @throws MojoExecutionException when training fails
+	 */
+	private void train(String extension, Map<String, List<File>> bundles) throws IOException, MojoExecutionException {
+
+		Map<String, byte[]> contents = new LinkedHashMap<>();
+		for (List<File> files : bundles.values()) {
+			for (File file : files)
+				contents.put(file.getPath(), Files.readAllBytes(file.toPath()));
+		}
+
+		byte[] dictionary;
+		try {
+			dictionary = trainDictionary(contents.values());
+		} catch (ZstdException e) {
+			throw new MojoExecutionException("Failed to train the [" + extension + "] dictionary from " + contents.size() + " files: " + e.getMessage(), e);
+		}
+
+		File dictionaryFile = ProcessFilesTask.dictionaryFile(zstdDirectoryDir, new File("bundle." + extension));
+		byte[] currentDictionary = (dictionaryFile.isFile()) ? Files.readAllBytes(dictionaryFile.toPath()) : null;
+		int level = (zstd > 0) ? zstd : DEFAULT_LEVEL;
+
+		// each bundle is measured with the dictionary trained on the bundles of the other folds
+		List<String> keys = new ArrayList<>(bundles.keySet());
+		int folds = Math.min(FOLDS, keys.size());
+		if (folds < 2)
+			getLog().warn("Only one [" + extension + "] bundle, its gain is measured with the dictionary trained from it and will be lower on new versions.");
+		byte[][] foldDictionaries = new byte[folds][];
+		for (int fold = 0; fold < folds && folds > 1; fold++) {
+			List<byte[]> training = new ArrayList<>();
+			for (int i = 0; i < keys.size(); i++) {
+				if (i % folds != fold) {
+					for (File file : bundles.get(keys.get(i)))
+						training.add(contents.get(file.getPath()));
+				}
+			}
+			try {
+				foldDictionaries[fold] = trainDictionary(training);
+			} catch (ZstdException e) {
+				getLog().warn("Failed to train the [" + extension + "] dictionary without fold " + (fold + 1) + " of " + folds + ", its bundles count as zst files: " + e.getMessage());
+			}
+		}
+
+		long totalZstd = 0;
+		long totalDcz = 0;
+		long totalCurrentDcz = 0;
+		for (int i = 0; i < keys.size(); i++) {
+			List<File> files = bundles.get(keys.get(i));
+			byte[] heldOutDictionary = (folds > 1) ? foldDictionaries[i % folds] : dictionary;
+			long zstdLength = 0;
+			long dczLength = 0;
+			long currentDczLength = 0;
+			for (File file : files) {
+				byte[] content = contents.get(file.getPath());
+				int fileZstdLength = ProcessFilesTask.zstdLength(content, level);
+				zstdLength += fileZstdLength;
+				dczLength += servedLength(content, heldOutDictionary, level, fileZstdLength);
+				if (currentDictionary != null)
+					currentDczLength += servedLength(content, currentDictionary, level, fileZstdLength);
+			}
+			totalZstd += zstdLength;
+			totalDcz += dczLength;
+			totalCurrentDcz += currentDczLength;
+
+			String name = (files.size() == 1) ? files.get(0).getName() : keys.get(i) + " (" + files.size() + " files)";
+			getLog().info(gain("Bundle [" + name + "]", zstdLength, dczLength, (currentDictionary != null) ? currentDczLength : -1));
+		}
+
+		dictionaryFile.getParentFile().mkdirs();
+		Files.write(dictionaryFile.toPath(), dictionary);
+		getLog().info("Trained dictionary [" + dictionaryFile + "] of " + dictionary.length + " bytes from " + contents.size() + " files at level " + level
+			+ ((folds > 1) ? ", gains measured over " + folds + " folds." : "."));
+		getLog().info(gain("Total [" + extension + "]", totalZstd, totalDcz, (currentDictionary != null) ? totalCurrentDcz : -1));
+	}
+
+	private byte[] trainDictionary(Collection<byte[]> contents) {
+
+		long totalSize = 0;
+		for (byte[] content : contents)
+			totalSize += content.length;
+
+		ZstdDictTrainer trainer = new ZstdDictTrainer((int)Math.min(totalSize, Integer.MAX_VALUE - 8), dictionarySize);
+		sampling:
+		for (byte[] content : contents) {
+			for (int i = 0; i < content.length; i += SAMPLE_SIZE) {
+				if (!trainer.addSample(Arrays.copyOfRange(content, i, Math.min(content.length, i + SAMPLE_SIZE))))
+					break sampling;
+			}
+		}
+		return trainer.trainSamples();
+	}
+
+	/**
+	 * Gets the size served for a file compressed with a dictionary, the zst size when the dcz file would be discarded.
+	 */
+	private static long servedLength(byte[] content, byte[] dictionary, int level, int zstdLength) throws IOException {
+
+		if (dictionary == null)
+			return zstdLength;
+		return Math.min(ProcessFilesTask.dczLength(content, dictionary, level), zstdLength);
+	}
+
+	private static String gain(String label, long zstdLength, long dczLength, long currentDczLength) {
+
+		String message = label + ": " + zstdLength + " bytes zst, " + dczLength + " bytes dcz, " + percent(zstdLength, dczLength) + " smaller";
+		if (currentDczLength >= 0)
+			message += ", " + currentDczLength + " bytes dcz with the current dictionary, " + percent(zstdLength, currentDczLength) + " smaller";
+		return message + ".";
+	}
+
+	private static String percent(long zstdLength, long dczLength) {
+		return (zstdLength > 0) ? String.format(Locale.ROOT, "%.1f%%", 100.0 * (zstdLength - dczLength) / zstdLength) : "0.0%";
+	}
+}
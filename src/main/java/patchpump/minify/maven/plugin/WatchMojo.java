@@ -0,0 +1,204 @@
+package patchpump.minify.maven.plugin;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+/**
+ * Goal for rebuilding bundles whenever one of their source files changes, until interrupted.
+ *
+ * The engines, Closure externs, terser contexts and zstd dictionaries stay loaded between rebuilds, and only the
+ * bundles containing a changed file are rebuilt.
+ */
+@Mojo(name = "watch", threadSafe = true)
+public class WatchMojo extends MinifyMojo {
+
+	/**
+	 * Time to wait for more file changes after the first one before rebuilding, in milliseconds.
+	 *
+	 * @since 2.8.0-PATCHPUMP-R18
+	 */
+	@Parameter(property = "watchDelay", defaultValue = "50")
+	protected int watchDelay;
+
+	private final Map<WatchKey, Path> watchedDirs = new HashMap<>();
+
+	@Override
+	public void execute() throws MojoExecutionException, MojoFailureException {
+
+		if (skipMerge && skipMinify) {
+			getLog().warn("Both merge and minify steps are configured to be skipped.");
+			return;
+		}
+
+		initialize();
+
+		try {
+			List<ProcessFilesTask> tasks = createTasks();
+			try {
+				build(tasks);
+			} catch (MojoExecutionException e) {
+				getLog().error(e.getMessage());
+			}
+
+			try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+				register(watchService, tasks);
+				getLog().info("Watching " + watchedDirs.size() + " directories for changes.");
+
+				while (!Thread.currentThread().isInterrupted()) {
+					Set<Path> changes = new HashSet<>();
+					boolean overflow = false;
+					WatchKey key = watchService.take();
+					long detected = System.currentTimeMillis();
+					while (key != null) {
+						overflow |= collect(watchService, key, changes);
+						key = watchService.poll(watchDelay, TimeUnit.MILLISECONDS);
+					}
+					if (changes.isEmpty() && !overflow)
+						continue;
+
+					List<ProcessFilesTask> previousTasks = tasks;
+					try {
+						tasks = createTasks();
+					} catch (MojoFailureException e) {
+						getLog().error(e.getMessage());
+						continue;
+					}
+					// also registers the directories created while events were lost
+					register(watchService, tasks);
+
+					List<ProcessFilesTask> affected;
+					if (overflow) {
+						getLog().warn("File change events were lost, rebuilding all bundles.");
+						affected = tasks;
+					} else {
+						affected = affectedTasks(tasks, previousTasks, changes);
+					}
+					if (affected.isEmpty())
+						continue;
+
+					try {
+						build(affected);
+						getLog().info("Rebuilt " + affected.size() + " bundles in " + (System.currentTimeMillis() - detected) + " ms after "
+							+ ((overflow) ? "lost file change events." : changes.size() + " changed files."));
+					} catch (MojoExecutionException e) {
+						getLog().error(e.getMessage());
+					}
+				}
+			} catch (IOException e) {
+				throw new MojoExecutionException("Failed to watch the source directories.", e);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		} finally {
+			shutdown();
+		}
+	}
+
+	/**
+	 * Gets the tasks whose current or previous source files include a changed file.
+	 *
+	 * @param tasks current tasks in bundle order
+	 * @param previousTasks tasks of the previous build
+	 * @param changes changed files
+	 * @return affected tasks in bundle order
+	 */
+	private static List<ProcessFilesTask> affectedTasks(List<ProcessFilesTask> tasks, List<ProcessFilesTask> previousTasks, Set<Path> changes) {
+
+		Map<String, ProcessFilesTask> previousByKey = new HashMap<>();
+		for (ProcessFilesTask task : previousTasks)
+			previousByKey.put(task.getKey(), task);
+
+		List<ProcessFilesTask> affected = new ArrayList<>();
+		for (ProcessFilesTask task : tasks) {
+			ProcessFilesTask previous = previousByKey.get(task.getKey());
+			if (containsAny(task, changes) || (previous != null && containsAny(previous, changes)))
+				affected.add(task);
+		}
+		return affected;
+	}
+
+	private static boolean containsAny(ProcessFilesTask task, Set<Path> changes) {
+		for (File file : task.getSourceFiles()) {
+			if (changes.contains(normalize(file.toPath())))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Collects the changed files of a watch key and watches the directories created.
+	 *
+	 * @return {@code true} when events were lost, the changes are then incomplete
+	 */
+	private boolean collect(WatchService watchService, WatchKey key, Set<Path> changes) throws IOException {
+
+		boolean overflow = false;
+		Path dir = watchedDirs.get(key);
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == OVERFLOW) {
+				overflow = true;
+				continue;
+			}
+			if (dir == null)
+				continue;
+			Path path = normalize(dir.resolve((Path)event.context()));
+			changes.add(path);
+			if (event.kind() == ENTRY_CREATE && Files.isDirectory(path))
+				registerTree(watchService, path);
+		}
+		if (!key.reset())
+			watchedDirs.remove(key);
+		return overflow;
+	}
+
+	private void register(WatchService watchService, List<ProcessFilesTask> tasks) throws IOException {
+		for (ProcessFilesTask task : tasks) {
+			for (File dir : task.getSourceDirs()) {
+				if (dir.isDirectory())
+					registerTree(watchService, normalize(dir.toPath()));
+			}
+		}
+	}
+
+	private void registerTree(WatchService watchService, Path root) throws IOException {
+		Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				if (watchedDirs.containsValue(dir))
+					return FileVisitResult.CONTINUE;
+				watchedDirs.put(dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	private static Path normalize(Path path) {
+		return path.toAbsolutePath().normalize();
+	}
+}
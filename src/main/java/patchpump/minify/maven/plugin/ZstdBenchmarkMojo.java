@@ -0,0 +1,143 @@
+package patchpump.minify.maven.plugin;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+import com.github.luben.zstd.ZstdException;
+
+import patchpump.minify.maven.common.ZstdConfig;
+
+/**
+ * Goal for comparing zstd compression time and ratio on the largest minified file of the bundles, at each of the
+ * benchmarked levels with the default settings and with the configured workers, long distance matching, window and
+ * content size.
+ */
+@Mojo(name = "benchmark-zstd", threadSafe = true)
+public class ZstdBenchmarkMojo extends MinifyMojo {
+
+	private static final List<Integer> DEFAULT_LEVELS = List.of(19, 20, 21, 22);
+
+	/**
+	 * Zstd levels to compare, 19 to 22 when not set.
+	 *
+	 * @since 2.8.0-PATCHPUMP-R18
+	 */
+	@Parameter(property = "benchmarkLevels")
+	protected ArrayList<Integer> benchmarkLevels;
+
+	/**
+	 * Number of timed compressions of each level and settings, the fastest one being reported.
+	 *
+	 * @since 2.8.0-PATCHPUMP-R18
+	 */
+	@Parameter(property = "benchmarkIterations", defaultValue = "3")
+	protected int benchmarkIterations;
+
+	/**
+	 * Build the bundles before benchmarking. When {@code false} the minified files left by a previous build are used.
+	 *
+	 * @since 2.8.0-PATCHPUMP-R18
+	 */
+	@Parameter(property = "benchmarkBuild", defaultValue = "false")
+	protected boolean benchmarkBuild;
+
+	@Override
+	public void execute() throws MojoExecutionException, MojoFailureException {
+
+		if (benchmarkIterations <= 0)
+			throw new MojoFailureException("The benchmarkIterations parameter must be positive.");
+
+		initialize();
+
+		List<ProcessFilesTask> tasks;
+		try {
+			tasks = createTasks();
+			if (benchmarkBuild)
+				build(tasks);
+		} finally {
+			shutdown();
+		}
+
+		File largest = null;
+		for (ProcessFilesTask task : tasks) {
+			for (File file : task.getMinifiedFiles()) {
+				if (file.isFile() && (largest == null || file.length() > largest.length()))
+					largest = file;
+			}
+		}
+
+		if (largest == null) {
+			getLog().warn("No minified files to benchmark, build the bundles or set benchmarkBuild.");
+			return;
+		}
+
+		byte[] content;
+		try {
+			content = Files.readAllBytes(largest.toPath());
+		} catch (IOException e) {
+			throw new MojoExecutionException("Failed to read [" + largest + "].", e);
+		}
+
+		ZstdConfig defaults = new ZstdConfig(0, false, 0, false);
+		ZstdConfig configured = fillZstdConfig();
+		List<Integer> levels = (benchmarkLevels == null || benchmarkLevels.isEmpty()) ? DEFAULT_LEVELS : benchmarkLevels;
+
+		getLog().info("Benchmarking zstd on [" + largest + "] of " + content.length + " bytes, best of " + benchmarkIterations + " runs.");
+		for (int level : levels) {
+			benchmark(content, level, defaults);
+			if (!configured.isDefault())
+				benchmark(content, level, configured);
+		}
+	}
+
+	private void benchmark(byte[] content, int level, ZstdConfig config) throws MojoExecutionException {
+
+		long best = Long.MAX_VALUE;
+		int length = 0;
+		for (int i = 0; i < benchmarkIterations; i++) {
+			// compressed through the stream the build writes zst files with
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream(content.length / 3 + 64);
+			long start = System.nanoTime();
+			try (OutputStream out = ProcessFilesTask.zstd(compressed, level, config, null)) {
+				out.write(content);
+			} catch (IOException | ZstdException e) {
+				throw new MojoExecutionException("Failed to compress at level " + level + " with " + describe(config) + ": " + e.getMessage(), e);
+			}
+			best = Math.min(best, System.nanoTime() - start);
+			length = compressed.size();
+		}
+
+		double ratio = (length > 0) ? (double)content.length / length : 0;
+		getLog().info(String.format(Locale.ROOT, "Level %d, %s: %d bytes, ratio %.3f, %d ms.", level, describe(config), length, ratio,
+			TimeUnit.NANOSECONDS.toMillis(best)));
+	}
+
+	private static String describe(ZstdConfig config) {
+
+		if (config.isDefault())
+			return "default settings";
+
+		List<String> settings = new ArrayList<>();
+		if (config.getWorkers() > 0)
+			settings.add(config.getWorkers() + " workers");
+		if (config.isLongDistance())
+			settings.add("long distance matching");
+		if (config.getWindowLog() > 0)
+			settings.add("window log " + config.getWindowLog());
+		if (config.isContentSize())
+			settings.add("content size");
+		return String.join(", ", settings);
+	}
+}
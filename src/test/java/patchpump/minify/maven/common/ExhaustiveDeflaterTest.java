@@ -0,0 +1,97 @@
+package patchpump.minify.maven.common;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Decodes the gzip and deflate outputs of {@link ExhaustiveDeflater} with java.util.zip.
+ *
+ * @author patchpump
+ */
+class ExhaustiveDeflaterTest {
+
+	@Test
+	void empty() throws Exception {
+		assertRoundTrip(new byte[0], 5);
+	}
+
+	@Test
+	void singleByte() throws Exception {
+		assertRoundTrip(new byte[] { 'a' }, 5);
+	}
+
+	@Test
+	void repetitive() throws Exception {
+		assertRoundTrip(repeat("a", 100_000), 5);
+		assertRoundTrip(repeat("abc", 100_000), 5);
+	}
+
+	@Test
+	void random() throws Exception {
+		assertRoundTrip(random(1, 100_000), 5);
+	}
+
+	@Test
+	void large() throws Exception {
+		// stored, fixed and dynamic blocks, matches across block boundaries and the full window
+		StringBuilder css = new StringBuilder();
+		for (int i = 0; css.length() < 1_000_000; i++)
+			css.append(".c").append(i).append("{color:#").append(Integer.toHexString(i * 7919 & 0xffffff)).append(";margin:").append(i % 37).append("px auto}");
+		byte[] text = css.toString().getBytes(StandardCharsets.UTF_8);
+		byte[] mixed = new byte[text.length + 200_000];
+		System.arraycopy(text, 0, mixed, 0, 500_000);
+		System.arraycopy(random(2, 200_000), 0, mixed, 500_000, 200_000);
+		System.arraycopy(text, 0, mixed, 700_000, text.length - 500_000);
+		assertRoundTrip(mixed, 1);
+	}
+
+	static byte[] repeat(String unit, int length) {
+		return unit.repeat(length / unit.length() + 1).substring(0, length).getBytes(StandardCharsets.US_ASCII);
+	}
+
+	static byte[] random(long seed, int length) {
+		byte[] bytes = new byte[length];
+		new Random(seed).nextBytes(bytes);
+		return bytes;
+	}
+
+	private static void assertRoundTrip(byte[] content, int iterations) throws IOException, DataFormatException {
+
+		assertArrayEquals(content, gunzip(ExhaustiveDeflater.gzip(content, iterations)));
+
+		byte[] deflated = ExhaustiveDeflater.deflate(content, iterations);
+		Inflater inflater = new Inflater(true);
+		try {
+			inflater.setInput(deflated);
+			ByteArrayOutputStream inflated = new ByteArrayOutputStream();
+			byte[] buffer = new byte[16 * 1024];
+			while (!inflater.finished()) {
+				int n = inflater.inflate(buffer);
+				inflated.write(buffer, 0, n);
+				assertTrue(inflater.finished() || n > 0 || !inflater.needsInput() && !inflater.needsDictionary(), "truncated deflate stream");
+			}
+			assertArrayEquals(content, inflated.toByteArray());
+			assertEquals(0, inflater.getRemaining(), "trailing bytes after the final block");
+		} finally {
+			inflater.end();
+		}
+	}
+
+	static byte[] gunzip(byte[] gzip) throws IOException {
+		try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzip))) {
+			return in.readAllBytes();
+		}
+	}
+}
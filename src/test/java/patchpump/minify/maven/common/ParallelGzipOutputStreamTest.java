@@ -0,0 +1,100 @@
+package patchpump.minify.maven.common;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static patchpump.minify.maven.common.ParallelGzipOutputStream.BLOCK_SIZE;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Decodes the output of {@link ParallelGzipOutputStream} with java.util.zip.
+ *
+ * @author patchpump
+ */
+class ParallelGzipOutputStreamTest {
+
+	private static final GzipConfig[] CONFIGS = { new GzipConfig(-1, GzipConfig.Strategy.DEFAULT, 0),
+		new GzipConfig(1, GzipConfig.Strategy.DEFAULT, 0), new GzipConfig(9, GzipConfig.Strategy.FILTERED, 0),
+		new GzipConfig(9, GzipConfig.Strategy.HUFFMAN_ONLY, 0) };
+
+	private ExecutorService executor;
+
+	@BeforeEach
+	void startExecutor() {
+		executor = Executors.newFixedThreadPool(4);
+	}
+
+	@AfterEach
+	void stopExecutor() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	void empty() throws Exception {
+		assertRoundTrip(new byte[0]);
+	}
+
+	@Test
+	void singleByte() throws Exception {
+		assertRoundTrip(new byte[] { 'a' });
+	}
+
+	@Test
+	void repetitive() throws Exception {
+		assertRoundTrip(ExhaustiveDeflaterTest.repeat("abc", 3 * BLOCK_SIZE + 5));
+	}
+
+	@Test
+	void random() throws Exception {
+		assertRoundTrip(ExhaustiveDeflaterTest.random(1, 3 * BLOCK_SIZE + 5));
+	}
+
+	@Test
+	void blockBoundaries() throws Exception {
+		assertRoundTrip(ExhaustiveDeflaterTest.random(2, BLOCK_SIZE - 1));
+		assertRoundTrip(ExhaustiveDeflaterTest.random(3, BLOCK_SIZE));
+		assertRoundTrip(ExhaustiveDeflaterTest.random(4, BLOCK_SIZE + 1));
+		assertRoundTrip(ExhaustiveDeflaterTest.random(5, 2 * BLOCK_SIZE));
+	}
+
+	@Test
+	void large() throws Exception {
+		// matches reaching back across block boundaries into the preset dictionary
+		StringBuilder css = new StringBuilder();
+		for (int i = 0; css.length() < 4_000_000; i++)
+			css.append(".c").append(i % 5000).append("{color:#").append(Integer.toHexString(i * 7919 & 0xffffff)).append(";margin:").append(i % 37).append("px auto}");
+		assertRoundTrip(css.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	private void assertRoundTrip(byte[] content) throws IOException {
+		for (GzipConfig config : CONFIGS) {
+			assertArrayEquals(content, ExhaustiveDeflaterTest.gunzip(gzip(content, config, 1)), config.toString());
+			assertArrayEquals(content, ExhaustiveDeflaterTest.gunzip(gzip(content, config, 8)), config.toString());
+		}
+	}
+
+	private byte[] gzip(byte[] content, GzipConfig config, int maxPending) throws IOException {
+
+		ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+		try (ParallelGzipOutputStream out = new ParallelGzipOutputStream(gzip, config, executor, maxPending)) {
+			// uneven writes, so blocks fill up in the middle of a write
+			int offset = 0;
+			for (int n = 1; offset < content.length; n = n * 3 + 1) {
+				int length = Math.min(n, content.length - offset);
+				if (length == 1)
+					out.write(content[offset]);
+				else
+					out.write(content, offset, length);
+				offset += length;
+			}
+		}
+		return gzip.toByteArray();
+	}
+}